@@ -0,0 +1,70 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a capture does for each event, which used to be Sensplore.Listener.onSensorChanged and is now RecorderService's
+ *  Collector: publish the sample to its stream's SampleRing, and update the stream's Features.  The rings are drained every
+ *  64 events, as the CaptureWriter would, so they never fill and start dropping.  One op is one event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+
+    @Param({ Recording.SYNTHETIC })
+    public String input;
+
+    @Param({ "CLASSIC", "MOTION" })
+    public String profile;
+
+    private Recording mEvents;
+    private CaptureStore mStore;
+    private Features mFeatures;
+    private int mCount = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        final CaptureProfile capture = "CLASSIC".equals(profile) ? CaptureProfile.CLASSIC : CaptureProfile.MOTION;
+        mEvents = Recording.load(input, capture.types());
+        mStore = new CaptureStore(capture);
+        mFeatures = new Features(new FeatureListener() {
+            @Override
+            public void features(int type, long timestamp, float[] vector) {
+            }
+        }, capture.types());
+    }
+
+    @Benchmark
+    public boolean capture() {
+        mEvents.next();
+        final float[] values = mEvents.values();
+        final int length = values.length;
+        final boolean kept = mStore.publish(mEvents.type(), mEvents.when(), values[0], (length > 1) ? values[1] : 0,
+                (length > 2) ? values[2] : 0);
+        mFeatures.sample(mEvents.type(), mEvents.when(), values);
+        if ((++mCount & 63) == 0) {
+            for (int stream = 0; stream < mStore.streams(); stream++) {
+                final SampleRing ring = mStore.ring(stream);
+                ring.consume(ring.available());
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,54 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CsvRow.appendTwoPlaces against the String.format it replaced, on sensor-sized values.  One op is one value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvRowBenchmark {
+
+    private final float[] mValues = new float[1 << 16];
+    private final CsvRow mRow = new CsvRow();
+    private int mNext = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = (float) (random.nextGaussian() * 20.0);
+        }
+    }
+
+    private float next() {
+        mNext = (mNext + 1) & (mValues.length - 1);
+        return mValues[mNext];
+    }
+
+    @Benchmark
+    public int appendTwoPlaces() {
+        return mRow.clear().appendTwoPlaces(next()).length();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%1$.2f", next());
+    }
+}
@@ -0,0 +1,82 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.hardware.Sensor;
+
+/**
+ * Features over ten sensors at 200Hz, a mix of 3-axis motion sensors, angle changes and single-value ones, each a little out
+ *  of step with the others and jittered by up to 3% of the period; through windows of various sizes, with a hop of a
+ *  quarter of the window.  One op is one sample; at 2000 samples a second, 500 ns/op would be a millisecond of CPU a
+ *  second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeaturesBenchmark {
+
+    private static final int[] TYPES = {
+        Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GRAVITY, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_LINEAR_ACCELERATION,
+        Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_ROTATION_VECTOR, Trace.TYPE_ANGLE_CHANGE, Sensor.TYPE_LIGHT,
+        Sensor.TYPE_PRESSURE, Sensor.TYPE_PROXIMITY
+    };
+    private static final int RATE = 200, SECONDS = 60;
+    private static final int EVENTS = TYPES.length * RATE * SECONDS;
+
+    @Param({ "64", "256", "1024" })
+    public int window;
+
+    private final int[] mTypes = new int[EVENTS];
+    private final long[] mWhen = new long[EVENTS];
+    private final float[][] mValues = new float[EVENTS][];
+    private int mNext = -1;
+    private long mOffset = 0;
+    private int mVectors = 0;
+    private Features mFeatures;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final long period = 1000000000L / RATE;
+        for (int i = 0, e = 0; i < RATE * SECONDS; i++) {
+            for (int s = 0; s < TYPES.length; s++, e++) {
+                final double t = i / (double) RATE;
+                mTypes[e] = TYPES[s];
+                mWhen[e] = i * period + s * period / TYPES.length + (long) (period * 0.03 * (2 * random.nextDouble() - 1));
+                final float swing = (float) (Math.sin(t * (1.3 + s)) * Math.sin(t * 0.21));
+                mValues[e] = new float[] { swing + (float) (0.1 * random.nextGaussian()), 0.5f * swing, 9.8f - swing };
+            }
+        }
+        mFeatures = new Features(new FeatureListener() {
+            @Override
+            public void features(int type, long timestamp, float[] vector) {
+                mVectors++;
+            }
+        }, TYPES, window, window / 4, Features.BAND_EDGES);
+    }
+
+    @Benchmark
+    public void sample() {
+        if (++mNext == EVENTS) {
+            mNext = 0;
+            mOffset += SECONDS * 1000000000L;
+        }
+        mFeatures.sample(mTypes[mNext], mWhen[mNext] + mOffset, mValues[mNext]);
+    }
+}
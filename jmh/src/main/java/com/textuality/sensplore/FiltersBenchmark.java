@@ -0,0 +1,61 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each of the Filters, on noisy tilt readings at 50Hz.  One op is one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FiltersBenchmark {
+
+    private static final long INTERVAL = 20000000L;
+
+    @Param({ "MovingAverage", "LowPass", "OneEuro", "Median" })
+    public String filter;
+
+    private Filter mFilter;
+    private final double[] mInput = new double[1 << 16];
+    private int mNext = 0;
+    private long mWhen = 0;
+
+    @Setup
+    public void setUp() {
+        if (filter.equals("MovingAverage")) {
+            mFilter = new Filters.MovingAverage(5);
+        } else if (filter.equals("LowPass")) {
+            mFilter = new Filters.LowPass(0.05);
+        } else if (filter.equals("OneEuro")) {
+            mFilter = new Filters.OneEuro(1.0, 0.5, 1.0);
+        } else {
+            mFilter = new Filters.Median(5);
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < mInput.length; i++) {
+            mInput[i] = 1.0 + (0.1 * random.nextGaussian());
+        }
+    }
+
+    @Benchmark
+    public double filter() {
+        mNext = (mNext + 1) & (mInput.length - 1);
+        return mFilter.filter(mWhen += INTERVAL, mInput[mNext]);
+    }
+}
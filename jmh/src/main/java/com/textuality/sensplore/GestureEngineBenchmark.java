@@ -0,0 +1,107 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.hardware.Sensor;
+
+/**
+ * GestureEngine's cost per event against the number of gestures: the built-in set, then more of a crowd.  One op is one
+ *  event, and the reports counter is how many gestures were recognized meanwhile, so both are per microsecond.
+ *
+ *  copies   copies of the built-in set, each with its dwell thresholds 5% longer than the one before, so no two gestures are
+ *           the same and they don't all report at once; they all move on the same input, so each adds its moves
+ *  corners  tipping toward a corner, turning around x and y together, each for a different time; they test bits that
+ *           change all the time, but are mostly waiting
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestureEngineBenchmark {
+
+    @Param({ Recording.SYNTHETIC })
+    public String input;
+
+    @Param({ "6", "24", "96", "384" })
+    public int gestures;
+
+    @Param({ "copies", "corners" })
+    public String crowd;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Reports {
+        public long reports;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            reports = 0;
+        }
+    }
+
+    private Recording mEvents;
+    private GestureEngine mEngine;
+    private Reports mReports;
+
+    @Setup
+    public void setUp() throws IOException {
+        final int[] others = { Sensor.TYPE_GRAVITY, Sensor.TYPE_LINEAR_ACCELERATION };
+        mEvents = Recording.load(input, Sensor.TYPE_ROTATION_VECTOR, others[0], others[1]);
+        if (!mEvents.has(Sensor.TYPE_ROTATION_VECTOR)) {
+            mEvents = Recording.load(input, Trace.TYPE_ANGLE_CHANGE, others[0], others[1]);
+        }
+
+        final Gesture[] all = Gesture.all();
+        final Gesture[] copies = new Gesture[gestures];
+        for (int i = 0; i < gestures; i++) {
+            final int c = i / all.length;
+            final Gesture gesture = (c > 0 && crowd.equals("corners")) ? corner(i % 4) : all[i % all.length];
+            copies[i] = gesture.scaled(gesture.mName + " " + c, 1 + 0.05 * c);
+        }
+        mEngine = new GestureEngine(new KineticListener() {
+            @Override
+            public boolean kineticRecognized(int gesture) {
+                mReports.reports++;
+                return false;
+            }
+        }, copies);
+    }
+
+    /**
+     * Turning around x and y at once, one of the four ways, for 50msec or more after 70msec at rest.
+     */
+    private static Gesture corner(int which) {
+        final int x = ((which & 1) == 0) ? GestureEngine.PLUS_X : GestureEngine.MINUS_X;
+        final int y = ((which & 2) == 0) ? GestureEngine.PLUS_Y : GestureEngine.MINUS_Y;
+        final int rest = 0, turning = 1;
+        return new Gesture("corner", GestureEngine.ANGLE, new int[][] {
+            { rest,    x | y, 0,     70, Gesture.FOREVER, turning, Gesture.NONE },
+            { turning, 0,     x,     50, Gesture.FOREVER, rest,    KineticListener.FLIP_UP },
+            { turning, 0,     y,     50, Gesture.FOREVER, rest,    KineticListener.FLIP_UP },
+            { turning, 0,     x | y, 0,  Gesture.FOREVER, rest,    Gesture.NONE },
+        });
+    }
+
+    @Benchmark
+    public void sample(Reports reports) {
+        mReports = reports;
+        mEvents.play(mEngine);
+    }
+}
@@ -0,0 +1,82 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.hardware.Sensor;
+
+/**
+ * What Kinetics does on the sensor thread for each event, which used to be Kinetics.handleRotation: the rotation matrix from
+ *  the rotation vector and the change in angle since the last one, in AngleTracker; and all of it, with the gestures
+ *  recognized from the angle changes, gravity and linear acceleration, in GestureEngine.  One op is one event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KineticsBenchmark {
+
+    // each benchmark gets its own state, so a capture without rotation vectors can still be run through the gestures
+
+    @State(Scope.Thread)
+    public static class Rotations {
+        @Param({ Recording.SYNTHETIC })
+        public String input;
+
+        Recording mRotations;
+        final AngleTracker mTracker = new AngleTracker();
+
+        @Setup
+        public void setUp() throws IOException {
+            mRotations = Recording.load(input, Sensor.TYPE_ROTATION_VECTOR);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Events {
+        @Param({ Recording.SYNTHETIC })
+        public String input;
+
+        Recording mEvents;
+        final GestureEngine mEngine = new GestureEngine(new KineticListener() {
+            @Override
+            public boolean kineticRecognized(int gesture) {
+                return false;
+            }
+        }, Gesture.all());
+
+        @Setup
+        public void setUp() throws IOException {
+            // the engine works out angle changes from rotation vectors itself, so it gets one or the other
+            final int[] others = { Sensor.TYPE_GRAVITY, Sensor.TYPE_LINEAR_ACCELERATION };
+            mEvents = Recording.load(input, Sensor.TYPE_ROTATION_VECTOR, others[0], others[1]);
+            if (!mEvents.has(Sensor.TYPE_ROTATION_VECTOR)) {
+                mEvents = Recording.load(input, Trace.TYPE_ANGLE_CHANGE, others[0], others[1]);
+            }
+        }
+    }
+
+    @Benchmark
+    public float[] angleChange(Rotations state) {
+        state.mRotations.next();
+        return state.mTracker.update(state.mRotations.values());
+    }
+
+    @Benchmark
+    public void gestures(Events state) {
+        state.mEvents.play(state.mEngine);
+    }
+}
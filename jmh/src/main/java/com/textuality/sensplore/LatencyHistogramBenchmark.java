@@ -0,0 +1,46 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LatencyHistogram.record() on log-normal latencies around a couple of msec, so they land all over the buckets.  One op is
+ *  one record().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyHistogramBenchmark {
+
+    private final long[] mValues = new long[1 << 16];
+    private final LatencyHistogram mHistogram = new LatencyHistogram("benchmark");
+    private int mNext = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = (long) (2e6 * Math.exp(random.nextGaussian()));
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        mNext = (mNext + 1) & (mValues.length - 1);
+        mHistogram.record(mValues[mNext]);
+    }
+}
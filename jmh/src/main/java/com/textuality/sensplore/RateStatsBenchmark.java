@@ -0,0 +1,51 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RateStats.event(), which runs in every callback while polling, on a simulated 50Hz sensor with jittery timestamps.  One
+ *  op is one event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateStatsBenchmark {
+
+    private static final long PERIOD = 20000000L;
+
+    private final long[] mJitter = new long[1 << 12];
+    private final RateStats mStats = new RateStats("Simulated", 1, "GAME", "bg");
+    private int mNext = 0;
+    private long mWhen = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < mJitter.length; i++) {
+            mJitter[i] = (long) (random.nextGaussian() * 1000000);
+        }
+    }
+
+    @Benchmark
+    public void event() {
+        mNext = (mNext + 1) & (mJitter.length - 1);
+        mWhen += PERIOD;
+        final long timestamp = mWhen + mJitter[mNext];
+        mStats.event(timestamp, timestamp + 3000000, mWhen / 1000);
+    }
+}
@@ -0,0 +1,202 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.hardware.Sensor;
+
+/**
+ * Sensor events for a benchmark to play over and over: made up, or read from a capture Sensplore recorded.  Each time round
+ *  the timestamps move on by the length of the recording, so whatever they're fed to sees time go forward.
+ *
+ * The made-up one is a minute of a phone being turned about, flicked one way and back every second and a half, and now and
+ *  then shaken, at SENSOR_DELAY_GAME's 50Hz with 3% of jitter: rotation vectors, the angle changes between them, gravity,
+ *  linear acceleration, and the accelerometer's sum of the two.  A recorded one is a .trace (one segment stands for its
+ *  whole capture) or a Sensplore CSV, as Replay reads them; a CSV has only linear acceleration and angle changes.
+ */
+final class Recording {
+
+    static final String SYNTHETIC = "synthetic";
+
+    private static final long MSEC = 1000000L;
+    private static final double GRAVITY_EARTH = 9.80665;
+
+    private final int[] mTypes;
+    private final long[] mWhen;
+    private final float[][] mValues;
+    private final long mSpan;
+    private int mNext = -1;
+    private long mOffset = 0;
+
+    private Recording(ArrayList<Object[]> events) {
+        final int n = events.size();
+        mTypes = new int[n];
+        mWhen = new long[n];
+        mValues = new float[n][];
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            mTypes[i] = (Integer) events.get(i)[0];
+            mWhen[i] = (Long) events.get(i)[1];
+            mValues[i] = (float[]) events.get(i)[2];
+            first = Math.min(first, mWhen[i]);
+            last = Math.max(last, mWhen[i]);
+        }
+        mSpan = last - first + 20 * MSEC;
+    }
+
+    /**
+     * @param input SYNTHETIC, or the path of a recorded capture
+     * @param types the sensor types wanted, or Trace.TYPE_ANGLE_CHANGE; the rest are left out
+     */
+    static Recording load(String input, int... types) throws IOException {
+        final ArrayList<Object[]> events = SYNTHETIC.equals(input) ? synthetic() : recorded(new File(input));
+        final ArrayList<Object[]> wanted = new ArrayList<Object[]>();
+        for (Object[] event : events) {
+            for (int type : types) {
+                if (type == (Integer) event[0]) {
+                    wanted.add(event);
+                }
+            }
+        }
+        if (wanted.isEmpty()) {
+            throw new IllegalArgumentException(input + " has none of the sensor types " + java.util.Arrays.toString(types));
+        }
+        return new Recording(wanted);
+    }
+
+    int size() {
+        return mTypes.length;
+    }
+
+    boolean has(int type) {
+        for (int t : mTypes) {
+            if (t == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves on to the next event, round to the first again after the last.
+     */
+    void next() {
+        if (++mNext == mTypes.length) {
+            mNext = 0;
+            mOffset += mSpan;
+        }
+    }
+
+    int type() {
+        return mTypes[mNext];
+    }
+
+    long when() {
+        return mWhen[mNext] + mOffset;
+    }
+
+    float[] values() {
+        return mValues[mNext];
+    }
+
+    /**
+     * Moves on to the next event and hands it to the sink.
+     */
+    void play(SampleSink sink) {
+        next();
+        sink.sample(mTypes[mNext], mWhen[mNext] + mOffset, mValues[mNext]);
+    }
+
+    private static ArrayList<Object[]> recorded(File file) throws IOException {
+        final ArrayList<Object[]> events = new ArrayList<Object[]>();
+        final SampleSink keep = new SampleSink() {
+            @Override
+            public void sample(int type, long timestamp, float[] values) {
+                events.add(new Object[] { type, timestamp, values.clone() });
+            }
+        };
+        final Replay replay = new Replay(keep);
+        final String name = file.getName();
+        if (name.endsWith(Trace.EXTENSION)) {
+            File[] traces = { file };
+            final String capture = SegmentStore.capture(name);
+            if (!capture.equals(name.substring(0, name.indexOf('.')))) {
+                traces = new SegmentStore(file.getAbsoluteFile().getParentFile(), capture).segments();
+            }
+            for (File segment : traces) {
+                final TraceReader trace = new TraceReader(segment);
+                try {
+                    replay.replay(trace);
+                } finally {
+                    trace.close();
+                }
+            }
+        } else {
+            replay.replayCsv(file);
+        }
+        return events;
+    }
+
+    private static ArrayList<Object[]> synthetic() {
+        final ArrayList<Object[]> events = new ArrayList<Object[]>();
+        final Random random = new Random(42);
+        final AngleTracker angles = new AngleTracker();
+        final float[] matrix = new float[9];
+        final long period = 20 * MSEC;
+        double ax = 0, ay = 0;
+        for (int i = 0; i < 50 * 60; i++) {
+            final long when = i * period + (long) (period * 0.03 * (2 * random.nextDouble() - 1));
+            final double t = i / 50.0;
+
+            // wandering slowly, with a flick every 1.5 seconds, around x or y and back, a quarter second each way
+            double rateX = 0.8 * Math.cos(t * 1.3) + 0.2 * random.nextGaussian();
+            double rateY = 0.3 * Math.cos(t * 0.7) + 0.2 * random.nextGaussian();
+            final int flick = (int) (t / 1.5);
+            final double phase = t - flick * 1.5;
+            final double flicking = (phase < 0.25) ? 4 : (phase >= 0.75 && phase < 1.0) ? -4 : 0;
+            if ((flick & 1) == 0) {
+                rateX += ((flick & 2) == 0) ? flicking : -flicking;
+            } else {
+                rateY += ((flick & 2) == 0) ? flicking : -flicking;
+            }
+            ax += rateX / 50;
+            ay += rateY / 50;
+
+            // as a rotation vector: axis * sin(angle / 2)
+            final double az = 0.2 * Math.sin(t * 0.3);
+            final double angle = Math.sqrt(ax * ax + ay * ay + az * az);
+            final double scale = (angle == 0) ? 0 : Math.sin(angle / 2) / angle;
+            final float[] rotation = { (float) (ax * scale), (float) (ay * scale), (float) (az * scale),
+                    (float) Math.cos(angle / 2) };
+            events.add(new Object[] { Sensor.TYPE_ROTATION_VECTOR, when, rotation });
+            final float[] change = angles.update(rotation);
+            if (change != null) {
+                events.add(new Object[] { Trace.TYPE_ANGLE_CHANGE, when, change.clone() });
+            }
+
+            // gravity is the world's z axis seen from the device: the matrix's bottom row
+            Rotation.getRotationMatrixFromVector(matrix, rotation);
+            final float[] gravity = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                gravity[axis] = (float) (GRAVITY_EARTH * matrix[6 + axis]);
+            }
+            events.add(new Object[] { Sensor.TYPE_GRAVITY, when + MSEC, gravity });
+
+            // shaken in bursts, and a little noise
+            final double shake = 14 * Math.sin(t * 9) * Math.max(0, Math.sin(t * 0.05));
+            final float[] linear = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                linear[axis] = (float) (((axis == 0) ? shake : 0.3 * shake) + 0.05 * random.nextGaussian());
+            }
+            events.add(new Object[] { Sensor.TYPE_LINEAR_ACCELERATION, when + 2 * MSEC, linear });
+            final float[] accel = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                accel[axis] = gravity[axis] + linear[axis];
+            }
+            events.add(new Object[] { Sensor.TYPE_ACCELEROMETER, when + 2 * MSEC, accel });
+        }
+        return events;
+    }
+}
@@ -0,0 +1,82 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resampler on two jittery streams merged in time order, as TraceCsv feeds it: a wave at about 50Hz, and the changes in a
+ *  turning angle at about 47Hz, onto a 100Hz timeline, so about one row goes out per sample.  One op is one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResamplerBenchmark {
+
+    private static final long MSEC = 1000000L;
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({ "NEAREST", "LINEAR" })
+    public String mode;
+
+    private final int[] mStream = new int[SAMPLES];
+    private final long[] mWhen = new long[SAMPLES];
+    private final float[] mValue = new float[SAMPLES];
+    private long mSpan;
+    private int mNext = -1;
+    private long mOffset = 0;
+    private double mSum = 0;
+    private Resampler mResampler;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        long wave = 3 * MSEC, turn = 15 * MSEC;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (wave <= turn) {
+                mStream[i] = 0;
+                mWhen[i] = wave;
+                mValue[i] = (float) Math.sin(2 * Math.PI * wave / 1e9);
+                wave += 20 * MSEC + random.nextInt(4 * (int) MSEC) - 2 * MSEC;
+            } else {
+                mStream[i] = 1;
+                mWhen[i] = turn;
+                mValue[i] = (float) (0.5 * 21 * MSEC / 1e9);
+                turn += 21 * MSEC + random.nextInt(4 * (int) MSEC) - 2 * MSEC;
+            }
+        }
+        mSpan = mWhen[SAMPLES - 1] + 25 * MSEC;
+        mResampler = new Resampler(10 * MSEC, mode.equals("LINEAR") ? Resampler.LINEAR : Resampler.NEAREST,
+                new boolean[] { false, true }) {
+            @Override
+            protected void row(long when, float[] values) {
+                mSum += values[0] + values[4];
+            }
+        };
+    }
+
+    @Benchmark
+    public void sample() throws IOException {
+        if (++mNext == SAMPLES) {
+            mNext = 0;
+            mOffset += mSpan;
+        }
+        final float value = mValue[mNext];
+        mResampler.sample(mStream[mNext], mWhen[mNext] + mOffset, value, -value, 0);
+    }
+}
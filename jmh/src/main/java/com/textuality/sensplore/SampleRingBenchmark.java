@@ -0,0 +1,114 @@
+package com.textuality.sensplore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A sensor thread publishing into a SampleRing as fast as it can while a writer thread drains it.  An op is one try at
+ *  publishing or one drain; the samples and full counters say how many samples actually got through and how often the
+ *  producer found the ring full, per microsecond.  With only one core the two threads take turns and the ring is mostly
+ *  full, so there batch, which publishes 64 samples and then drains them on one thread, is the number to go by.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleRingBenchmark {
+
+    @Param({ "1024", "16384" })
+    public int capacity;
+
+    private SampleRing mRing;
+
+    @Setup
+    public void setUp() {
+        mRing = new SampleRing(capacity);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Published {
+        public long samples;
+        public long full;
+        long mWhen;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            samples = 0;
+            full = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Drained {
+        public long drained;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            drained = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void publish(Published counts) {
+        final float value = (float) (counts.mWhen & 0xffff);
+        if (mRing.publish(counts.mWhen, value, -value, value * 0.5f)) {
+            counts.mWhen++;
+            counts.samples++;
+        } else {
+            counts.full++;
+        }
+    }
+
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    @OperationsPerInvocation(64)
+    public double batch() {
+        for (int when = 0; when < 64; when++) {
+            mRing.publish(when, when, -when, 0.5f * when);
+        }
+        final int n = mRing.available();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += mRing.when(i) + mRing.x(i) + mRing.y(i) + mRing.z(i);
+        }
+        mRing.consume(n);
+        return sum;
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public double drain(Drained counts) {
+        final int n = mRing.available();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += mRing.when(i) + mRing.x(i) + mRing.y(i) + mRing.z(i);
+        }
+        mRing.consume(n);
+        counts.drained += n;
+        return sum;
+    }
+}
@@ -0,0 +1,55 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.hardware.Sensor;
+
+/**
+ * What Tilt does for each gravity reading, which used to be Tilt.process: the acos, then the default filter, now in
+ *  TiltMeter.  One op is one reading.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TiltBenchmark {
+
+    @Param({ Recording.SYNTHETIC })
+    public String input;
+
+    private Recording mGravity;
+    private TiltMeter mMeter;
+    private double mTilt;
+
+    @Setup
+    public void setUp() throws IOException {
+        mGravity = Recording.load(input, Sensor.TYPE_GRAVITY);
+        mMeter = new TiltMeter(new TiltListener() {
+            @Override
+            public void setTilt(double value) {
+                mTilt = value;
+            }
+        });
+    }
+
+    @Benchmark
+    public double tilt() {
+        mGravity.play(mMeter);
+        return mTilt;
+    }
+}
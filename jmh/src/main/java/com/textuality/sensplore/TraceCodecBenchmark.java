@@ -0,0 +1,130 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.hardware.Sensor;
+
+/**
+ * Compressing and decompressing a capture's samples, block by block as TraceWriter and TraceReader do, each sensor's in
+ *  blocks of their own.  One op is one block.  The counters are per microsecond, so they read as MB/s: raw is the bytes
+ *  the samples take in an uncompressed trace, encoded what they take compressed, and raw / encoded is the ratio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceCodecBenchmark {
+
+    private static final int[] TYPES = { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_GRAVITY, Sensor.TYPE_LINEAR_ACCELERATION, Sensor.TYPE_ROTATION_VECTOR, Trace.TYPE_ANGLE_CHANGE };
+
+    @Param({ Recording.SYNTHETIC })
+    public String input;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long raw;
+        public long encoded;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            raw = 0;
+            encoded = 0;
+        }
+    }
+
+    private final ArrayList<Block> mBlocks = new ArrayList<Block>();
+    private final ByteBuffer mOut = ByteBuffer.allocate(TraceCodec.maxEncodedSize(Trace.BLOCK_SAMPLES)).order(Trace.ORDER);
+    private final long[] mMicros = new long[Trace.BLOCK_SAMPLES];
+    private final float[] mX = new float[Trace.BLOCK_SAMPLES];
+    private final float[] mY = new float[Trace.BLOCK_SAMPLES];
+    private final float[] mZ = new float[Trace.BLOCK_SAMPLES];
+    private int mNext = -1;
+
+    private static class Block {
+        final long[] mMicros = new long[Trace.BLOCK_SAMPLES];
+        final float[] mX = new float[Trace.BLOCK_SAMPLES];
+        final float[] mY = new float[Trace.BLOCK_SAMPLES];
+        final float[] mZ = new float[Trace.BLOCK_SAMPLES];
+        int mCount = 0;
+        ByteBuffer mEncoded;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        final Recording recording = Recording.load(input, TYPES);
+        final Block[] filling = new Block[TYPES.length];
+        for (int i = 0; i < recording.size(); i++) {
+            recording.next();
+            int t = 0;
+            while (TYPES[t] != recording.type()) {
+                t++;
+            }
+            if (filling[t] == null || filling[t].mCount == Trace.BLOCK_SAMPLES) {
+                filling[t] = new Block();
+                mBlocks.add(filling[t]);
+            }
+            final Block block = filling[t];
+            final float[] values = recording.values();
+            block.mMicros[block.mCount] = (recording.when() + 500) / 1000;
+            block.mX[block.mCount] = values[0];
+            block.mY[block.mCount] = values[1];
+            block.mZ[block.mCount] = values[2];
+            block.mCount++;
+        }
+        for (Block block : mBlocks) {
+            mOut.clear();
+            TraceCodec.encode(block.mMicros, block.mX, block.mY, block.mZ, block.mCount, mOut);
+            mOut.flip();
+            block.mEncoded = ByteBuffer.allocate(mOut.remaining()).order(Trace.ORDER);
+            block.mEncoded.put(mOut);
+        }
+    }
+
+    private Block next() {
+        if (++mNext == mBlocks.size()) {
+            mNext = 0;
+        }
+        return mBlocks.get(mNext);
+    }
+
+    @Benchmark
+    public int encode(Bytes bytes) {
+        final Block block = next();
+        mOut.clear();
+        final int length = TraceCodec.encode(block.mMicros, block.mX, block.mY, block.mZ, block.mCount, mOut);
+        bytes.raw += (long) block.mCount * Trace.RECORD_SIZE;
+        bytes.encoded += length + Trace.BLOCK_HEADER_SIZE;
+        return length;
+    }
+
+    @Benchmark
+    public float decode(Bytes bytes) {
+        final Block block = next();
+        mMicros[0] = block.mMicros[0];
+        TraceCodec.decode(block.mEncoded, 0, block.mCount, mMicros, mX, mY, mZ);
+        bytes.raw += (long) block.mCount * Trace.RECORD_SIZE;
+        bytes.encoded += block.mEncoded.capacity() + Trace.BLOCK_HEADER_SIZE;
+        return mX[block.mCount - 1];
+    }
+}
@@ -0,0 +1,52 @@
+package com.textuality.sensplore;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes the current thread has allocated, from HotSpot's com.sun.management.ThreadMXBean.  Reading it allocates a little,
+ *  the same each time once it's warmed up, so measure() takes that off.
+ */
+final class Allocations {
+
+    private static final com.sun.management.ThreadMXBean BEAN = bean();
+
+    private Allocations() {
+    }
+
+    /**
+     * Runs the work twice, once to warm up so the JIT has done its work, and skips the test on a JVM that can't count.
+     *
+     * @return bytes the current thread allocated while running the work the second time
+     */
+    static long measure(Runnable work) {
+        assumeTrue("this JVM can't count a thread's allocations", BEAN != null);
+        work.run();
+        for (int i = 0; i < 100; i++) {
+            bytes();
+        }
+        final long before = bytes();
+        final long overhead = bytes() - before;
+        final long start = bytes();
+        work.run();
+        return bytes() - start - overhead;
+    }
+
+    private static long bytes() {
+        return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean bean() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) bean;
+        if (!counting.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counting.setThreadAllocatedMemoryEnabled(true);
+        return counting;
+    }
+}
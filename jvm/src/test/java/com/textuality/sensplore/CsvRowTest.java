@@ -0,0 +1,93 @@
+package com.textuality.sensplore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvRowTest {
+
+    private static final float MAX_EXACT = 1 << 30;
+
+    @Test
+    public void awkwardValuesMatchStringFormat() throws IOException {
+        final float[] awkward = { 0f, -0f, 0.005f, -0.005f, 0.125f, -0.125f, 0.375f, 2.675f, 1.005f, 99.995f, -0.001f,
+                Float.MIN_VALUE, -Float.MIN_VALUE, MAX_EXACT, -MAX_EXACT, Math.nextAfter(MAX_EXACT, 0),
+                Math.nextAfter(-MAX_EXACT, 0), Float.MAX_VALUE, -Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY };
+        final CsvRow row = new CsvRow();
+        for (float value : awkward) {
+            assertEquals(Float.toString(value), twoPlaces(value), text(row.appendTwoPlaces(value)));
+        }
+    }
+
+    /**
+     * Every bit pattern is as likely as any other, which is mostly huge or tiny numbers, so this mixes in sensor-sized
+     *  values, exact eighths (ties at the third place), and hundredths that floats can't hold exactly.
+     */
+    @Test
+    public void randomValuesMatchStringFormat() throws IOException {
+        final Random random = new Random(42);
+        final CsvRow row = new CsvRow();
+        for (int i = 0; i < 4000000; i++) {
+            final float value;
+            switch (i & 3) {
+            case 0:
+                value = Float.intBitsToFloat(random.nextInt());
+                break;
+            case 1:
+                value = (random.nextFloat() - 0.5f) * 2000f;
+                break;
+            case 2:
+                value = (random.nextInt(2000001) - 1000000) / 8f;
+                break;
+            default:
+                value = (random.nextInt(2000001) - 1000000) / 100f;
+                break;
+            }
+            final String expected = twoPlaces(value);
+            final String actual = text(row.appendTwoPlaces(value));
+            if (!expected.equals(actual)) {
+                assertEquals(value + " (0x" + Integer.toHexString(Float.floatToRawIntBits(value)) + ")", expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void samplesAreMsecThenXyz() throws IOException {
+        final CsvRow row = new CsvRow();
+        assertEquals("1.50, 1.00, -0.50, 0.13", text(row.appendSample(1499600L, 1f, -0.5f, 0.125f)));
+        assertEquals("0.00", text(row.appendTime(400L)));
+    }
+
+    @Test
+    public void longRowsGrow() throws IOException {
+        final CsvRow row = new CsvRow();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            row.append(", ").appendTwoPlaces(i * 1.5f);
+            expected.append(", ").append(twoPlaces(i * 1.5f));
+        }
+        assertEquals(expected.length(), row.length());
+        assertEquals(expected.toString(), text(row));
+    }
+
+    private static String twoPlaces(float value) {
+        return String.format(Locale.US, "%1$.2f", value);
+    }
+
+    /**
+     * @return what the row writes, less its newline; the row is left clear
+     */
+    private static String text(CsvRow row) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        row.writeLine(out);
+        final String line = out.toString("US-ASCII");
+        assertEquals('\n', line.charAt(line.length() - 1));
+        return line.substring(0, line.length() - 1);
+    }
+}
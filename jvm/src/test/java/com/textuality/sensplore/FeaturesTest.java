@@ -0,0 +1,264 @@
+package com.textuality.sensplore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.hardware.Sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeaturesTest {
+
+    private static final long PERIOD = 5000000;    // 200Hz
+    // frequencies with a whole number of periods in the window, so its mean is the signal's
+    private static final double BIN = 1e9 / PERIOD / Features.WINDOW;
+
+    /**
+     * 3 + 2 sin at about 4.7Hz: mean 3, variance 2, rms sqrt(11), peak 5, and all 2 of the energy between 3 and 8Hz.
+     */
+    @Test
+    public void steadySine() {
+        final Keep keep = new Keep();
+        final Features features = new Features(keep, new int[] { Sensor.TYPE_GYROSCOPE });
+        final float[] values = new float[3];
+        for (int i = 0; i < 2000; i++) {
+            values[0] = (float) (3 + 2 * Math.sin(2 * Math.PI * 6 * BIN * i * PERIOD / 1e9));
+            features.sample(Sensor.TYPE_GYROSCOPE, i * PERIOD, values);
+        }
+        final float[] vector = keep.mLast;
+        assertEquals(Sensor.TYPE_GYROSCOPE, keep.mType);
+        // the last vector ends with the last sample a whole number of hops past the first full window
+        assertEquals((Features.WINDOW + (2000 - Features.WINDOW) / Features.HOP * Features.HOP - 1) * PERIOD, keep.mWhen);
+        assertEquals(3, vector[Features.MEAN], 1e-3);
+        assertEquals(Math.sqrt(11), vector[Features.RMS], 1e-3);
+        assertEquals(2, vector[Features.VARIANCE], 1e-3);
+        assertEquals(5, vector[Features.PEAK], 1e-3);
+        assertEquals(0, vector[Features.CROSSINGS], 0);
+        final float[] bands = { 0, 0, 2, 0, 0 };
+        for (int band = 0; band < bands.length; band++) {
+            assertEquals("band " + band, bands[band], vector[Features.BANDS + band], 1e-3);
+        }
+    }
+
+    /**
+     * A sine at about 11.7Hz on x and y: crossings at twice that on each axis, and the magnitude is rectified, so it's at
+     *  twice the frequency too, with all its energy between 20 and 50Hz.
+     */
+    @Test
+    public void crossingsAndARectifiedSine() {
+        final Keep keep = new Keep();
+        final Features features = new Features(keep, new int[] { Sensor.TYPE_LINEAR_ACCELERATION });
+        final float[] values = new float[3];
+        for (int i = 0; i < 2000; i++) {
+            values[0] = values[1] = (float) Math.sin(2 * Math.PI * 15 * BIN * i * PERIOD / 1e9 + 0.1);
+            features.sample(Sensor.TYPE_LINEAR_ACCELERATION, i * PERIOD, values);
+        }
+        final float[] vector = keep.mLast;
+        final double variance = 1 - 8 / (Math.PI * Math.PI);
+        assertEquals(2 * Math.sqrt(2) / Math.PI, vector[Features.MEAN], 1e-3);
+        assertEquals(1, vector[Features.RMS], 1e-3);
+        assertEquals(variance, vector[Features.VARIANCE], 1e-3);
+        assertEquals(Math.sqrt(2), vector[Features.PEAK], 1e-3);
+        assertEquals(4 * 15 * BIN, vector[Features.CROSSINGS], 0.5);
+        for (int band = 0; band < 4; band++) {
+            assertEquals("band " + band, 0, vector[Features.BANDS + band], 1e-3);
+        }
+        assertEquals(variance, vector[Features.BANDS + 4], 0.01 * variance);
+    }
+
+    /**
+     * A random walk with jolts, for a million samples; every window's features are checked against the same sums done
+     *  directly, over long enough for rounding to show if it built up.
+     */
+    @Test
+    public void runningSumsMatchDirectSums() {
+        final int window = 64;
+        final int samples = 1000000;
+        final double[] history = new double[samples];
+        final float[] axes = new float[samples * 3];
+        final int[] count = new int[1];
+        final int[] vectors = new int[1];
+        final Features features = new Features(new FeatureListener() {
+            @Override
+            public void features(int type, long timestamp, float[] vector) {
+                final int end = count[0];
+                double sum = 0, squares = 0, peak = Double.NEGATIVE_INFINITY;
+                int crossings = 0;
+                for (int i = end - window; i < end; i++) {
+                    sum += history[i];
+                    squares += history[i] * history[i];
+                    peak = Math.max(peak, history[i]);
+                    if (i > end - window) {
+                        for (int axis = 0; axis < 3; axis++) {
+                            if ((axes[i * 3 + axis] > 0) != (axes[(i - 1) * 3 + axis] > 0)) {
+                                crossings++;
+                            }
+                        }
+                    }
+                }
+                final double mean = sum / window, variance = squares / window - mean * mean;
+                final double seconds = (window - 1) * PERIOD / 1e9;
+                assertEquals(mean, vector[Features.MEAN], 1e-6 * mean);
+                assertEquals(variance, vector[Features.VARIANCE], 1e-6 * variance);
+                assertEquals(peak, vector[Features.PEAK], 1e-6 * peak);
+                assertEquals(crossings / seconds, vector[Features.CROSSINGS], 1e-3);
+                vectors[0]++;
+            }
+        }, new int[] { Sensor.TYPE_LINEAR_ACCELERATION }, window, 7, Features.BAND_EDGES);
+        final Random random = new Random(42);
+        final float[] walk = { 0.5f, 0.5f, 0.5f };
+        for (int i = 0; i < samples; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                walk[axis] += (float) (0.2 * random.nextGaussian()) - 0.01f * walk[axis];
+                if (random.nextInt(1000) == 0) {
+                    walk[axis] += 50;
+                }
+            }
+            System.arraycopy(walk, 0, axes, i * 3, 3);   // none of them ever exactly 0
+            history[i] = Math.sqrt(walk[0] * walk[0] + walk[1] * walk[1] + walk[2] * walk[2]);
+            count[0] = i + 1;
+            features.sample(Sensor.TYPE_LINEAR_ACCELERATION, i * PERIOD, walk);
+        }
+        assertEquals((samples - window) / 7 + 1, vectors[0]);
+    }
+
+    /**
+     * Angle changes are turned into rates, so a steady turn sampled unevenly has a steady peak rate; the first sample has
+     *  no interval, and one at the same time as the one before is skipped.
+     */
+    @Test
+    public void angleChangesBecomeRates() {
+        final Keep keep = new Keep();
+        final Features features = new Features(keep, new int[] { Trace.TYPE_ANGLE_CHANGE }, 16, 16, Features.BAND_EDGES);
+        final float[] values = new float[3];
+        long when = 0;
+        final Random random = new Random(42);
+        for (int i = 0; i < 17; i++) {
+            final long interval = PERIOD + random.nextInt((int) PERIOD);
+            when += interval;
+            values[2] = (float) (2.0 * interval / 1e9);   // 2 radians a second around z
+            features.sample(Trace.TYPE_ANGLE_CHANGE, when, values);
+            if (i == 8) {
+                features.sample(Trace.TYPE_ANGLE_CHANGE, when, values);
+            }
+        }
+        assertEquals(1, keep.mVectors);
+        assertEquals(2, keep.mLast[Features.PEAK], 1e-4);
+        assertEquals(2, keep.mLast[Features.MEAN], 1e-4);
+    }
+
+    @Test
+    public void resetStartsAfresh() {
+        final Keep keep = new Keep();
+        final Features features = new Features(keep, new int[] { Sensor.TYPE_LIGHT }, 8, 4, Features.BAND_EDGES);
+        final float[] values = new float[1];
+        for (int i = 0; i < 7; i++) {
+            values[0] = 1000;
+            features.sample(Sensor.TYPE_LIGHT, i * PERIOD, values);
+        }
+        features.reset();
+        for (int i = 0; i < 8; i++) {
+            values[0] = i;
+            features.sample(Sensor.TYPE_LIGHT, (i + 10) * PERIOD, values);
+            // other types are ignored
+            features.sample(Sensor.TYPE_PRESSURE, (i + 10) * PERIOD, values);
+        }
+        assertEquals(1, keep.mVectors);
+        assertEquals(3.5, keep.mLast[Features.MEAN], 1e-6);
+        assertEquals(7, keep.mLast[Features.PEAK], 0);
+    }
+
+    @Test
+    public void badArguments() {
+        final Keep keep = new Keep();
+        final int[] types = { Sensor.TYPE_GYROSCOPE };
+        for (int window : new int[] { 2, 100 }) {
+            try {
+                new Features(keep, types, window, 1, Features.BAND_EDGES);
+                throw new AssertionError("window " + window);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            new Features(keep, types, 64, 0, Features.BAND_EDGES);
+            throw new AssertionError("hop 0");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new Features(keep, types, 64, 16, new double[] { 1 });
+            throw new AssertionError("no bands");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Features.LENGTH, new Features(keep, types).length());
+        assertEquals(Features.BANDS + 2, new Features(keep, types, 64, 16, new double[] { 0, 5, 10 }).length());
+    }
+
+    @Test
+    public void csvHasAHeadingForEveryFeature() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(bytes);
+        final double[] edges = { 0, 0.5, 3 };
+        final Features.CsvWriter writer = new Features.CsvWriter(out, edges);
+        final Features features = new Features(writer, new int[] { Sensor.TYPE_GYROSCOPE }, 4, 4, edges);
+        for (int i = 0; i < 4; i++) {
+            features.sample(Sensor.TYPE_GYROSCOPE, i * PERIOD, new float[] { 1, 0, 0 });
+        }
+        out.flush();
+        final String[] lines = bytes.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("Sensor,t (msec),mean,rms,variance,peak,crossings/sec,0-0.5Hz,0.5-3Hz", lines[0].trim());
+        assertEquals(lines[0].split(",").length, lines[1].split(",").length);
+        assertEquals(1, writer.vectors());
+    }
+
+    @Test
+    public void sampleAllocatesNothing() {
+        final int[] types = { Sensor.TYPE_ACCELEROMETER, Trace.TYPE_ANGLE_CHANGE, Sensor.TYPE_LIGHT };
+        final int[] vectors = new int[1];
+        final Features features = new Features(new FeatureListener() {
+            @Override
+            public void features(int type, long timestamp, float[] vector) {
+                vectors[0]++;
+            }
+        }, types, 256, 64, Features.BAND_EDGES);
+        final float[] values = new float[3];
+        final long[] when = new long[1];
+        assertEquals(0, Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // long enough for the JIT to be done with it while warming up
+                for (int i = 0; i < 200000; i++) {
+                    when[0] += PERIOD;
+                    values[0] = (float) Math.sin(i * 0.1);
+                    values[1] = values[2] = 0.5f * values[0];
+                    for (int type : types) {
+                        features.sample(type, when[0], values);
+                    }
+                }
+            }
+        }));
+        assertTrue(vectors[0] > 0);
+    }
+
+    private static class Keep implements FeatureListener {
+        float[] mLast;
+        int mType;
+        long mWhen;
+        int mVectors = 0;
+
+        @Override
+        public void features(int type, long timestamp, float[] vector) {
+            mLast = vector.clone();
+            mType = type;
+            mWhen = timestamp;
+            mVectors++;
+        }
+    }
+}
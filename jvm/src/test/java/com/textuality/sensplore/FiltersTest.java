@@ -0,0 +1,145 @@
+package com.textuality.sensplore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FiltersTest {
+
+    private static final long INTERVAL = 20000000L;   // SENSOR_DELAY_GAME's 50Hz
+
+    /**
+     * Lag: how many samples after a step from 0 to 1 the output stays under 0.9.
+     */
+    @Test
+    public void lagThroughAStep() {
+        assertEquals(4, lag(new Filters.MovingAverage(5)));
+        assertEquals(6, lag(new Filters.LowPass(0.05)));
+        assertEquals(4, lag(new Filters.OneEuro(1.0, 0.5, 1.0)));
+        assertEquals(2, lag(new Filters.Median(5)));
+    }
+
+    @Test
+    public void movingAverageAveragesWhatItHas() {
+        final Filter filter = new Filters.MovingAverage(4);
+        final double[] input = new double[1000];
+        final Random random = new Random(42);
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextGaussian() * 1e6;
+            double sum = 0;
+            final int from = Math.max(0, i - 3);
+            for (int j = from; j <= i; j++) {
+                sum += input[j];
+            }
+            assertEquals("sample " + i, sum / (i - from + 1), filter.filter(i * INTERVAL, input[i]), 1e-6);
+        }
+    }
+
+    @Test
+    public void medianMatchesASortedWindow() {
+        final Filter filter = new Filters.Median(5);
+        final double[] input = new double[1000];
+        final Random random = new Random(42);
+        for (int i = 0; i < input.length; i++) {
+            // repeats, so removal has to find the right one of several equal values
+            input[i] = random.nextInt(8);
+            final double[] window = Arrays.copyOfRange(input, Math.max(0, i - 4), i + 1);
+            Arrays.sort(window);
+            assertEquals("sample " + i, window[window.length / 2], filter.filter(i * INTERVAL, input[i]), 0);
+        }
+    }
+
+    @Test
+    public void medianThrowsOutASpike() {
+        final Filter filter = new Filters.Median(3);
+        final double[] input = { 1, 1, 1, 50, 1, 1 };
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(1, filter.filter(i * INTERVAL, input[i]), 0);
+        }
+    }
+
+    @Test
+    public void lowPassStartsFromTheFirstValue() {
+        final Filter filter = new Filters.LowPass(0.05);
+        assertEquals(5, filter.filter(0, 5), 0);
+        assertEquals(5 + (2.0 / 7) * (12 - 5), filter.filter(INTERVAL, 12), 1e-12);
+    }
+
+    /**
+     * Timestamps that are missing or go backwards count as SENSOR_DELAY_GAME's interval.
+     */
+    @Test
+    public void unusableTimestampsFallBackToTheDefaultInterval() {
+        final Filter[] timed = { new Filters.LowPass(0.05), new Filters.OneEuro(1.0, 0.5, 1.0) };
+        final Filter[] missing = { new Filters.LowPass(0.05), new Filters.OneEuro(1.0, 0.5, 1.0) };
+        final Filter[] backwards = { new Filters.LowPass(0.05), new Filters.OneEuro(1.0, 0.5, 1.0) };
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            final double value = random.nextGaussian();
+            for (int f = 0; f < timed.length; f++) {
+                final double expected = timed[f].filter(i * INTERVAL, value);
+                assertEquals("sample " + i, expected, missing[f].filter(0, value), 1e-12);
+                assertEquals("sample " + i, expected, backwards[f].filter(-i * INTERVAL, value), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void resetStartsAfresh() {
+        for (int which = 0; which < 4; which++) {
+            final Filter used = create(which);
+            final Filter fresh = create(which);
+            final Random random = new Random(which);
+            for (int i = 0; i < 50; i++) {
+                used.filter(i * INTERVAL, random.nextGaussian() + 100);
+            }
+            used.reset();
+            for (int i = 0; i < 50; i++) {
+                final double value = random.nextGaussian();
+                assertEquals("filter " + which + ", sample " + i, fresh.filter(i * INTERVAL, value),
+                        used.filter(i * INTERVAL, value), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void chainRunsEachInTurn() {
+        final Filter chain = new Filters.Chain(new Filters.Median(3), new Filters.LowPass(0.05));
+        final Filter median = new Filters.Median(3);
+        final Filter lowPass = new Filters.LowPass(0.05);
+        final Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            final double value = random.nextGaussian();
+            assertEquals(lowPass.filter(i * INTERVAL, median.filter(i * INTERVAL, value)), chain.filter(i * INTERVAL, value),
+                    0);
+        }
+    }
+
+    private static int lag(Filter filter) {
+        long when = 0;
+        for (int i = 0; i < 100; i++) {
+            filter.filter(when += INTERVAL, 0);
+        }
+        int samples = 0;
+        while (filter.filter(when += INTERVAL, 1) < 0.9) {
+            samples++;
+        }
+        return samples;
+    }
+
+    private static Filter create(int which) {
+        switch (which) {
+        case 0:
+            return new Filters.MovingAverage(5);
+        case 1:
+            return new Filters.LowPass(0.05);
+        case 2:
+            return new Filters.OneEuro(1.0, 0.5, 1.0);
+        default:
+            return new Filters.Median(5);
+        }
+    }
+}
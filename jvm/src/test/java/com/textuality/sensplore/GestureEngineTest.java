@@ -0,0 +1,252 @@
+package com.textuality.sensplore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.hardware.Sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GestureEngineTest {
+
+    private static final long MSEC = 1000000L;
+
+    // a scripted session: { gesture, start msec, msec by which it's complete and could be reported }
+    private static final int[][] SCRIPT = {
+        { KineticListener.FLIP_UP,   1000, 1300 },
+        { KineticListener.FLIP_DOWN, 2300, 2600 },
+        { KineticListener.SHAKE,     3600, 3879 },    // onset of the third jolt
+        { KineticListener.TWIST,     5000, 5500 },
+        { KineticListener.TAP,       6500, 6515 },
+    };
+    private static final int SCRIPT_MSEC = 7500;
+    // { axis, start msec, end msec, radians/sec }
+    private static final double[][] TURNS = {
+        { 0, 1000, 1300, -6 }, { 0, 2300, 2600, 6 }, { 1, 5000, 5200, 6 }, { 1, 5300, 5500, -6 },
+    };
+    private static final double[] SHAKING = { 3600, 4350, 15, 4 };   // start and end msec, m/s^2, Hz
+    private static final double[] KNOCK_PULSE = { 6500, 6515, 4 };    // start and end msec, m/s^2
+
+    /**
+     * At 50 samples a second and up, each gesture in the script is recognized within two sampling periods of being
+     *  complete; at 10, the shake's 4Hz is aliased away and the tap's 15msec falls between samples.
+     */
+    @Test
+    public void scriptIsRecognizedAtAnyRate() {
+        for (int rate : new int[] { 10, 50, 200 }) {
+            final ArrayList<long[]> reports = run(play(rate), Gesture.all());
+            final long period = 1000 * MSEC / rate;
+            for (int[] gesture : SCRIPT) {
+                final String what = rate + "Hz, gesture " + gesture[0];
+                final long latency = latency(reports, gesture);
+                if (rate == 10 && (gesture[0] == KineticListener.SHAKE || gesture[0] == KineticListener.TAP)) {
+                    assertEquals(what, -1, latency);
+                } else {
+                    assertTrue(what + " missed", latency >= 0);
+                    assertTrue(what + " took " + latency / MSEC + "msec", latency <= 2 * period);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lying face-up throughout, it says so once at the start, and otherwise reports only the script.
+     */
+    @Test
+    public void scriptReportsNothingElse() {
+        final ArrayList<long[]> reports = run(play(200), Gesture.all());
+        assertEquals(KineticListener.NOW_FACE_UP, reports.get(0)[0]);
+        assertEquals(SCRIPT.length + 1, reports.size());
+        for (int i = 0; i < SCRIPT.length; i++) {
+            assertEquals(SCRIPT[i][0], reports.get(i + 1)[0]);
+        }
+    }
+
+    /**
+     * However many gestures are run together, each reports just what it would alone.  Each copy of the built-in set has its
+     *  dwell thresholds 5% longer than the copy before, so no two are the same and they don't all report at once.
+     */
+    @Test
+    public void gesturesDontInterfere() {
+        final ArrayList<Object[]> events = turnedAndShaken(200000);
+        final Gesture[] gestures = copies(8);
+        final ArrayList<long[]> alone = new ArrayList<long[]>();
+        for (Gesture gesture : gestures) {
+            alone.addAll(run(events, gesture));
+        }
+        final ArrayList<long[]> together = run(events, gestures);
+        assertTrue(together.size() > 8 * 1000);
+        assertEquals(sorted(alone), sorted(together));
+    }
+
+    @Test
+    public void resetStartsAfresh() {
+        final ArrayList<Object[]> events = play(50);
+        final ArrayList<long[]> reports = new ArrayList<long[]>();
+        final long[] now = new long[1];
+        final GestureEngine engine = new GestureEngine(recorder(reports, now), Gesture.all());
+        feed(engine, events.subList(0, events.size() / 2), now);
+        engine.reset();
+        reports.clear();
+        feed(engine, events, now);
+        assertEquals(sorted(run(events, Gesture.all())), sorted(reports));
+    }
+
+    /**
+     * A listener that returns true has the rest of the event skipped; the gestures that missed it see the next one.
+     */
+    @Test
+    public void listenerCanSkipTheRestOfTheEvent() {
+        final int[] reports = new int[1];
+        final GestureEngine engine = new GestureEngine(new KineticListener() {
+            @Override
+            public boolean kineticRecognized(int gesture) {
+                reports[0]++;
+                return true;
+            }
+        }, Gesture.facing(), Gesture.facing());
+        final float[] faceUp = { 0f, 0f, 9.8f };
+        engine.sample(Sensor.TYPE_GRAVITY, 0, faceUp);
+        assertEquals(1, reports[0]);
+        engine.sample(Sensor.TYPE_GRAVITY, 200 * MSEC, faceUp);
+        assertEquals(2, reports[0]);
+        engine.sample(Sensor.TYPE_GRAVITY, 400 * MSEC, faceUp);
+        assertEquals(2, reports[0]);
+    }
+
+    static Gesture[] copies(int copies) {
+        final Gesture[] all = Gesture.all();
+        final Gesture[] gestures = new Gesture[copies * all.length];
+        for (int c = 0; c < copies; c++) {
+            for (int i = 0; i < all.length; i++) {
+                gestures[c * all.length + i] = all[i].scaled(all[i].mName + " " + c, 1 + 0.05 * c);
+            }
+        }
+        return gestures;
+    }
+
+    /**
+     * @return { gesture, timestamp } for each report, in the order they came
+     */
+    private static ArrayList<long[]> run(ArrayList<Object[]> events, Gesture... gestures) {
+        final ArrayList<long[]> reports = new ArrayList<long[]>();
+        final long[] now = new long[1];
+        feed(new GestureEngine(recorder(reports, now), gestures), events, now);
+        return reports;
+    }
+
+    /**
+     * @param now set to each event's timestamp, for the listener
+     */
+    private static void feed(GestureEngine engine, List<Object[]> events, long[] now) {
+        for (Object[] event : events) {
+            now[0] = (Long) event[1];
+            engine.sample((Integer) event[0], now[0], (float[]) event[2]);
+        }
+    }
+
+    private static KineticListener recorder(final ArrayList<long[]> reports, final long[] now) {
+        return new KineticListener() {
+            @Override
+            public boolean kineticRecognized(int gesture) {
+                reports.add(new long[] { gesture, now[0] });
+                return false;
+            }
+        };
+    }
+
+    private static ArrayList<String> sorted(ArrayList<long[]> reports) {
+        final ArrayList<String> sorted = new ArrayList<String>();
+        for (long[] report : reports) {
+            sorted.add(String.format("%020d %d", report[1], report[0]));
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return how long after the gesture was complete it was first reported, or -1 if it wasn't
+     */
+    private static long latency(ArrayList<long[]> reports, int[] gesture) {
+        for (long[] report : reports) {
+            if (report[0] == gesture[0] && report[1] >= gesture[1] * MSEC) {
+                return report[1] - gesture[2] * MSEC;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return SCRIPT as { type, timestamp, values } events in time order: angle change and linear acceleration at the rate,
+     *  with the timestamps jittered by up to 3% of the period, and face-up gravity at 5/sec
+     */
+    static ArrayList<Object[]> play(int rate) {
+        final Random jitter = new Random(42);
+        final double period = 1000.0 / rate;
+        final ArrayList<Object[]> events = new ArrayList<Object[]>();
+        double previous = 0;
+        for (double t = 3; t < SCRIPT_MSEC; t += period) {
+            final double at = t + period * 0.03 * (2 * jitter.nextDouble() - 1);
+            final float[] turned = new float[3];
+            for (double[] turn : TURNS) {
+                final double overlap = Math.min(at, turn[2]) - Math.max(previous, turn[1]);
+                if (overlap > 0) {
+                    turned[(int) turn[0]] += (float) (turn[3] * overlap / 1000);
+                }
+            }
+            events.add(new Object[] { Trace.TYPE_ANGLE_CHANGE, (long) (at * MSEC), turned });
+            previous = at;
+
+            final double accelAt = t + period * 0.03 * (2 * jitter.nextDouble() - 1);
+            final float[] accel = new float[3];
+            if (accelAt >= SHAKING[0] && accelAt < SHAKING[1]) {
+                accel[0] = (float) (SHAKING[2] * Math.sin(2 * Math.PI * SHAKING[3] * (accelAt - SHAKING[0]) / 1000));
+            }
+            if (accelAt >= KNOCK_PULSE[0] && accelAt < KNOCK_PULSE[1]) {
+                accel[2] = (float) KNOCK_PULSE[2];
+            }
+            events.add(new Object[] { Sensor.TYPE_LINEAR_ACCELERATION, (long) (accelAt * MSEC), accel });
+        }
+        for (int t = 0; t < SCRIPT_MSEC; t += 200) {
+            events.add(new Object[] { Sensor.TYPE_GRAVITY, t * MSEC, new float[] { 0f, 0f, 9.8f } });
+        }
+        Collections.sort(events, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                final long difference = (Long) a[1] - (Long) b[1];
+                return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+            }
+        });
+        return events;
+    }
+
+    /**
+     * @return a phone being turned, shaken and set down: 50/sec of angle change and acceleration, 5/sec of gravity
+     */
+    private static ArrayList<Object[]> turnedAndShaken(int count) {
+        final ArrayList<Object[]> events = new ArrayList<Object[]>();
+        for (int i = 0; i < count; i++) {
+            final double t = i / 100.0;
+            final double swing = Math.sin(t * 1.3) * Math.sin(t * 0.21);
+            final long when = i * 10 * MSEC;
+            if (i % 20 == 0) {
+                events.add(new Object[] { Sensor.TYPE_GRAVITY, when,
+                        new float[] { 0f, (float) (9.8 * Math.sin(swing)), (float) (9.8 * Math.cos(swing * 2)) } });
+            } else if (i % 2 == 0) {
+                events.add(new Object[] { Trace.TYPE_ANGLE_CHANGE, when,
+                        new float[] { (float) (0.15 * swing), (float) (0.12 * Math.cos(t * 0.7)), 0f } });
+            } else {
+                final float shake = (float) (14 * Math.sin(t * 9) * Math.max(0, Math.sin(t * 0.05)));
+                events.add(new Object[] { Sensor.TYPE_LINEAR_ACCELERATION, when,
+                        new float[] { shake, 0.3f * shake, (i % 97 == 1) ? 4f : 0.1f } });
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,98 @@
+package com.textuality.sensplore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final long MICROS = 1000;
+
+    /**
+     * Log-normal around a couple of msec with a long tail, like real latencies: every percentile is within half a bucket,
+     *  about 1.6%, of the one a sort gives.
+     */
+    @Test
+    public void percentilesMatchASort() {
+        final int count = 1000000;
+        final Random random = new Random(42);
+        final long[] values = new long[count];
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 0; i < count; i++) {
+            values[i] = (long) (2e6 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : new double[] { 0.1, 1, 10, 50, 90, 99, 99.9, 99.99, 100 }) {
+            final long exact = sorted[(int) Math.ceil(count * percentile / 100) - 1];
+            final long estimate = histogram.percentile(percentile);
+            assertTrue("p" + percentile + ": exact " + exact + ", histogram " + estimate,
+                    Math.abs(estimate - exact) <= exact / 64 + MICROS);
+        }
+        assertEquals(sorted[count - 1], histogram.max());
+        assertEquals(count, histogram.count());
+    }
+
+    /**
+     * Below 64 microseconds every microsecond has its own bucket.
+     */
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram("small");
+        for (int micros = 1; micros <= 50; micros++) {
+            histogram.record(micros * MICROS + 500);
+        }
+        assertEquals(25 * MICROS, histogram.percentile(50));
+        assertEquals(45 * MICROS, histogram.percentile(90));
+        assertEquals(50 * MICROS, histogram.percentile(100));
+        assertEquals(50 * MICROS + 500, histogram.max());
+        assertEquals(1275 * MICROS / 50, histogram.mean());
+    }
+
+    @Test
+    public void edges() {
+        final LatencyHistogram histogram = new LatencyHistogram("edges");
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.mean());
+
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.percentile(100));
+
+        // beyond what the buckets cover, it's counted in the last one, but max is still exact
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, histogram.max());
+        assertTrue(histogram.percentile(100) > 75 * 3600 * 1000000000L);
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void recordAllocatesNothing() {
+        final LatencyHistogram histogram = new LatencyHistogram("allocations");
+        final Random random = new Random(42);
+        final long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (2e6 * Math.exp(random.nextGaussian()));
+        }
+        assertEquals(0, Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // long enough for the JIT to be done with it while warming up
+                for (int pass = 0; pass < 200; pass++) {
+                    for (long value : values) {
+                        histogram.record(value);
+                    }
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,110 @@
+package com.textuality.sensplore;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateStatsTest {
+
+    private static final long MSEC = 1000000L;
+
+    /**
+     * A simulated sensor at 50Hz with 1msec of timestamp jitter, delivered 2-5msec late, costing 30usec of CPU each; the
+     *  figures match the ones worked out directly from the same events.
+     */
+    @Test
+    public void simulatedSensor() {
+        final int count = 500;
+        final Random random = new Random(42);
+        final long[] timestamps = new long[count];
+        final long[] skews = new long[count];
+        final RateStats stats = new RateStats("Simulated", 1, "GAME", "bg");
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = i * 20 * MSEC + (long) (random.nextGaussian() * MSEC);
+            skews[i] = 2 * MSEC + random.nextInt(3000000);
+            stats.event(timestamps[i], timestamps[i] + skews[i], i * 30000L);
+        }
+
+        double sum = 0, max = 0, skewSum = 0, maxSkew = 0;
+        for (int i = 1; i < count; i++) {
+            final long interval = timestamps[i] - timestamps[i - 1];
+            sum += interval;
+            max = Math.max(max, interval);
+        }
+        final double mean = sum / (count - 1);
+        double squares = 0;
+        for (int i = 1; i < count; i++) {
+            final double difference = timestamps[i] - timestamps[i - 1] - mean;
+            squares += difference * difference;
+        }
+        for (long skew : skews) {
+            skewSum += skew;
+            maxSkew = Math.max(maxSkew, skew);
+        }
+
+        assertEquals(count, stats.events());
+        assertEquals((count - 1) / ((timestamps[count - 1] - timestamps[0]) / 1e9), stats.rate(), 1e-9);
+        assertEquals(50, stats.rate(), 0.1);
+        assertEquals(mean / 1e6, stats.meanInterval(), 1e-9);
+        assertEquals(Math.sqrt(squares / (count - 2)) / 1e6, stats.jitter(), 1e-9);
+        assertEquals(Math.sqrt(2), stats.jitter(), 0.2);     // two timestamps' jitter in every interval
+        assertEquals(max / 1e6, stats.maxInterval(), 0);
+        assertEquals(skewSum / count / 1e6, stats.meanSkew(), 1e-9);
+        assertEquals(maxSkew / 1e6, stats.maxSkew(), 0);
+        assertEquals(30, stats.cost(), 1e-9);
+    }
+
+    @Test
+    public void tooFewEvents() {
+        final RateStats stats = new RateStats("Few", 1, "GAME", "ui");
+        assertEquals(0, stats.rate(), 0);
+        assertEquals(0, stats.meanSkew(), 0);
+        stats.event(0, 3 * MSEC, 0);
+        assertEquals(0, stats.rate(), 0);
+        assertEquals(0, stats.cost(), 0);
+        assertEquals(3, stats.maxSkew(), 0);
+        stats.event(20 * MSEC, 23 * MSEC, 40000);
+        assertEquals(50, stats.rate(), 1e-9);
+        assertEquals(0, stats.jitter(), 0);
+        assertEquals(40, stats.cost(), 1e-9);
+    }
+
+    /**
+     * The table's columns line up under the header, and the CSV row has a value for every heading.
+     */
+    @Test
+    public void reports() {
+        final RateStats stats = new RateStats("A sensor with a long name", 4, "FASTEST", "background");
+        for (int i = 0; i < 100; i++) {
+            stats.event(i * 5 * MSEC, i * 5 * MSEC + MSEC, i * 12000L);
+        }
+        assertEquals(RateStats.header().length(), stats.row().length());
+        assertTrue(stats.row().startsWith("A sensor with  FASTEST back  200.0"));
+        final String[] headings = RateStats.csvHeader().split(",");
+        final String[] values = stats.csvRow().split(",");
+        assertEquals(headings.length, values.length);
+        assertEquals("A sensor with a long name", values[0]);
+        assertEquals("100", values[4]);
+        assertEquals("200.00", values[5]);
+        assertEquals("12.00", values[values.length - 1]);
+    }
+
+    @Test
+    public void eventAllocatesNothing() {
+        final RateStats stats = new RateStats("Allocations", 1, "GAME", "bg");
+        final long[] next = new long[1];
+        assertEquals(0, Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                // long enough for the JIT to be done with it while warming up
+                for (int i = 0; i < 2000000; i++) {
+                    final long timestamp = next[0]++ * 20 * MSEC;
+                    stats.event(timestamp, timestamp + 3 * MSEC, timestamp / 1000);
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,178 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A 1Hz sine wave sampled at about 50Hz, and the changes in an angle turning at half a radian a second sampled at about
+ *  47Hz, resampled to 100Hz and compared with the signals they came from.
+ */
+public class ResamplerTest {
+
+    private static final long MSEC = 1000000;
+    private static final long PERIOD = 10 * MSEC;
+
+    @Test
+    public void nearestIsWithinHalfAnInterval() throws IOException {
+        final Check check = new Check(Resampler.NEAREST);
+        merge(check, 60, false);
+        // the wave moves at most 2 pi a second, and the nearest sample is at most about 11msec away
+        assertTrue("max error " + check.mMaxError, check.mMaxError < 0.08);
+        assertEquals(angle(check.mLast) - angle(check.mFirstRow), check.mTotal, 0.02);
+        assertRows(check);
+    }
+
+    @Test
+    public void linearFollowsTheCurve() throws IOException {
+        final Check check = new Check(Resampler.LINEAR);
+        merge(check, 60, false);
+        assertTrue("max error " + check.mMaxError, check.mMaxError < 0.005);
+        assertEquals(angle(check.mLast) - angle(check.mFirstRow), check.mTotal, 1e-3);
+        // a steady turn, so every row after the first turned the same amount
+        assertEquals(angle(PERIOD), check.mMinChange, 1e-4);
+        assertEquals(angle(PERIOD), check.mMaxChange, 1e-4);
+        assertRows(check);
+    }
+
+    /**
+     * With five seconds missing from the angles, the rows can't wait that long for them: once CAPACITY rows are waiting,
+     *  each one goes out with the angle held, and when the angles come back the changes still add up.
+     */
+    @Test
+    public void aGapForcesRowsOut() throws IOException {
+        final Check steady = new Check(Resampler.LINEAR);
+        merge(steady, 60, false);
+        final Check paused = new Check(Resampler.LINEAR);
+        merge(paused, 60, true);
+        assertEquals(0, steady.forced());
+        assertEquals(500 - Resampler.CAPACITY, paused.forced(), 10);
+        assertEquals(steady.rowsWritten(), paused.rowsWritten());
+        assertEquals(0, paused.mMinChange, 0);
+        assertEquals(angle(paused.mLast) - angle(paused.mFirstRow), paused.mTotal, 1e-3);
+        assertRows(paused);
+    }
+
+    @Test
+    public void samplesOutOfOrderAreDropped() throws IOException {
+        final Check check = new Check(Resampler.LINEAR);
+        check.sample(0, 5 * MSEC, 0, 0, 0);
+        check.sample(1, 7 * MSEC, 0, 0, 0);
+        check.sample(0, 25 * MSEC, 1, -1, 0);
+        check.sample(0, 24 * MSEC, 9, 9, 9);
+        check.sample(1, 27 * MSEC, 0, 0.01f, 0);
+        assertEquals(1, check.dropped());
+        // rows from the first multiple of the period once both have shown up, to as far as both have got
+        assertEquals(2, check.rowsWritten());
+        assertEquals(10 * MSEC, check.mFirstRow);
+        assertEquals(20 * MSEC, check.mLast);
+    }
+
+    @Test
+    public void sampleAllocatesNothing() {
+        // one to warm up and one to measure, since time has to start again
+        final Check[] checks = { new Check(Resampler.LINEAR), new Check(Resampler.LINEAR) };
+        final int[] run = new int[1];
+        final Random random = new Random(42);
+        assertEquals(0, Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // long enough for the JIT to be done with it while warming up
+                    merge(checks[run[0]++], random, 3000, true);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }));
+        assertEquals(0, checks[1].dropped());
+        assertTrue(checks[1].rowsWritten() > 299000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void periodMustBePositive() {
+        new Check(Resampler.LINEAR, 0);
+    }
+
+    /**
+     * Rows come one period apart, on whole multiples of it, starting once both streams have a sample.
+     */
+    private static void assertRows(Check check) {
+        assertEquals(0, check.mFirstRow % PERIOD);
+        assertTrue(check.mFirstRow >= 15 * MSEC);
+        assertEquals(check.rowsWritten() - 1, (check.mLast - check.mFirstRow) / PERIOD);
+        assertTrue("rows out of step", check.mSteady);
+    }
+
+    private static double wave(long when) {
+        return Math.sin(2 * Math.PI * when / 1e9);
+    }
+
+    private static double angle(long when) {
+        return 0.5 * when / 1e9;
+    }
+
+    /**
+     * Feeds the two streams in time order, with up to 2msec of jitter on each sample.
+     *
+     * @param gap leave out the angles from 10 to 15 seconds
+     */
+    private static void merge(Resampler resampler, int seconds, boolean gap) throws IOException {
+        merge(resampler, new Random(42), seconds, gap);
+    }
+
+    private static void merge(Resampler resampler, Random random, int seconds, boolean gap) throws IOException {
+        final long end = seconds * 1000 * MSEC;
+        long wave = 3 * MSEC, turn = 15 * MSEC, lastTurn = 0;
+        while (wave < end || turn < end) {
+            if (wave <= turn) {
+                final float value = (float) wave(wave);
+                resampler.sample(0, wave, value, -value, 0);
+                wave += 20 * MSEC + random.nextInt(4 * (int) MSEC) - 2 * MSEC;
+            } else {
+                if (!(gap && turn > 10000 * MSEC && turn < 15000 * MSEC)) {
+                    final float change = (float) (angle(turn) - angle(lastTurn));
+                    resampler.sample(1, turn, 0, change, 0);
+                    lastTurn = turn;
+                }
+                turn += 21 * MSEC + random.nextInt(4 * (int) MSEC) - 2 * MSEC;
+            }
+        }
+    }
+
+    private static class Check extends Resampler {
+        double mMaxError = 0;
+        double mTotal = 0;
+        double mMinChange = Double.MAX_VALUE;
+        double mMaxChange = -Double.MAX_VALUE;
+        long mFirstRow = -1;
+        long mLast = 0;
+        boolean mSteady = true;
+
+        Check(int mode) {
+            this(mode, PERIOD);
+        }
+
+        Check(int mode, long period) {
+            super(period, mode, new boolean[] { false, true });
+        }
+
+        @Override
+        protected void row(long when, float[] values) {
+            if (mFirstRow < 0) {
+                mFirstRow = when;
+            } else {
+                mSteady &= (when == mLast + PERIOD);
+                mMinChange = Math.min(mMinChange, values[4]);
+                mMaxChange = Math.max(mMaxChange, values[4]);
+            }
+            mMaxError = Math.max(mMaxError, Math.abs(values[0] - wave(when)));
+            mTotal += values[4];
+            mLast = when;
+        }
+    }
+}
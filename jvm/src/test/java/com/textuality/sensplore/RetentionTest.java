@@ -0,0 +1,106 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionTest {
+
+    private static final long HOUR_MSEC = 60L * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Only the files a capture writes go, and only the oldest captures' ones; Poll's tables, Latency's dumps, and a CSV
+     *  with nothing else of a capture's beside it are left alone, however old.
+     */
+    @Test
+    public void onlyCapturesGo() throws IOException {
+        final File directory = mFolder.getRoot();
+        final long now = System.currentTimeMillis();
+        final File[] oldest = capture("kinetics-1", now - 5 * HOUR_MSEC, true);
+        final File[] older = capture("kinetics-2", now - 4 * HOUR_MSEC, false);
+        final File[] newer = capture("kinetics-3", now - 3 * HOUR_MSEC, true);
+        final File[] newest = capture("kinetics-4", now - 2 * HOUR_MSEC, false);
+        final File latency = file("kinetics-1.latency.txt", 100, now - 10 * HOUR_MSEC);
+        final File poll = file("sensors-hammerhead-2026-01-01-10-00-00.csv", 100, now - 10 * HOUR_MSEC);
+        final File other = file("notes.txt", 100, now - 10 * HOUR_MSEC);
+
+        // room for two, counting the one about to be recorded
+        assertEquals(3, new Retention(2, Long.MAX_VALUE, 30).apply(directory, "kinetics-5"));
+        assertGone(oldest);
+        assertGone(older);
+        assertGone(newer);
+        assertThere(newest);
+        assertTrue(latency.exists());
+        assertTrue(poll.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void bytesAndAge() throws IOException {
+        final long now = System.currentTimeMillis();
+        final File[] old = capture("kinetics-1", now - 40 * 24 * HOUR_MSEC, false);
+        final File[] older = capture("kinetics-2", now - 2 * HOUR_MSEC, true);
+        final File[] small = capture("kinetics-3", now - HOUR_MSEC, false);
+        final File poll = file("sensors-hammerhead-2026-01-01-10-00-00.csv", 5000, now - 50 * 24 * HOUR_MSEC);
+
+        // the capture being recorded is never deleted, and its bytes count against the rest
+        final File[] recording = capture("kinetics-4", now, true);
+        assertEquals(2, new Retention(10, 2500, 30).apply(mFolder.getRoot(), "kinetics-4"));
+        assertGone(old);
+        assertGone(older);
+        assertThere(small);
+        assertThere(recording);
+        assertTrue(poll.exists());
+    }
+
+    /**
+     * A capture's CSV, its features, its index, and with the trace kept, two segments; 1000 bytes between them.
+     */
+    private File[] capture(String name, long modified, boolean trace) throws IOException {
+        final File directory = mFolder.getRoot();
+        final File[] files = trace ?
+                new File[] { SegmentStore.csvFile(directory, name), SegmentStore.featuresFile(directory, name),
+                    SegmentStore.indexFile(directory, name), SegmentStore.segmentFile(directory, name, 0),
+                    SegmentStore.segmentFile(directory, name, 1) } :
+                new File[] { SegmentStore.csvFile(directory, name), SegmentStore.featuresFile(directory, name) };
+        for (File file : files) {
+            file(file.getName(), 1000 / files.length, modified);
+        }
+        return files;
+    }
+
+    private File file(String name, int bytes, long modified) throws IOException {
+        final File file = new File(mFolder.getRoot(), name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[bytes]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(modified));
+        return file;
+    }
+
+    private static void assertGone(File[] files) {
+        for (File file : files) {
+            assertFalse(file.getName(), file.exists());
+        }
+    }
+
+    private static void assertThere(File[] files) {
+        for (File file : files) {
+            assertTrue(file.getName(), file.exists());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.textuality.sensplore;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRingTest {
+
+    @Test
+    public void publishingAndDrainingAllocateNothing() {
+        final SampleRing ring = new SampleRing(1024);
+        final double[] sum = new double[1];
+        final long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                sum[0] += cycle(ring, 10000000);
+            }
+        });
+        assertEquals("bytes allocated in steady state", 0, allocated);
+        assertEquals(0, ring.dropped());
+    }
+
+    @Test
+    public void everySampleArrivesIntactAndInOrder() throws InterruptedException {
+        for (int capacity : new int[] { 1024, 16 * 1024 }) {
+            stress(new SampleRing(capacity), 10000000L);
+        }
+    }
+
+    @Test
+    public void aFullRingDropsAndCounts() {
+        final SampleRing ring = new SampleRing(3);
+        assertEquals(4, ring.capacity());
+        for (int when = 0; when < 4; when++) {
+            assertTrue(ring.publish(when, when, when, when));
+        }
+        assertFalse(ring.publish(4, 4, 4, 4));
+        assertEquals(1, ring.dropped());
+        assertEquals(4, ring.available());
+        ring.consume(1);
+        assertTrue(ring.publish(5, 5, 5, 5));
+        assertEquals(1, ring.when(0));
+        assertEquals(5, ring.when(3));
+        assertEquals(5, ring.published());
+    }
+
+    /**
+     * One thread publishes, spinning while the ring is full, while another drains and checks each sample.
+     */
+    private static void stress(final SampleRing ring, final long count) throws InterruptedException {
+        final long[] received = new long[1];
+        final long[] failures = new long[1];
+        final Thread consumer = new Thread("consumer") {
+            @Override
+            public void run() {
+                long expected = 0;
+                while (expected < count) {
+                    final int n = ring.available();
+                    for (int i = 0; i < n; i++) {
+                        final long when = ring.when(i);
+                        final float value = (float) (when & 0xffff);
+                        if (when != expected || ring.x(i) != value || ring.y(i) != -value || ring.z(i) != value * 0.5f) {
+                            failures[0]++;
+                        }
+                        expected++;
+                    }
+                    ring.consume(n);
+                    if (n == 0) {
+                        Thread.yield();
+                    }
+                }
+                received[0] = expected;
+            }
+        };
+        consumer.start();
+        for (long when = 0; when < count; when++) {
+            final float value = (float) (when & 0xffff);
+            while (!ring.publish(when, value, -value, value * 0.5f)) {
+                Thread.yield();
+            }
+        }
+        consumer.join();
+        assertEquals("capacity " + ring.capacity() + ": samples corrupted or out of order", 0, failures[0]);
+        assertEquals(count, received[0]);
+        assertEquals(count, ring.published());
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * Publishes samples, draining every 64 of them.
+     *
+     * @return a sum of what was read, so the reads can't be optimized away
+     */
+    private static double cycle(SampleRing ring, int samples) {
+        double sum = 0;
+        for (int when = 0; when < samples; when++) {
+            ring.publish(when, when, -when, 0.5f * when);
+            if ((when & 63) == 63) {
+                final int n = ring.available();
+                for (int i = 0; i < n; i++) {
+                    sum += ring.when(i) + ring.x(i) + ring.y(i) + ring.z(i);
+                }
+                ring.consume(n);
+            }
+        }
+        return sum;
+    }
+}
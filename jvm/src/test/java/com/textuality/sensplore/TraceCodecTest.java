@@ -0,0 +1,173 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.hardware.Sensor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceCodecTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    // delta-of-deltas just inside and just outside each bucket, then gaps only the 64-bit form can hold
+    private static final long[] DODS = { 0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+            3600000000L, -3600000000L, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE };
+    private static final float[] ODDITIES = { Float.NaN, Float.intBitsToFloat(0x7fc00001), Float.intBitsToFloat(0xffffffff),
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 0f, -0f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MAX_VALUE,
+            -Float.MAX_VALUE, 1f, -1f };
+    private static final String[] KINDS = { "steady", "bucket edges", "huge gaps", "repeated values", "NaN and infinities",
+            "sign flips", "random bits", "noisy readings" };
+
+    /**
+     * Every length up to a few samples, where the first-value and window edge cases live, then full blocks; each decoded
+     *  from a buffer holding exactly the encoded bytes, so that reading past the end shows up too.
+     */
+    @Test
+    public void generatedBlocksRoundTrip() {
+        final Random random = new Random(42);
+        final int size = Trace.BLOCK_SAMPLES;
+        final long[] micros = new long[size];
+        final float[][] axes = new float[3][size];
+        final long[] gotMicros = new long[size];
+        final float[][] got = new float[3][size];
+        final ByteBuffer out = ByteBuffer.allocate(TraceCodec.maxEncodedSize(size));
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            for (int count = 0; count <= size; count = (count < 4) ? count + 1 : ((count / (size / 4)) + 1) * (size / 4)) {
+                for (int trial = 0; trial < 25; trial++) {
+                    generate(kind, count, random, micros, axes);
+                    final String what = KINDS[kind] + ", " + count + " samples, trial " + trial;
+
+                    out.clear();
+                    final int length = TraceCodec.encode(micros, axes[0], axes[1], axes[2], count, out);
+                    assertTrue(what + ": " + length + " bytes", length <= TraceCodec.maxEncodedSize(count));
+                    final ByteBuffer in = ByteBuffer.allocate(length);
+                    in.put(out.array(), 0, length);
+                    gotMicros[0] = micros[0];
+                    TraceCodec.decode(in, 0, count, gotMicros, got[0], got[1], got[2]);
+                    for (int i = 0; i < count; i++) {
+                        assertEquals(what + ", timestamp " + i, micros[i], gotMicros[i]);
+                        for (int axis = 0; axis < 3; axis++) {
+                            assertEquals(what + ", axis " + axis + " value " + i, Float.floatToRawIntBits(axes[axis][i]),
+                                    Float.floatToRawIntBits(got[axis][i]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compressedTraceReadsBackTheSame() throws IOException {
+        final int[] types = { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Trace.TYPE_ANGLE_CHANGE };
+        final File plainFile = mFolder.newFile("plain" + Trace.EXTENSION);
+        final File compressedFile = mFolder.newFile("compressed" + Trace.EXTENSION);
+        final TraceWriter plainWriter = new TraceWriter(plainFile, header(), false);
+        final TraceWriter compressedWriter = new TraceWriter(compressedFile, header(), true);
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            for (int t = 0; t < types.length; t++) {
+                final long when = i * 20000000L + t * 1000000L + random.nextInt(600000);
+                final float x = (float) (random.nextGaussian() * 2.0);
+                final float y = 9.8f + (float) (random.nextGaussian() * 0.05);
+                final float z = (i % 7 == 0) ? 0f : (float) random.nextGaussian();
+                plainWriter.write(types[t], when, x, y, z);
+                compressedWriter.write(types[t], when, x, y, z);
+            }
+        }
+        plainWriter.close();
+        compressedWriter.close();
+
+        final TraceReader plain = new TraceReader(plainFile);
+        final TraceReader compressed = new TraceReader(compressedFile);
+        try {
+            assertTrue(plain.verify());
+            assertTrue(compressed.verify());
+            assertTrue(compressed.header().compressed());
+            assertEquals(plain.records(), compressed.records());
+            assertTrue("compressed to " + compressedFile.length() + " of " + plainFile.length() + " bytes",
+                    compressedFile.length() < plainFile.length());
+
+            // blocks come out grouped by sensor, so compare one sensor at a time
+            for (int type : types) {
+                assertSameRecords(plain.cursor(type), compressed.cursor(type));
+            }
+        } finally {
+            plain.close();
+            compressed.close();
+        }
+    }
+
+    private static Trace.Header header() {
+        final Trace.Header header = new Trace.Header();
+        header.mSensors.add(new Trace.SensorInfo(Sensor.TYPE_ACCELEROMETER, "accel", "test", 0.01f, 20f, 5000));
+        header.mSensors.add(new Trace.SensorInfo(Sensor.TYPE_GYROSCOPE, "gyro", "test", 0.001f, 35f, 5000));
+        return header;
+    }
+
+    private static void assertSameRecords(TraceReader.Cursor expected, TraceReader.Cursor actual) throws IOException {
+        while (expected.next()) {
+            assertTrue(actual.next());
+            assertEquals(expected.type(), actual.type());
+            assertEquals(expected.when(), actual.when());
+            assertArrayEquals(new int[] { bits(expected.x()), bits(expected.y()), bits(expected.z()) },
+                    new int[] { bits(actual.x()), bits(actual.y()), bits(actual.z()) });
+        }
+        assertFalse(actual.next());
+    }
+
+    private static int bits(float value) {
+        return Float.floatToRawIntBits(value);
+    }
+
+    private static void generate(int kind, int count, Random random, long[] micros, float[][] axes) {
+        long delta = 5000;
+        micros[0] = (kind == 2) ? random.nextLong() : 1000000;
+        for (int i = 1; i < count; i++) {
+            long dod = 0;
+            if (kind == 1) {
+                dod = DODS[random.nextInt(15)];
+            } else if (kind == 2) {
+                dod = DODS[random.nextInt(DODS.length)];
+            } else if (kind != 0) {
+                dod = random.nextInt(201) - 100;
+            }
+            delta += dod;
+            micros[i] = micros[i - 1] + delta;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            final float[] values = axes[axis];
+            for (int i = 0; i < count; i++) {
+                switch (kind) {
+                case 3:
+                    values[i] = (i == 0 || random.nextInt(8) == 0) ? random.nextFloat() : values[i - 1];
+                    break;
+                case 4:
+                    values[i] = (random.nextInt(3) == 0) ? ODDITIES[random.nextInt(ODDITIES.length)] :
+                            (float) random.nextGaussian();
+                    break;
+                case 5:
+                    values[i] = ((i & 1) == 0 ? 1 : -1) * (9.8f + (float) random.nextGaussian() * 0.01f);
+                    break;
+                case 6:
+                    values[i] = Float.intBitsToFloat(random.nextInt());
+                    break;
+                default:
+                    values[i] = (float) (random.nextGaussian() * 2.0);
+                    break;
+                }
+            }
+        }
+    }
+}
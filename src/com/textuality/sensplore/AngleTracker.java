@@ -0,0 +1,46 @@
+package com.textuality.sensplore;
+
+/**
+ * Turns a stream of rotation vectors into the change in angle around each axis from one to the next.
+ */
+public class AngleTracker {
+
+    private final Flipper mFlipper = new Flipper();
+    private final float[] mChange = new float[3];   // z/x/y, the way getAngleChange delivers them
+    private final float[] mAngles = new float[3];   // x/y/z
+    private float[] mMatrix = null;
+
+    /**
+     * @param rotationVector values from a TYPE_ROTATION_VECTOR event
+     * @return the change in angle since the last one, in radians, x/y/z; or null for the first one.  The array is re-used.
+     */
+    public float[] update(float[] rotationVector) {
+        final float[] last = mFlipper.last(), next = mFlipper.next();
+        mFlipper.flip();
+        Rotation.getRotationMatrixFromVector(next, rotationVector);
+        mMatrix = next;
+        if (last == null) {
+            return null;
+        }
+        Rotation.getAngleChange(mChange, next, last);
+        mAngles[0] = mChange[1];
+        mAngles[1] = mChange[2];
+        mAngles[2] = mChange[0];
+        return mAngles;
+    }
+
+    /**
+     * @return the rotation matrix from the last update(), or null if there hasn't been one
+     */
+    public float[] matrix() {
+        return mMatrix;
+    }
+
+    /**
+     * Starts over, so the next update() returns null.
+     */
+    public void reset() {
+        mFlipper.reset();
+        mMatrix = null;
+    }
+}
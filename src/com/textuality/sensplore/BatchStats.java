@@ -0,0 +1,78 @@
+package com.textuality.sensplore;
+
+import android.util.Log;
+
+/**
+ * Counts how often the sensor callbacks wake the app up and how many events come each time, so that batched (FIFO) capture
+ *  can be compared with live delivery.  A batch is a run of events handed over back-to-back; once there's a gap of more than
+ *  BATCH_GAP between callbacks, the next event starts a new batch, which is taken to be a wakeup.  When delivery is live,
+ *  every event is its own batch.
+ */
+public class BatchStats {
+
+    private static final long BATCH_GAP = 1000000;   // 1msec, well under the interval of any sensor we use
+
+    private final String mName;
+    private long mStarted = 0;
+    private long mLastEvent = 0;
+    private long mEvents = 0;
+    private long mBatches = 0;
+    private int mBatchSize = 0;
+    private int mMaxBatch = 0;
+
+    public BatchStats(String name) {
+        mName = name;
+    }
+
+    /**
+     * @param now System.nanoTime() at the callback
+     */
+    public void event(long now) {
+        if (mEvents == 0) {
+            mStarted = now;
+        }
+        if (mEvents == 0 || now - mLastEvent > BATCH_GAP) {
+            mBatches++;
+            mBatchSize = 0;
+        }
+        mLastEvent = now;
+        mEvents++;
+        if (++mBatchSize > mMaxBatch) {
+            mMaxBatch = mBatchSize;
+        }
+    }
+
+    public void reset() {
+        mEvents = mBatches = 0;
+        mBatchSize = mMaxBatch = 0;
+    }
+
+    public long events() {
+        return mEvents;
+    }
+
+    public double wakeupsPerSecond() {
+        final long elapsed = mLastEvent - mStarted;
+        return (elapsed <= 0) ? 0 : mBatches / (elapsed / 1e9);
+    }
+
+    public double meanBatch() {
+        return (mBatches == 0) ? 0 : (double) mEvents / mBatches;
+    }
+
+    public int maxBatch() {
+        return mMaxBatch;
+    }
+
+    /**
+     * Logs wakeups/sec and batch sizes so far, and starts over.
+     */
+    public void log() {
+        if (mEvents > 0) {
+            Log.d(Sensplore.TAG, mName + ": " + mEvents + " events in " + mBatches + " batches, " +
+                    String.format("%.1f", wakeupsPerSecond()) + " wakeups/sec, mean batch " +
+                    String.format("%.1f", meanBatch()) + ", max batch " + mMaxBatch);
+        }
+        reset();
+    }
+}
@@ -0,0 +1,268 @@
+package com.textuality.sensplore;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/**
+ * What a Sensplore capture records: a list of streams, each a sensor type (one of the eleven Poll knows about, or
+ *  Trace.TYPE_ANGLE_CHANGE) at its own rate.  The built-in profiles are in PROFILES; CLASSIC is what Sensplore has always
+ *  recorded, and the only one that keeps the original side-by-side CSV layout.
+ *
+ * Every stream is x/y/z, as SampleRing and the trace hold them; sensors with a single value (light, pressure and so on) use
+ *  x, and the rotation vector keeps x/y/z, from which cos(theta/2) follows.  values() says how many are worth writing out.
+ */
+public class CaptureProfile {
+
+    /////////////////////////////////////////////////////
+    // The sensors
+
+    public static final int[] TYPES = {
+        Sensor.TYPE_ACCELEROMETER,
+        Sensor.TYPE_AMBIENT_TEMPERATURE,
+        Sensor.TYPE_GRAVITY,
+        Sensor.TYPE_GYROSCOPE,
+        Sensor.TYPE_LIGHT,
+        Sensor.TYPE_LINEAR_ACCELERATION,
+        Sensor.TYPE_MAGNETIC_FIELD,
+        Sensor.TYPE_PRESSURE,
+        Sensor.TYPE_PROXIMITY,
+        Sensor.TYPE_RELATIVE_HUMIDITY,
+        Sensor.TYPE_ROTATION_VECTOR
+    };
+    public static final String[] NAMES = {
+        "Accelerometer",
+        "Ambient temperature",
+        "Gravity",
+        "Gyroscope",
+        "Light",
+        "Linear acceleration",
+        "Magnetic field",
+        "Pressure",
+        "Proximity",
+        "Relative humidity",
+        "Rotation vector"
+    };
+    // in the CSV; the linear acceleration's are what Sensplore's CSV has always called it
+    private static final String[] HEADINGS = {
+        "Raw accelerometer",
+        "Ambient temperature",
+        "Gravity",
+        "Gyroscope",
+        "Light",
+        "Accelerometer",
+        "Magnetic field",
+        "Pressure",
+        "Proximity",
+        "Relative humidity",
+        "Rotation vector"
+    };
+    private static final String[] LABELS = {
+        "Raw accel", "Temp", "Gravity", "Gyro", "Light", "Accel", "Mag", "Pressure", "Proximity", "Humidity", "Rotation"
+    };
+    private static final int[] VALUES = { 3, 1, 3, 3, 1, 3, 3, 1, 1, 1, 3 };
+
+    /**
+     * @return the stream's name, for the first heading line of the CSV
+     */
+    public static String name(int type) {
+        if (type == Trace.TYPE_ANGLE_CHANGE) {
+            return "Angle Change";
+        }
+        final int i = index(type);
+        return (i < 0) ? ("Sensor " + type) : HEADINGS[i];
+    }
+
+    /**
+     * @return the prefix for its value columns
+     */
+    public static String label(int type) {
+        if (type == Trace.TYPE_ANGLE_CHANGE) {
+            return "Angle";
+        }
+        final int i = index(type);
+        return (i < 0) ? ("Sensor " + type) : LABELS[i];
+    }
+
+    /**
+     * @return the type whose label() it is, or -1
+     */
+    public static int forLabel(String label) {
+        if (label.equals(label(Trace.TYPE_ANGLE_CHANGE))) {
+            return Trace.TYPE_ANGLE_CHANGE;
+        }
+        for (int i = 0; i < LABELS.length; i++) {
+            if (LABELS[i].equals(label)) {
+                return TYPES[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 1 or 3
+     */
+    public static int values(int type) {
+        final int i = index(type);
+        return (i < 0) ? 3 : VALUES[i];
+    }
+
+    /**
+     * @return true if each sample is a change since the one before rather than a value, so Resampler has to add them up
+     */
+    public static boolean changes(int type) {
+        return type == Trace.TYPE_ANGLE_CHANGE;
+    }
+
+    /**
+     * @return the hardware sensor behind the stream
+     */
+    public static int hardware(int type) {
+        return (type == Trace.TYPE_ANGLE_CHANGE) ? Sensor.TYPE_ROTATION_VECTOR : type;
+    }
+
+    private static int index(int type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param rate a SensorManager.SENSOR_DELAY_* value, or microseconds between events
+     * @return about how many events a second that means; the delays are what Android has asked for since Gingerbread
+     */
+    public static double expectedRate(int rate) {
+        switch (rate) {
+        case SensorManager.SENSOR_DELAY_FASTEST:
+            return 200;     // asks for 0usec; most hardware tops out between 100 and 200Hz
+        case SensorManager.SENSOR_DELAY_GAME:
+            return 50;
+        case SensorManager.SENSOR_DELAY_UI:
+            return 1e6 / 66667;
+        case SensorManager.SENSOR_DELAY_NORMAL:
+            return 5;
+        default:
+            return 1e6 / rate;
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // The profiles
+
+    private static final int GAME = SensorManager.SENSOR_DELAY_GAME;
+    private static final int FASTEST = SensorManager.SENSOR_DELAY_FASTEST;
+    private static final int NORMAL = SensorManager.SENSOR_DELAY_NORMAL;
+
+    public static final CaptureProfile CLASSIC = new CaptureProfile("Acceleration and angle changes", true, new int[][] {
+        { Sensor.TYPE_LINEAR_ACCELERATION, GAME },
+        { Trace.TYPE_ANGLE_CHANGE,         GAME }
+    });
+
+    public static final CaptureProfile MOTION = new CaptureProfile("All the motion sensors", false, new int[][] {
+        { Sensor.TYPE_ACCELEROMETER,       GAME },
+        { Sensor.TYPE_GYROSCOPE,           GAME },
+        { Sensor.TYPE_MAGNETIC_FIELD,      GAME },
+        { Sensor.TYPE_GRAVITY,             GAME },
+        { Sensor.TYPE_LINEAR_ACCELERATION, GAME },
+        { Sensor.TYPE_ROTATION_VECTOR,     GAME },
+        { Trace.TYPE_ANGLE_CHANGE,         GAME }
+    });
+
+    public static final CaptureProfile FAST_MOTION = new CaptureProfile("Accelerometer and gyroscope, fastest", false,
+            new int[][] {
+        { Sensor.TYPE_ACCELEROMETER, FASTEST },
+        { Sensor.TYPE_GYROSCOPE,     FASTEST }
+    });
+
+    public static final CaptureProfile ENVIRONMENT = new CaptureProfile("Environment", false, new int[][] {
+        { Sensor.TYPE_AMBIENT_TEMPERATURE, NORMAL },
+        { Sensor.TYPE_LIGHT,               NORMAL },
+        { Sensor.TYPE_PRESSURE,            NORMAL },
+        { Sensor.TYPE_PROXIMITY,           NORMAL },
+        { Sensor.TYPE_RELATIVE_HUMIDITY,   NORMAL }
+    });
+
+    public static final CaptureProfile EVERYTHING = new CaptureProfile("Everything", false, new int[][] {
+        { Sensor.TYPE_ACCELEROMETER,       GAME },
+        { Sensor.TYPE_AMBIENT_TEMPERATURE, NORMAL },
+        { Sensor.TYPE_GRAVITY,             GAME },
+        { Sensor.TYPE_GYROSCOPE,           GAME },
+        { Sensor.TYPE_LIGHT,               NORMAL },
+        { Sensor.TYPE_LINEAR_ACCELERATION, GAME },
+        { Sensor.TYPE_MAGNETIC_FIELD,      GAME },
+        { Sensor.TYPE_PRESSURE,            NORMAL },
+        { Sensor.TYPE_PROXIMITY,           NORMAL },
+        { Sensor.TYPE_RELATIVE_HUMIDITY,   NORMAL },
+        { Sensor.TYPE_ROTATION_VECTOR,     GAME },
+        { Trace.TYPE_ANGLE_CHANGE,         GAME }
+    });
+
+    public static final CaptureProfile[] PROFILES = { CLASSIC, MOTION, FAST_MOTION, ENVIRONMENT, EVERYTHING };
+
+    private final String mName;
+    private final boolean mSideBySide;
+    private final int[] mTypes;
+    private final int[] mRates;
+
+    /**
+     * @param streams { type, rate } for each, rate being a SensorManager.SENSOR_DELAY_* value or microseconds between events
+     * @param sideBySide write the CSV as rows of every stream side by side, matched by row rather than time, as Sensplore
+     *  always did; that only makes sense for streams at the same rate
+     */
+    public CaptureProfile(String name, boolean sideBySide, int[][] streams) {
+        mName = name;
+        mSideBySide = sideBySide;
+        mTypes = new int[streams.length];
+        mRates = new int[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            mTypes[i] = streams[i][0];
+            mRates[i] = streams[i][1];
+        }
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    public boolean sideBySide() {
+        return mSideBySide;
+    }
+
+    public int streams() {
+        return mTypes.length;
+    }
+
+    public int type(int stream) {
+        return mTypes[stream];
+    }
+
+    public int rate(int stream) {
+        return mRates[stream];
+    }
+
+    /**
+     * @return the streams' types, in order; a copy
+     */
+    public int[] types() {
+        return mTypes.clone();
+    }
+
+    /**
+     * @return the stream for the type, or -1
+     */
+    public int stream(int type) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mTypes[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
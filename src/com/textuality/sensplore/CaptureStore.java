@@ -0,0 +1,113 @@
+package com.textuality.sensplore;
+
+/**
+ * Where a capture's samples wait for the CaptureWriter: a SampleRing per stream of a CaptureProfile, found by sensor type.
+ *  The rings are columnar already, so the store as a whole is a set of primitive columns per type.
+ *
+ * Each ring holds BUFFER_SECONDS at the rate the profile expects for its stream, rounded up to a power of two, so memory
+ *  goes with what's recorded rather than with how many streams there are: CLASSIC takes 320K, EVERYTHING a little over a
+ *  megabyte, and bytes() says exactly.  A ring that fills up drops samples rather than growing; dropped() counts them.
+ *
+ * publish() is for the sensor thread, everything else for the CaptureWriter's, except the counters, which are safe anywhere.
+ */
+public class CaptureStore {
+
+    // the writer drains every 100msec, but a batched FIFO can hold 5 seconds and storage can stall for longer than that
+    private static final int BUFFER_SECONDS = 120;
+    private static final int MIN_SAMPLES = 256;
+    private static final int BYTES_PER_SAMPLE = 8 + 3 * 4;
+
+    private final CaptureProfile mProfile;
+    private final int[] mTypes;
+    private final SampleRing[] mRings;
+
+    public CaptureStore(CaptureProfile profile) {
+        mProfile = profile;
+        mTypes = new int[profile.streams()];
+        mRings = new SampleRing[profile.streams()];
+        for (int i = 0; i < mRings.length; i++) {
+            mTypes[i] = profile.type(i);
+            final double samples = CaptureProfile.expectedRate(profile.rate(i)) * BUFFER_SECONDS;
+            mRings[i] = new SampleRing(Math.max(MIN_SAMPLES, (int) Math.ceil(samples)));
+        }
+    }
+
+    public CaptureProfile profile() {
+        return mProfile;
+    }
+
+    public int streams() {
+        return mRings.length;
+    }
+
+    public int type(int stream) {
+        return mTypes[stream];
+    }
+
+    public SampleRing ring(int stream) {
+        return mRings[stream];
+    }
+
+    /**
+     * @return the stream for the type, or -1; a scan of a dozen ints at most, cheaper than hashing
+     */
+    public int stream(int type) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mTypes[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sensor thread only; samples of types that aren't in the profile are ignored.
+     *
+     * @return false if the sample was dropped
+     */
+    public boolean publish(int type, long when, float x, float y, float z) {
+        final int stream = stream(type);
+        return stream < 0 || mRings[stream].publish(when, x, y, z);
+    }
+
+    /**
+     * @return how much memory the rings take
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (SampleRing ring : mRings) {
+            bytes += (long) ring.capacity() * BYTES_PER_SAMPLE;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return samples waiting in the fullest ring
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (SampleRing ring : mRings) {
+            depth = Math.max(depth, ring.size());
+        }
+        return depth;
+    }
+
+    /**
+     * @return samples published so far, in all the rings
+     */
+    public long published() {
+        long published = 0;
+        for (SampleRing ring : mRings) {
+            published += ring.published();
+        }
+        return published;
+    }
+
+    public int dropped() {
+        int dropped = 0;
+        for (SampleRing ring : mRings) {
+            dropped += ring.dropped();
+        }
+        return dropped;
+    }
+}
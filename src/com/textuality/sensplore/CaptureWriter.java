@@ -0,0 +1,209 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+
+/**
+ * Background thread that writes the samples out to a binary trace while the test is still running, so nothing piles up in
+ *  memory and there's no long wait after "Done".  The sensor callback publishes into a CaptureStore's SampleRings; this
+ *  drains them a batch at a time.  Neither side ever waits for the other: when there's nothing to write, this sleeps for
+ *  POLL_MSEC.
+ *
+ * The streams go to a TraceWriter or a SegmentWriter merged in time order; the CSV is exported from the trace afterward.
+ *
+ * A subclass can override busy() and idle() to hear when the writer starts and stops draining; RecorderService holds a
+ *  wakelock in between.
+ */
+public class CaptureWriter extends Thread {
+
+    // at SENSOR_DELAY_GAME, a stream fills 5 slots of its ring in this time
+    private static final long POLL_MSEC = 100;
+
+    // in sample time, how long the merge waits for a stream with nothing to say, like a proximity sensor that hasn't
+    //  changed; longer than a batched FIFO's latency, and a small part of any ring
+    private static final long MERGE_WAIT = 10000000000L;
+
+    private final TraceSink mTrace;
+    private final CaptureStore mStore;
+    private final SampleRing[] mStreams;
+    private final int[] mTypes;
+    private final int[] mCursors;
+    private final int[] mAvailable;
+    private volatile boolean mFinished = false;
+    private volatile int mMaxQueueDepth = 0;
+    private volatile long mRowsWritten = 0;
+    private volatile Exception mFailure = null;
+    private boolean mBusy = false;
+
+    /**
+     * @param trace where the samples go, a record each, typed by stream; closed when the writer is done
+     */
+    public CaptureWriter(TraceSink trace, CaptureStore store) {
+        super("CaptureWriter");
+        mTrace = trace;
+        mStore = store;
+        final int streams = store.streams();
+        mStreams = new SampleRing[streams];
+        mTypes = new int[streams];
+        for (int i = 0; i < streams; i++) {
+            mStreams[i] = store.ring(i);
+            mTypes[i] = store.type(i);
+        }
+        mCursors = new int[streams];
+        mAvailable = new int[streams];
+    }
+
+    /**
+     * Called on the capturing thread after the last sample is published. After this, join() waits for the file to be
+     *  complete.
+     */
+    public void finish() {
+        mFinished = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                // read before draining, so that everything published before finish() is seen
+                final boolean finished = mFinished;
+                int depth = 0, drained = 0;
+                for (int stream = 0; stream < mStreams.length; stream++) {
+                    mAvailable[stream] = mStreams[stream].available();
+                    mCursors[stream] = 0;
+                    depth = Math.max(depth, mAvailable[stream]);
+                }
+                if (depth > mMaxQueueDepth) {
+                    mMaxQueueDepth = depth;
+                }
+                if (depth > 0 && !mBusy) {
+                    mBusy = true;
+                    busy();
+                }
+                writeMerged(finished);
+                for (int stream = 0; stream < mStreams.length; stream++) {
+                    mStreams[stream].consume(mCursors[stream]);
+                    drained += mCursors[stream];
+                }
+                if (finished) {
+                    break;
+                }
+                if (drained == 0) {
+                    if (mBusy) {
+                        mBusy = false;
+                        idle();
+                    }
+                    Thread.sleep(POLL_MSEC);
+                }
+            }
+        } catch (Exception e) {
+            mFailure = e;
+        } finally {
+            close();
+            if (mBusy) {
+                mBusy = false;
+                idle();
+            }
+        }
+    }
+
+    /**
+     * Called on the writer's thread when it finds samples waiting after being idle.  Does nothing here.
+     */
+    protected void busy() {
+    }
+
+    /**
+     * Called on the writer's thread when it has drained what it can and is going to sleep, and when it's done.  Does nothing
+     *  here.
+     */
+    protected void idle() {
+    }
+
+    private void close() {
+        try {
+            mTrace.close();
+        } catch (IOException e) {
+            if (mFailure == null) {
+                mFailure = e;
+            }
+        }
+    }
+
+    /**
+     * Trace records go out in time order, so the earliest waiting sample is only written once every other stream has
+     *  something later to compare it with, or the test is over.  A stream that's had nothing for MERGE_WAIT stops holding
+     *  the others up.
+     */
+    private void writeMerged(boolean finishing) throws IOException {
+        long newest = Long.MIN_VALUE;
+        for (int stream = 0; stream < mStreams.length; stream++) {
+            if (mAvailable[stream] > 0) {
+                newest = Math.max(newest, mStreams[stream].when(mAvailable[stream] - 1));
+            }
+        }
+        while (true) {
+            int earliest = -1;
+            boolean all = true;
+            for (int stream = 0; stream < mStreams.length; stream++) {
+                if (mAvailable[stream] == 0) {
+                    all = false;
+                } else if (earliest < 0 ||
+                        mStreams[stream].when(mCursors[stream]) < mStreams[earliest].when(mCursors[earliest])) {
+                    earliest = stream;
+                }
+            }
+            if (earliest < 0) {
+                return;
+            }
+            final SampleRing ring = mStreams[earliest];
+            final int i = mCursors[earliest];
+            final long when = ring.when(i);
+            if (!(all || finishing || newest - when > MERGE_WAIT)) {
+                return;
+            }
+            mTrace.write(mTypes[earliest], when, ring.x(i), ring.y(i), ring.z(i));
+            mRowsWritten++;
+            advance(earliest);
+        }
+    }
+
+    private void advance(int stream) {
+        mCursors[stream]++;
+        mAvailable[stream]--;
+    }
+
+    /////////////////////////////////////////////////////
+    // Backpressure stats; safe to read from any thread
+
+    /**
+     * @return samples waiting in the fullest ring
+     */
+    public int queueDepth() {
+        return mStore.queueDepth();
+    }
+
+    public int maxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * @return records of trace
+     */
+    public long rowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return samples lost because the writer wasn't keeping up
+     */
+    public int dropped() {
+        return mStore.dropped();
+    }
+
+    /**
+     * @return whatever stopped the writer, or null if it's fine
+     */
+    public Exception failure() {
+        return mFailure;
+    }
+}
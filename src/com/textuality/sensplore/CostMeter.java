@@ -0,0 +1,68 @@
+package com.textuality.sensplore;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Measures what a per-event code path costs on the device: nanoseconds and allocations per call, the latter from the
+ *  Dalvik per-thread allocation counters.  Bracket the path with begin()/end() and log() the totals when the listener stops.
+ *
+ * It's off unless ENABLED is set; since that's a compile-time constant, the calls cost nothing in a normal build.
+ *  Allocation counting slows the VM down a little, so compare ns/event between runs with the same setting.
+ *
+ * The Debug allocation counters are deprecated from API 23, since counting is a burden on the runtime, but they're the only
+ *  per-thread count back to API 8 and the burden is only paid when ENABLED, so the methods using them suppress the warning.
+ */
+public class CostMeter {
+
+    public static final boolean ENABLED = false;
+
+    private final String mName;
+    private long mCalls = 0;
+    private long mNanos = 0;
+    private long mAllocations = 0;
+    private long mAllocatedBytes = 0;
+
+    private long mStartNanos;
+    private int mStartAllocations;
+    private int mStartAllocatedBytes;
+
+    @SuppressWarnings("deprecation")
+    public CostMeter(String name) {
+        mName = name;
+        if (ENABLED) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void begin() {
+        if (ENABLED) {
+            mStartAllocations = Debug.getThreadAllocCount();
+            mStartAllocatedBytes = Debug.getThreadAllocSize();
+            mStartNanos = System.nanoTime();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void end() {
+        if (ENABLED) {
+            mNanos += System.nanoTime() - mStartNanos;
+            mAllocations += Debug.getThreadAllocCount() - mStartAllocations;
+            mAllocatedBytes += Debug.getThreadAllocSize() - mStartAllocatedBytes;
+            mCalls++;
+        }
+    }
+
+    /**
+     * Logs ns/event and allocations/event so far, and starts over.
+     */
+    public void log() {
+        if (ENABLED && mCalls > 0) {
+            Log.d(Sensplore.TAG, mName + ": " + mCalls + " events, " + (mNanos / mCalls) + " ns/event, " +
+                    String.format("%.2f", (double) mAllocations / mCalls) + " allocations/event, " +
+                    String.format("%.1f", (double) mAllocatedBytes / mCalls) + " bytes/event");
+            mCalls = mNanos = mAllocations = mAllocatedBytes = 0;
+        }
+    }
+}
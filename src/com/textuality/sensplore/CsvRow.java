@@ -0,0 +1,114 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A re-usable CSV line that numbers are formatted straight into, so writing out a row doesn't allocate anything.
+ *
+ * appendTwoPlaces produces exactly what String.format("%1$.2f", value) does in a locale that uses '.' as the decimal
+ *  separator, which is the only kind that ever produced a usable CSV: Formatter rounds the decimal value HALF_UP.  A float
+ *  times 100 fits in a double with no rounding (24 + 7 bits), so adding 0.5 and taking the floor gives the same answer,
+ *  including on exact ties like 0.125, and the sign of negative zeros (-0.001 prints as "-0.00") is kept.  Values too big
+ *  for that to be exact, and NaN or infinity, fall back to String.format.
+ */
+public class CsvRow {
+
+    private static final float MAX_EXACT = 1 << 30;   // well below where (double)value * 100 + 0.5 stops being exact
+
+    private byte[] mBytes = new byte[256];
+    private int mLength = 0;
+    private final byte[] mDigits = new byte[20];
+
+    public CsvRow clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * For the punctuation between fields; the text must be ASCII.
+     */
+    public CsvRow append(String ascii) {
+        final int length = ascii.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            mBytes[mLength++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    public CsvRow append(char c) {
+        ensure(1);
+        mBytes[mLength++] = (byte) c;
+        return this;
+    }
+
+    public CsvRow appendTwoPlaces(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value) || Math.abs(value) >= MAX_EXACT) {
+            return append(String.format("%1$.2f", value));
+        }
+
+        final long hundredths = (long) Math.floor((Math.abs((double) value) * 100.0) + 0.5);
+        ensure(mDigits.length + 4);
+        if ((Float.floatToRawIntBits(value) & 0x80000000) != 0) {
+            mBytes[mLength++] = '-';
+        }
+        long whole = hundredths / 100;
+        final int fraction = (int) (hundredths % 100);
+        int count = 0;
+        do {
+            mDigits[count++] = (byte) ('0' + (whole % 10));
+            whole /= 10;
+        } while (whole != 0);
+        while (count > 0) {
+            mBytes[mLength++] = mDigits[--count];
+        }
+        mBytes[mLength++] = '.';
+        mBytes[mLength++] = (byte) ('0' + (fraction / 10));
+        mBytes[mLength++] = (byte) ('0' + (fraction % 10));
+        return this;
+    }
+
+    /**
+     * One sample as a CSV fragment: time in msec, then the x/y/z values
+     *
+     * @param when nanoseconds since the start of the test
+     */
+    public CsvRow appendSample(long when, float x, float y, float z) {
+        appendTime(when);
+        append(", ").appendTwoPlaces(x);
+        append(", ").appendTwoPlaces(y);
+        append(", ").appendTwoPlaces(z);
+        return this;
+    }
+
+    /**
+     * @param when nanoseconds since the start of the test, written as msec
+     */
+    public CsvRow appendTime(long when) {
+        long microseconds = (when + 500) / 1000;
+        float milliseconds = microseconds / 1000.0f;
+        return appendTwoPlaces(milliseconds);
+    }
+
+    /**
+     * Writes the row followed by a newline, and clears it for the next one.
+     */
+    public void writeLine(OutputStream out) throws IOException {
+        append('\n');
+        out.write(mBytes, 0, mLength);
+        mLength = 0;
+    }
+
+    private void ensure(int extra) {
+        if (mLength + extra > mBytes.length) {
+            byte[] bigger = new byte[Math.max(mBytes.length * 2, mLength + extra)];
+            System.arraycopy(mBytes, 0, bigger, 0, mLength);
+            mBytes = bigger;
+        }
+    }
+}
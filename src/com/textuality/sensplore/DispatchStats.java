@@ -0,0 +1,69 @@
+package com.textuality.sensplore;
+
+import android.util.Log;
+
+/**
+ * What running the sensor processing on its own thread buys and costs: the time spent processing events on the sensor
+ *  thread, all of which used to be main-thread time, less the time the main thread now spends taking Handoffs; and the
+ *  latency a Handoff adds, from publish() to the UI thread getting the result.
+ *
+ * Each figure has a single writer, the sensor thread or the main thread, so plain volatiles do.
+ */
+public class DispatchStats {
+
+    private final String mName;
+
+    // sensor thread
+    private volatile long mEvents = 0;
+    private volatile long mSensorNanos = 0;
+
+    // main thread
+    private volatile long mHandoffs = 0;
+    private volatile long mMainNanos = 0;
+    private volatile long mLatencyNanos = 0;
+    private volatile long mMaxLatency = 0;
+
+    public DispatchStats(String name) {
+        mName = name;
+    }
+
+    public void processed(long nanos) {
+        mEvents++;
+        mSensorNanos += nanos;
+    }
+
+    public void handedOff(long latency, long nanos) {
+        mHandoffs++;
+        mMainNanos += nanos;
+        mLatencyNanos += latency;
+        if (latency > mMaxLatency) {
+            mMaxLatency = latency;
+        }
+    }
+
+    /**
+     * @return milliseconds of main-thread time saved so far
+     */
+    public double mainThreadSaved() {
+        return (mSensorNanos - mMainNanos) / 1e6;
+    }
+
+    /**
+     * @return mean latency added by handoffs, in milliseconds
+     */
+    public double meanLatency() {
+        return (mHandoffs == 0) ? 0 : (mLatencyNanos / mHandoffs) / 1e6;
+    }
+
+    public void log() {
+        if (mEvents > 0) {
+            Log.d(Sensplore.TAG, mName + ": " + mEvents + " events took " + String.format("%.1f", mSensorNanos / 1e6) +
+                    " msec on the sensor thread; " + mHandoffs + " handoffs took " +
+                    String.format("%.1f", mMainNanos / 1e6) + " msec on the main thread, saving " +
+                    String.format("%.1f", mainThreadSaved()) + " msec; latency mean " +
+                    String.format("%.2f", meanLatency()) + " msec, max " + String.format("%.2f", mMaxLatency / 1e6) +
+                    " msec");
+        }
+        mEvents = mSensorNanos = mHandoffs = mMainNanos = mLatencyNanos = mMaxLatency = 0;
+    }
+}
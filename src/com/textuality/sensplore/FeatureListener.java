@@ -0,0 +1,14 @@
+package com.textuality.sensplore;
+
+public interface FeatureListener {
+
+    /**
+     * Called by Features each time a stream's window has moved on by a hop.
+     *
+     * @param type the stream's sensor type, or Trace.TYPE_ANGLE_CHANGE
+     * @param timestamp of the newest sample in the window
+     * @param vector laid out as Features.MEAN, RMS and so on, then a band energy each from Features.BANDS on.  Only good for
+     *  the duration of the call.
+     */
+    public void features(int type, long timestamp, float[] vector);
+}
@@ -0,0 +1,466 @@
+package com.textuality.sensplore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import android.hardware.Sensor;
+
+/**
+ * Boils each stream down to a short vector of features over a sliding window of its last samples, the numbers the analysts
+ *  used to work out from the CSV afterwards: mean, RMS and variance, the peak, zero-crossings a second, and the energy in a
+ *  few frequency bands.  Every HOP samples, the listener gets the vector for the window ending at the latest one.
+ *
+ * The features are of the stream's magnitude, so they don't depend on which way up the phone is held: the length of the
+ *  x/y/z vector, or the single value of a light or pressure sensor.  Angle changes are divided by the time since the one
+ *  before, so for them and for the gyroscope the peak is the peak angular rate, in radians/sec.  Zero-crossings are counted
+ *  on each axis, since a magnitude never crosses zero; they mean something for streams centred on zero like linear
+ *  acceleration and the gyroscope, while gravity keeps the accelerometer's axes from crossing much.
+ *
+ * Each sample costs the same however big the window: the sums, sums of squares and crossings are kept running, adding the
+ *  new sample and taking off the one that's dropped out, and the peak comes off the front of a deque of the samples that
+ *  are bigger than everything since.  The running sums are added up afresh once a window, so rounding can't build up over a
+ *  long capture.  The band energies need the whole window, so they come from a radix-2 FFT, once a hop; its tables and
+ *  buffers are made up front, like everything else, so nothing is allocated per sample.  The bands are worked out from the
+ *  window's own sampling rate, so they assume the samples are roughly evenly spaced; for sensors that only report changes,
+ *  only the first few features mean much.
+ *
+ * Like GestureEngine, it's a SampleSink with nothing Android about it, so it runs live on RecorderService's sensor thread
+ *  and under Replay on a plain JVM:
+ *
+ *   java com.textuality.sensplore.Features capture.csv|capture.trace [window [hop]] > features.csv
+ *
+ * where a trace that's one segment of a capture stands for all of them.
+ */
+public class Features implements SampleSink {
+
+    // what's where in a vector
+    public static final int MEAN = 0;
+    public static final int RMS = 1;
+    public static final int VARIANCE = 2;
+    public static final int PEAK = 3;
+    public static final int CROSSINGS = 4;   // a second, all axes together
+    public static final int BANDS = 5;       // band energies from here on, lowest first
+
+    public static final int WINDOW = 256;    // samples; 5 seconds at SENSOR_DELAY_GAME, 1.3 at 200Hz
+    public static final int HOP = 64;
+    // the bands' edges in Hz; hand movements are mostly below 8, shaking and walking up to 20
+    public static final double[] BAND_EDGES = { 0, 1, 3, 8, 20, 50 };
+    // how many numbers there are in a vector with those bands
+    public static final int LENGTH = BANDS + BAND_EDGES.length - 1;
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final FeatureListener mListener;
+    private final int[] mTypes;
+    private final Stream[] mStreams;
+    private final int mSize;
+    private final int mMask;
+    private final int mHop;
+    private final Spectrum mSpectrum;
+    private final float[] mVector;
+
+    /**
+     * Features over WINDOW samples every HOP, in the BAND_EDGES bands.
+     *
+     * @param types the streams to work on; samples of other types are ignored
+     */
+    public Features(FeatureListener listener, int[] types) {
+        this(listener, types, WINDOW, HOP, BAND_EDGES);
+    }
+
+    /**
+     * @param window samples; a power of two, for the FFT
+     * @param hop samples between vectors
+     * @param edges of the bands in Hz, ascending; a band's energy takes in frequencies from its lower edge, up to but not
+     *  including its upper one
+     */
+    public Features(FeatureListener listener, int[] types, int window, int hop, double[] edges) {
+        if (window < 4 || (window & (window - 1)) != 0) {
+            throw new IllegalArgumentException("window must be a power of two, at least 4");
+        }
+        if (hop < 1) {
+            throw new IllegalArgumentException("hop must be positive");
+        }
+        if (edges.length < 2) {
+            throw new IllegalArgumentException("need at least one band");
+        }
+        mListener = listener;
+        mTypes = types.clone();
+        mSize = window;
+        mMask = window - 1;
+        mHop = hop;
+        mSpectrum = new Spectrum(window, edges);
+        mVector = new float[BANDS + edges.length - 1];
+        mStreams = new Stream[types.length];
+        for (int i = 0; i < types.length; i++) {
+            mStreams[i] = new Stream(types[i]);
+        }
+    }
+
+    /**
+     * @return how many numbers there are in a vector
+     */
+    public int length() {
+        return mVector.length;
+    }
+
+    @Override
+    public void sample(int type, long timestamp, float[] values) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mTypes[i] == type) {
+                mStreams[i].add(timestamp, values);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Empties the windows, for a fresh start.
+     */
+    public void reset() {
+        for (Stream stream : mStreams) {
+            stream.reset();
+        }
+    }
+
+    /**
+     * One stream's window: its samples' magnitudes in a ring, and the running totals over them.
+     */
+    private class Stream {
+        private final int mType;
+        private final int mAxes;
+        private final boolean mRate;
+        private final double[] mSignal = new double[mSize];
+        private final long[] mWhen = new long[mSize];
+        private final byte[] mCrossed = new byte[mSize];    // axes whose sign changed since the sample before
+        private final byte[] mSigns = new byte[3];          // each axis's last sign that wasn't zero
+        // positions of samples bigger than any later one, oldest first, in a ring of their own; the first is the peak
+        private final long[] mPeaks = new long[mSize];
+        private int mPeakHead;
+        private int mPeakCount;
+        private long mCount;        // samples so far, and the position of the next
+        private long mNextVector;
+        private int mSinceTotalled;
+        private double mSum;
+        private double mSumSquares;
+        private int mCrossings;
+        private long mLastWhen;
+
+        public Stream(int type) {
+            mType = type;
+            mAxes = CaptureProfile.values(type);
+            mRate = CaptureProfile.changes(type);
+            reset();
+        }
+
+        public void reset() {
+            mPeakHead = mPeakCount = 0;
+            mCount = 0;
+            mNextVector = mSize;
+            mSinceTotalled = 0;
+            mSum = mSumSquares = 0;
+            mCrossings = 0;
+            mLastWhen = UNSET;
+            mSigns[0] = mSigns[1] = mSigns[2] = 0;
+        }
+
+        public void add(long when, float[] values) {
+            // single-value sensors may hand over a one-element array
+            final int axes = Math.min(mAxes, values.length);
+            double value;
+            if (axes == 1) {
+                value = values[0];
+            } else {
+                value = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+            }
+            if (mRate) {
+                final long interval = when - mLastWhen;
+                if (mLastWhen == UNSET || interval <= 0) {
+                    // no rate without an interval
+                    mLastWhen = when;
+                    return;
+                }
+                mLastWhen = when;
+                value /= interval / 1e9;
+            }
+            int crossed = 0;
+            for (int axis = 0; axis < axes; axis++) {
+                final byte sign = (values[axis] > 0) ? (byte) 1 : (values[axis] < 0) ? (byte) -1 : 0;
+                if (sign != 0) {
+                    if (sign == -mSigns[axis]) {
+                        crossed++;
+                    }
+                    mSigns[axis] = sign;
+                }
+            }
+
+            final int slot = (int) (mCount & mMask);
+            if (mCount >= mSize) {
+                final double old = mSignal[slot];
+                mSum -= old;
+                mSumSquares -= old * old;
+                mCrossings -= mCrossed[slot];
+                if (mPeaks[mPeakHead] == mCount - mSize) {
+                    mPeakHead = (mPeakHead + 1) & mMask;
+                    mPeakCount--;
+                }
+            }
+            mSignal[slot] = value;
+            mWhen[slot] = when;
+            mCrossed[slot] = (byte) crossed;
+            mSum += value;
+            mSumSquares += value * value;
+            mCrossings += crossed;
+            // anything no bigger than this can't be the peak again before this drops out
+            while (mPeakCount > 0 && mSignal[(int) (mPeaks[(mPeakHead + mPeakCount - 1) & mMask] & mMask)] <= value) {
+                mPeakCount--;
+            }
+            mPeaks[(mPeakHead + mPeakCount) & mMask] = mCount;
+            mPeakCount++;
+            mCount++;
+
+            if (++mSinceTotalled == mSize) {
+                total();
+            }
+            if (mCount == mNextVector) {
+                mNextVector += mHop;
+                vector(when);
+            }
+        }
+
+        private void total() {
+            mSinceTotalled = 0;
+            final int samples = (int) Math.min(mCount, mSize);
+            mSum = mSumSquares = 0;
+            mCrossings = 0;
+            for (int i = 0; i < samples; i++) {
+                mSum += mSignal[i];
+                mSumSquares += mSignal[i] * mSignal[i];
+                mCrossings += mCrossed[i];
+            }
+        }
+
+        private void vector(long when) {
+            final double mean = mSum / mSize;
+            final double meanSquare = Math.max(0, mSumSquares / mSize);
+            mVector[MEAN] = (float) mean;
+            mVector[RMS] = (float) Math.sqrt(meanSquare);
+            mVector[VARIANCE] = (float) Math.max(0, meanSquare - mean * mean);
+            mVector[PEAK] = (float) mSignal[(int) (mPeaks[mPeakHead] & mMask)];
+
+            // the window's full, so the oldest sample is in the slot the next one will go in; its crossing was from
+            //  a sample that's already gone
+            final int oldest = (int) (mCount & mMask);
+            final double seconds = (when - mWhen[oldest]) / 1e9;
+            mVector[CROSSINGS] = (seconds > 0) ? (float) ((mCrossings - mCrossed[oldest]) / seconds) : 0;
+            mSpectrum.bands(mSignal, oldest, mean, (seconds > 0) ? (mSize - 1) / seconds : 0, mVector);
+            mListener.features(mType, when, mVector);
+        }
+    }
+
+    /**
+     * Band energies from an in-place radix-2 FFT of a Hann-windowed window.  The energies are scaled so that they add up to
+     *  about the variance, less whatever falls outside the bands.
+     */
+    private static class Spectrum {
+        private final int mN;
+        private final int mMask;
+        private final double[] mEdges;
+        private final double[] mHann;
+        private final double mScale;
+        private final int[] mReversed;
+        private final double[] mCos;
+        private final double[] mSin;
+        private final double[] mRe;
+        private final double[] mIm;
+
+        public Spectrum(int n, double[] edges) {
+            mN = n;
+            mMask = n - 1;
+            mEdges = edges.clone();
+            mHann = new double[n];
+            double squares = 0;
+            for (int i = 0; i < n; i++) {
+                mHann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / n);
+                squares += mHann[i] * mHann[i];
+            }
+            mScale = 1.0 / (n * squares);
+            final int bits = Integer.numberOfTrailingZeros(n);
+            mReversed = new int[n];
+            for (int i = 0; i < n; i++) {
+                mReversed[i] = Integer.reverse(i) >>> (32 - bits);
+            }
+            mCos = new double[n / 2];
+            mSin = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                mCos[i] = Math.cos(2 * Math.PI * i / n);
+                mSin[i] = Math.sin(2 * Math.PI * i / n);
+            }
+            mRe = new double[n];
+            mIm = new double[n];
+        }
+
+        /**
+         * @param ring the window, oldest at first and wrapping round
+         * @param rate samples a second
+         */
+        public void bands(double[] ring, int first, double mean, double rate, float[] vector) {
+            final int bands = mEdges.length - 1;
+            for (int band = 0; band < bands; band++) {
+                vector[BANDS + band] = 0;
+            }
+            if (rate <= 0) {
+                return;
+            }
+            // loaded in bit-reversed order, so the butterflies come out in order
+            for (int i = 0; i < mN; i++) {
+                final int j = mReversed[i];
+                mRe[j] = (ring[(first + i) & mMask] - mean) * mHann[i];
+                mIm[j] = 0;
+            }
+            transform();
+
+            // a real signal's spectrum is symmetrical, so each bin below Nyquist counts twice
+            int band = 0;
+            for (int k = 1; k <= mN / 2; k++) {
+                final double hz = k * rate / mN;
+                while (band < bands && hz >= mEdges[band + 1]) {
+                    band++;
+                }
+                if (band == bands) {
+                    break;
+                }
+                if (hz >= mEdges[0]) {
+                    final double power = (mRe[k] * mRe[k] + mIm[k] * mIm[k]) * mScale;
+                    vector[BANDS + band] += (float) ((k == mN / 2) ? power : 2 * power);
+                }
+            }
+        }
+
+        private void transform() {
+            for (int size = 2; size <= mN; size <<= 1) {
+                final int half = size >> 1, step = mN / size;
+                for (int start = 0; start < mN; start += size) {
+                    for (int k = 0; k < half; k++) {
+                        final double c = mCos[k * step], s = mSin[k * step];
+                        final int a = start + k, b = a + half;
+                        // times e^(-2 pi i k / size)
+                        final double re = mRe[b] * c + mIm[b] * s;
+                        final double im = mIm[b] * c - mRe[b] * s;
+                        mRe[b] = mRe[a] - re;
+                        mIm[b] = mIm[a] - im;
+                        mRe[a] += re;
+                        mIm[a] += im;
+                    }
+                }
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // Writing them out
+
+    /**
+     * Writes each vector as a line of CSV: the stream's label, the time in msec, then the features.
+     */
+    public static class CsvWriter implements FeatureListener {
+        private final PrintStream mOut;
+        private final StringBuilder mLine = new StringBuilder();
+        private long mVectors = 0;
+
+        /**
+         * @param edges the bands', for the headings
+         */
+        public CsvWriter(PrintStream out, double[] edges) {
+            mOut = out;
+            mLine.append("Sensor,t (msec),mean,rms,variance,peak,crossings/sec");
+            for (int band = 0; band < edges.length - 1; band++) {
+                mLine.append(',').append(hz(edges[band])).append('-').append(hz(edges[band + 1])).append("Hz");
+            }
+            out.println(mLine);
+        }
+
+        @Override
+        public void features(int type, long timestamp, float[] vector) {
+            mLine.setLength(0);
+            mLine.append(CaptureProfile.label(type)).append(',').append(String.format("%.2f", timestamp / 1e6));
+            for (float value : vector) {
+                mLine.append(',').append(String.format("%.5g", value));
+            }
+            mOut.println(mLine);
+            mVectors++;
+        }
+
+        public long vectors() {
+            return mVectors;
+        }
+
+        private static String hz(double edge) {
+            return (edge == Math.rint(edge)) ? Long.toString((long) edge) : Double.toString(edge);
+        }
+    }
+
+    /**
+     * @return every stream a capture can have
+     */
+    public static int[] allTypes() {
+        final int[] types = new int[CaptureProfile.TYPES.length + 1];
+        System.arraycopy(CaptureProfile.TYPES, 0, types, 0, CaptureProfile.TYPES.length);
+        types[CaptureProfile.TYPES.length] = Trace.TYPE_ANGLE_CHANGE;
+        return types;
+    }
+
+    /**
+     * Writes the features of every stream in the traces, which are taken to be a capture's segments in order, as CSV.
+     *
+     * @return number of vectors written
+     */
+    public static long export(File[] traces, PrintStream p) throws IOException {
+        return export(traces, p, WINDOW, HOP);
+    }
+
+    public static long export(File[] traces, PrintStream p, int window, int hop) throws IOException {
+        final CsvWriter writer = new CsvWriter(p, BAND_EDGES);
+        final Replay replay = new Replay(new Features(writer, allTypes(), window, hop, BAND_EDGES));
+        for (File file : traces) {
+            // a cursor without types goes block by block, so the streams come interleaved, but each in order
+            final TraceReader trace = new TraceReader(file);
+            try {
+                replay.replay(trace);
+            } finally {
+                trace.close();
+            }
+        }
+        return writer.vectors();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: Features capture.csv|capture.trace [window [hop]] > features.csv");
+            System.exit(1);
+        }
+        final File file = new File(args[0]);
+        final int window = (args.length > 1) ? Integer.parseInt(args[1]) : WINDOW;
+        final int hop = (args.length > 2) ? Integer.parseInt(args[2]) : Math.max(1, window / 4);
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024));
+        final long started = System.nanoTime();
+        long vectors;
+        if (file.getName().endsWith(Trace.EXTENSION)) {
+            File[] traces = { file };
+            final String name = file.getName();
+            final String capture = SegmentStore.capture(name);
+            if (!capture.equals(name.substring(0, name.indexOf('.')))) {
+                traces = new SegmentStore(file.getAbsoluteFile().getParentFile(), capture).segments();
+            }
+            vectors = export(traces, out, window, hop);
+        } else {
+            final CsvWriter writer = new CsvWriter(out, BAND_EDGES);
+            new Replay(new Features(writer, allTypes(), window, hop, BAND_EDGES)).replayCsv(file);
+            vectors = writer.vectors();
+        }
+        out.flush();
+        System.err.println(vectors + " vectors in " + String.format("%.2f", (System.nanoTime() - started) / 1e9) + " sec");
+    }
+}
@@ -0,0 +1,19 @@
+package com.textuality.sensplore;
+
+/**
+ * One stage in the smoothing that Tilt, via TiltMeter, runs each reading through.  See Filters for the implementations.  A
+ *  Filter holds the state of one stream, so each TiltMeter needs its own.
+ */
+public interface Filter {
+
+    /**
+     * @param timestamp of the reading, in nanoseconds
+     * @return the filtered value
+     */
+    public double filter(long timestamp, double value);
+
+    /**
+     * Forgets everything it has seen.
+     */
+    public void reset();
+}
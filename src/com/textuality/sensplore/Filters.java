@@ -0,0 +1,238 @@
+package com.textuality.sensplore;
+
+/**
+ * Filters for smoothing sensor readings, all of them O(1) per sample except Median, which is O(n) in its (small) window.
+ */
+public class Filters {
+
+    // if timestamps aren't usable, assume SENSOR_DELAY_GAME's 20msec
+    private static final double DEFAULT_INTERVAL = 0.02;
+
+    /**
+     * Runs a value through several filters in turn.
+     */
+    public static class Chain implements Filter {
+        private final Filter[] mFilters;
+
+        public Chain(Filter... filters) {
+            mFilters = filters;
+        }
+
+        @Override
+        public double filter(long timestamp, double value) {
+            for (Filter filter : mFilters) {
+                value = filter.filter(timestamp, value);
+            }
+            return value;
+        }
+
+        @Override
+        public void reset() {
+            for (Filter filter : mFilters) {
+                filter.reset();
+            }
+        }
+    }
+
+    /**
+     * Average of the last n values, kept as a running sum.  Until n values have arrived it averages the ones it has, rather
+     *  than counting the missing ones as zeros.  The sum is recomputed each time round the buffer, so rounding errors don't
+     *  pile up.
+     */
+    public static class MovingAverage implements Filter {
+        private final double[] mBuffer;
+        private int mIndex = 0;
+        private int mCount = 0;
+        private double mSum = 0;
+
+        public MovingAverage(int size) {
+            mBuffer = new double[size];
+        }
+
+        @Override
+        public double filter(long timestamp, double value) {
+            if (mCount == mBuffer.length) {
+                mSum -= mBuffer[mIndex];
+            } else {
+                mCount++;
+            }
+            mBuffer[mIndex] = value;
+            mSum += value;
+            if (++mIndex == mBuffer.length) {
+                mIndex = 0;
+                mSum = 0;
+                for (double v : mBuffer) {
+                    mSum += v;
+                }
+            }
+            return mSum / mCount;
+        }
+
+        @Override
+        public void reset() {
+            mIndex = mCount = 0;
+            mSum = 0;
+        }
+    }
+
+    /**
+     * Exponential low-pass with a time constant, so it behaves the same at any sample rate: alpha = dT / (t + dT).  Starts
+     *  from the first value rather than from zero.
+     */
+    public static class LowPass implements Filter {
+        private final double mTimeConstant;
+        private final Interval mInterval = new Interval();
+        private double mValue;
+
+        /**
+         * @param timeConstant in seconds; roughly how long it takes to "see" a change
+         */
+        public LowPass(double timeConstant) {
+            mTimeConstant = timeConstant;
+        }
+
+        @Override
+        public double filter(long timestamp, double value) {
+            if (mInterval.first(timestamp)) {
+                mValue = value;
+            } else {
+                final double dT = mInterval.seconds(timestamp);
+                mValue += (dT / (mTimeConstant + dT)) * (value - mValue);
+            }
+            return mValue;
+        }
+
+        @Override
+        public void reset() {
+            mInterval.reset();
+        }
+    }
+
+    /**
+     * The 1-euro filter (Casiez, Roussel and Vogel, CHI 2012): a low-pass whose cutoff rises with the speed of change, so
+     *  it's smooth when the device is held still and still keeps up when it's tilted quickly.
+     */
+    public static class OneEuro implements Filter {
+        private final double mMinCutoff;
+        private final double mBeta;
+        private final double mDerivativeCutoff;
+        private final Interval mInterval = new Interval();
+        private double mValue;
+        private double mDerivative;
+
+        /**
+         * @param minCutoff in Hz, the cutoff when the value isn't changing; lower is smoother
+         * @param beta how much the cutoff goes up with speed; higher lags less
+         * @param derivativeCutoff in Hz, for smoothing the speed; 1 is usually fine
+         */
+        public OneEuro(double minCutoff, double beta, double derivativeCutoff) {
+            mMinCutoff = minCutoff;
+            mBeta = beta;
+            mDerivativeCutoff = derivativeCutoff;
+        }
+
+        @Override
+        public double filter(long timestamp, double value) {
+            if (mInterval.first(timestamp)) {
+                mValue = value;
+                mDerivative = 0;
+                return value;
+            }
+            final double dT = mInterval.seconds(timestamp);
+            mDerivative += alpha(dT, mDerivativeCutoff) * (((value - mValue) / dT) - mDerivative);
+            final double cutoff = mMinCutoff + (mBeta * Math.abs(mDerivative));
+            mValue += alpha(dT, cutoff) * (value - mValue);
+            return mValue;
+        }
+
+        private static double alpha(double dT, double cutoff) {
+            final double tau = 1.0 / (2 * Math.PI * cutoff);
+            return 1.0 / (1.0 + (tau / dT));
+        }
+
+        @Override
+        public void reset() {
+            mInterval.reset();
+        }
+    }
+
+    /**
+     * Median of the last n values, which throws out single-reading spikes without smearing them into their neighbours.
+     *  Keeps the window sorted alongside the ring buffer, so each sample is one removal and one insertion.
+     */
+    public static class Median implements Filter {
+        private final double[] mRing;
+        private final double[] mSorted;
+        private int mIndex = 0;
+        private int mCount = 0;
+
+        public Median(int size) {
+            mRing = new double[size];
+            mSorted = new double[size];
+        }
+
+        @Override
+        public double filter(long timestamp, double value) {
+            if (mCount == mRing.length) {
+                remove(mRing[mIndex]);
+            }
+            insert(value);
+            mRing[mIndex] = value;
+            if (++mIndex == mRing.length) {
+                mIndex = 0;
+            }
+            return mSorted[mCount / 2];
+        }
+
+        private void remove(double value) {
+            int i = 0;
+            while (i < mCount - 1 && mSorted[i] != value) {
+                i++;
+            }
+            System.arraycopy(mSorted, i + 1, mSorted, i, mCount - i - 1);
+            mCount--;
+        }
+
+        private void insert(double value) {
+            int i = mCount;
+            while (i > 0 && mSorted[i - 1] > value) {
+                mSorted[i] = mSorted[i - 1];
+                i--;
+            }
+            mSorted[i] = value;
+            mCount++;
+        }
+
+        @Override
+        public void reset() {
+            mIndex = mCount = 0;
+        }
+    }
+
+    /**
+     * Seconds between successive timestamps, falling back to DEFAULT_INTERVAL if they're missing or out of order.
+     */
+    private static class Interval {
+        private long mLast = 0;
+        private boolean mStarted = false;
+
+        public boolean first(long timestamp) {
+            if (mStarted) {
+                return false;
+            }
+            mStarted = true;
+            mLast = timestamp;
+            return true;
+        }
+
+        public double seconds(long timestamp) {
+            final long delta = timestamp - mLast;
+            mLast = timestamp;
+            return (delta > 0) ? delta / 1e9 : DEFAULT_INTERVAL;
+        }
+
+        public void reset() {
+            mStarted = false;
+        }
+    }
+}
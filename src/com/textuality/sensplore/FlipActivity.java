@@ -31,18 +31,34 @@ public class FlipActivity extends Activity {
                 case Kinetics.NOW_FACE_UP:
                     mReadout.setText(FlipActivity.this.getText(R.string.now_face_up));
                     break;
+                case Kinetics.SHAKE:
+                    mReadout.setText(FlipActivity.this.getText(R.string.shake));
+                    break;
+                case Kinetics.TWIST:
+                    mReadout.setText(FlipActivity.this.getText(R.string.twist));
+                    break;
+                case Kinetics.TAP:
+                    mReadout.setText(FlipActivity.this.getText(R.string.tap));
+                    break;
+                case Kinetics.PICK_UP:
+                    mReadout.setText(FlipActivity.this.getText(R.string.pick_up));
+                    break;
                 }
                 return false;
             }
         });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
         mKinetics.start();
     }
 
     @Override
     protected void onPause() {
-        // TODO Auto-generated method stub
         super.onPause();
         mKinetics.stop();
     }
-    
+
 }
@@ -0,0 +1,32 @@
+package com.textuality.sensplore;
+
+/**
+ * There are a few places in sensor-land where you get the delta of two 3x3 float[] matrices. This pre-allocates two and
+ *  flips them back and forth between "next" and "last", so you don't have to keep allocating new ones.
+ */
+class Flipper {
+    private final float[] mR1 = new float[9], mR2 = new float[9];
+    private final float[][] mR = { mR1,  mR2 };
+    private int mLast = -1;
+
+    public float[] last() {
+        if (mLast == -1) {
+            mLast = 0;
+            return null;
+        } else {
+            return mR[mLast];
+        }
+    }
+
+    public float[] next() {
+        return mR[mLast ^ 1];
+    }
+
+    public void flip() {
+        mLast ^= 1;
+    }
+
+    public void reset() {
+        mLast = -1;
+    }
+}
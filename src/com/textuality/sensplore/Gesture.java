@@ -0,0 +1,238 @@
+package com.textuality.sensplore;
+
+/**
+ * A gesture, declared as a small state machine over one of GestureEngine's streams.  Each row of the table is a rule:
+ *
+ *   { state, bits that must all be set, bits that must all be clear, min dwell, max dwell, next state, gesture to report }
+ *
+ * The bits are GestureEngine's predicates for the event; dwell is how long the machine has been in its current state, in
+ *  milliseconds of sensor timestamp since the event that brought it there (or since the first event after a reset).  On each
+ *  event, the first rule for the current state that matches moves the machine to the next state and reports the gesture if
+ *  there is one (NONE otherwise); if no rule matches, it stays put.  State 0 is where it starts.
+ *
+ * Since dwell is time rather than a count of events, a gesture means the same thing at any sampling rate; a faster rate only
+ *  notices the end of a movement sooner.  The thresholds were counts of events at SENSOR_DELAY_GAME (20msec apart) and sit
+ *  halfway between counts now, so jitter in the timestamps doesn't move them.
+ */
+public class Gesture {
+
+    public static final int NONE = -1;
+    public static final int FOREVER = Integer.MAX_VALUE;
+
+    private static final int STATE = 0, ALL = 1, CLEAR = 2, MIN_DWELL = 3, MAX_DWELL = 4, NEXT = 5, REPORT = 6;
+    static final int RULE = 7;
+
+    final String mName;
+    final int mStream;
+    final int[] mRules;     // the table, flattened and sorted by state
+    final int[] mFirst;     // mFirst[state] is the first of its rules, mFirst[state + 1] the end
+
+    public Gesture(String name, int stream, int[][] table) {
+        mName = name;
+        mStream = stream;
+        int states = 0;
+        for (int[] rule : table) {
+            if (rule.length != RULE) {
+                throw new IllegalArgumentException(name + ": rules have " + RULE + " fields");
+            }
+            states = Math.max(states, Math.max(rule[STATE], rule[NEXT]) + 1);
+        }
+        mFirst = new int[states + 1];
+        mRules = new int[table.length * RULE];
+        int at = 0;
+        for (int state = 0; state < states; state++) {
+            mFirst[state] = at;
+            for (int[] rule : table) {
+                if (rule[STATE] == state) {
+                    System.arraycopy(rule, 0, mRules, at, RULE);
+                    at += RULE;
+                }
+            }
+        }
+        mFirst[states] = at;
+    }
+
+    /**
+     * @return a copy with every dwell threshold scaled, and the name changed; for benchmarking with gestures that are
+     *  alike but not the same
+     */
+    Gesture scaled(String name, double factor) {
+        final int[][] table = new int[mRules.length / RULE][RULE];
+        for (int i = 0; i < table.length; i++) {
+            System.arraycopy(mRules, i * RULE, table[i], 0, RULE);
+            for (int field : new int[] { MIN_DWELL, MAX_DWELL }) {
+                if (table[i][field] != FOREVER) {
+                    table[i][field] = (int) Math.round(table[i][field] * factor);
+                }
+            }
+        }
+        return new Gesture(name, mStream, table);
+    }
+
+    /**
+     * @return the first matching rule's offset in mRules, or -1 if none matches
+     */
+    final int match(int state, int dwell, int bits) {
+        final int[] rules = mRules;
+        for (int r = mFirst[state], end = mFirst[state + 1]; r < end; r += RULE) {
+            final int all = rules[r + ALL];
+            if ((bits & all) == all && (bits & rules[r + CLEAR]) == 0 &&
+                    dwell >= rules[r + MIN_DWELL] && dwell <= rules[r + MAX_DWELL]) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    static int next(int[] rules, int r) {
+        return rules[r + NEXT];
+    }
+
+    static int report(int[] rules, int r) {
+        return rules[r + REPORT];
+    }
+
+    static int state(int[] rules, int r) {
+        return rules[r + STATE];
+    }
+
+    static int all(int[] rules, int r) {
+        return rules[r + ALL];
+    }
+
+    static int clear(int[] rules, int r) {
+        return rules[r + CLEAR];
+    }
+
+    static int minDwell(int[] rules, int r) {
+        return rules[r + MIN_DWELL];
+    }
+
+    static int maxDwell(int[] rules, int r) {
+        return rules[r + MAX_DWELL];
+    }
+
+    /////////////////////////////////////////////////////
+    // The built-in gestures
+
+    private static final int PLUS_X = GestureEngine.PLUS_X, MINUS_X = GestureEngine.MINUS_X;
+    private static final int PLUS_Y = GestureEngine.PLUS_Y, MINUS_Y = GestureEngine.MINUS_Y;
+    private static final int FACE_UP = GestureEngine.FACE_UP, FACE_DOWN = GestureEngine.FACE_DOWN;
+    private static final int RAISED = GestureEngine.RAISED;
+    private static final int QUIET = GestureEngine.QUIET, JOLT = GestureEngine.JOLT, KNOCK = GestureEngine.KNOCK;
+
+    /**
+     * Tipping the top edge away (FLIP_UP) or toward you (FLIP_DOWN): turning around x the same way for 50msec or more, after
+     *  70msec at rest, which also lets things settle after a gesture.
+     */
+    public static Gesture flip() {
+        final int rest = 0, forward = 1, backward = 2;
+        return new Gesture("flip", GestureEngine.ANGLE, new int[][] {
+            { rest,     MINUS_X, 0,       70, FOREVER, forward,  NONE },
+            { rest,     PLUS_X,  0,       70, FOREVER, backward, NONE },
+            { forward,  0,       MINUS_X, 50, FOREVER, rest,     KineticListener.FLIP_UP },
+            { forward,  0,       MINUS_X, 0,  FOREVER, rest,     NONE },
+            { backward, 0,       PLUS_X,  50, FOREVER, rest,     KineticListener.FLIP_DOWN },
+            { backward, 0,       PLUS_X,  0,  FOREVER, rest,     NONE },
+        });
+    }
+
+    /**
+     * Reports NOW_FACE_UP or NOW_FACE_DOWN on arriving at lying flat either way.
+     */
+    public static Gesture facing() {
+        final int unknown = 0, up = 1, down = 2;
+        return new Gesture("facing", GestureEngine.GRAVITY, new int[][] {
+            { unknown, FACE_UP,   0,                   0, FOREVER, up,      KineticListener.NOW_FACE_UP },
+            { unknown, FACE_DOWN, 0,                   0, FOREVER, down,    KineticListener.NOW_FACE_DOWN },
+            { up,      FACE_DOWN, 0,                   0, FOREVER, down,    KineticListener.NOW_FACE_DOWN },
+            { up,      0,         FACE_UP | FACE_DOWN, 0, FOREVER, unknown, NONE },
+            { down,    FACE_UP,   0,                   0, FOREVER, up,      KineticListener.NOW_FACE_UP },
+            { down,    0,         FACE_UP | FACE_DOWN, 0, FOREVER, unknown, NONE },
+        });
+    }
+
+    /**
+     * Three jolts with no more than 300msec between them; then it waits half a second before looking for another.
+     */
+    public static Gesture shake() {
+        final int idle = 0, peak1 = 1, gap1 = 2, peak2 = 3, gap2 = 4, done = 5;
+        final int gap = 300;
+        return new Gesture("shake", GestureEngine.ACCEL, new int[][] {
+            { idle,  JOLT, 0,    0,   FOREVER, peak1, NONE },
+            { peak1, 0,    JOLT, 0,   FOREVER, gap1,  NONE },
+            { gap1,  JOLT, 0,    0,   FOREVER, peak2, NONE },
+            { gap1,  0,    0,    gap, FOREVER, idle,  NONE },
+            { peak2, 0,    JOLT, 0,   FOREVER, gap2,  NONE },
+            { gap2,  JOLT, 0,    0,   FOREVER, done,  KineticListener.SHAKE },
+            { gap2,  0,    0,    gap, FOREVER, idle,  NONE },
+            { done,  0,    JOLT, 500, FOREVER, idle,  NONE },
+        });
+    }
+
+    /**
+     * A quick turn around the long (y) axis one way and back again, like turning a key.
+     */
+    public static Gesture twist() {
+        final int rest = 0, out = 1, paused = 2, back = 3;
+        final int outMinus = 4, pausedMinus = 5, backMinus = 6;
+        final int pause = 300;
+        return new Gesture("twist", GestureEngine.ANGLE, new int[][] {
+            { rest,        PLUS_Y,  0,       70,    FOREVER, out,         NONE },
+            { rest,        MINUS_Y, 0,       70,    FOREVER, outMinus,    NONE },
+
+            { out,         0,       PLUS_Y,  50,    FOREVER, paused,      NONE },
+            { out,         0,       PLUS_Y,  0,     FOREVER, rest,        NONE },
+            { paused,      MINUS_Y, 0,       0,     FOREVER, back,        NONE },
+            { paused,      0,       0,       pause, FOREVER, rest,        NONE },
+            { back,        0,       MINUS_Y, 50,    FOREVER, rest,        KineticListener.TWIST },
+            { back,        0,       MINUS_Y, 0,     FOREVER, rest,        NONE },
+
+            { outMinus,    0,       MINUS_Y, 50,    FOREVER, pausedMinus, NONE },
+            { outMinus,    0,       MINUS_Y, 0,     FOREVER, rest,        NONE },
+            { pausedMinus, PLUS_Y,  0,       0,     FOREVER, backMinus,   NONE },
+            { pausedMinus, 0,       0,       pause, FOREVER, rest,        NONE },
+            { backMinus,   0,       PLUS_Y,  50,    FOREVER, rest,        KineticListener.TWIST },
+            { backMinus,   0,       PLUS_Y,  0,     FOREVER, rest,        NONE },
+        });
+    }
+
+    /**
+     * A knock on the screen or the back: the device is still for 100msec, then there's a short sharp push along z, then it's
+     *  still again within 60msec.  The push is over in a few msec, so below about 50 samples a second it's mostly missed.
+     */
+    public static Gesture tap() {
+        final int moving = 0, settling = 1, ready = 2, knock = 3;
+        return new Gesture("tap", GestureEngine.ACCEL, new int[][] {
+            { moving,   QUIET, 0,     0,   FOREVER, settling, NONE },
+            { settling, 0,     QUIET, 0,   FOREVER, moving,   NONE },
+            { settling, QUIET, 0,     100, FOREVER, ready,    NONE },
+            { ready,    KNOCK, 0,     0,   FOREVER, knock,    NONE },
+            { ready,    0,     QUIET, 0,   FOREVER, moving,   NONE },
+            { knock,    QUIET, 0,     0,   60,      settling, KineticListener.TAP },
+            { knock,    0,     0,     60,  FOREVER, moving,   NONE },
+        });
+    }
+
+    /**
+     * Lifted from lying face-up for at least a second to held up facing you, within two seconds.
+     */
+    public static Gesture pickUp() {
+        final int idle = 0, lying = 1, lifting = 2;
+        return new Gesture("pick-up", GestureEngine.GRAVITY, new int[][] {
+            { idle,    FACE_UP, 0,       0,    FOREVER, lying,   NONE },
+            { lying,   0,       FACE_UP, 1000, FOREVER, lifting, NONE },
+            { lying,   0,       FACE_UP, 0,    FOREVER, idle,    NONE },
+            { lifting, RAISED,  0,       0,    FOREVER, idle,    KineticListener.PICK_UP },
+            { lifting, FACE_UP, 0,       0,    FOREVER, lying,   NONE },
+            { lifting, 0,       0,       2000, FOREVER, idle,    NONE },
+        });
+    }
+
+    /**
+     * @return one of each of the built-in gestures
+     */
+    public static Gesture[] all() {
+        return new Gesture[] { flip(), facing(), shake(), twist(), tap(), pickUp() };
+    }
+}
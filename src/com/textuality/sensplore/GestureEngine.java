@@ -0,0 +1,508 @@
+package com.textuality.sensplore;
+
+import android.hardware.Sensor;
+
+/**
+ * Runs any number of Gestures over the angle-change, gravity and linear-acceleration streams in one pass per event.  Each
+ *  event is boiled down once into a word of predicate bits for its stream (turning this way around x, lying face-up, a
+ *  jolt...), and the gestures step through their tables on that.
+ *
+ * A rule can only match while its predicate holds (its bits all set, its others all clear) and once its gesture has dwelt
+ *  long enough in the rule's state.  So the rules of every gesture's current state are kept with their predicates, rules
+ *  with the same predicate together whichever gestures they belong to: those with a min dwell in a heap ordered by when
+ *  it's reached, the rest in a list.  When an event's bits change, each distinct predicate of the stream is tested once;
+ *  then, on every event, only the rules of predicates that hold and are due are looked at, and each of those either moves
+ *  its gesture or has run past its max dwell and is dropped.
+ *
+ * So a gesture that's waiting costs nothing until it's due, however often the bits it tests change, and with a fixed set
+ *  of predicates the per-event cost stays flat as more waiting gestures are added.  That's the scope of the claim: each
+ *  gesture that moves costs a match and putting its new state's rules in place, so a crowd of gestures that all move on the
+ *  same input still costs in proportion to how many move, and gestures that add predicates add to the test of the bits.
+ *
+ * Everything is measured in sensor time: dwell in msec of timestamp, and turning as angular velocity rather than angle per
+ *  event, so the gestures work the same at any sampling rate.
+ *
+ * Like the FlipDetector it replaces, there's nothing Android about it except the sensor-type and gesture constants, so
+ *  Replay can drive it.  Reports go to a KineticListener; if that returns true, the rest of the event is skipped, so
+ *  whatever reset() the listener does takes effect before anything else is reported.
+ */
+public class GestureEngine implements SampleSink {
+
+    public static final int ANGLE = 0;      // Trace.TYPE_ANGLE_CHANGE, or computed from Sensor.TYPE_ROTATION_VECTOR
+    public static final int GRAVITY = 1;    // Sensor.TYPE_GRAVITY
+    public static final int ACCEL = 2;      // Sensor.TYPE_LINEAR_ACCELERATION
+    private static final int STREAMS = 3;
+    private static final int CHANGED = -1;   // no real event has every predicate, since some exclude each other
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final long MSEC = 1000000L;
+
+    // angle-change predicates
+    public static final int PLUS_X = 1 << 0;
+    public static final int MINUS_X = 1 << 1;
+    public static final int PLUS_Y = 1 << 2;
+    public static final int MINUS_Y = 1 << 3;
+    // gravity predicates
+    public static final int FACE_UP = 1 << 8;
+    public static final int FACE_DOWN = 1 << 9;
+    public static final int RAISED = 1 << 10;    // top edge well up, screen toward you
+    // linear-acceleration predicates
+    public static final int QUIET = 1 << 16;
+    public static final int JOLT = 1 << 17;
+    public static final int KNOCK = 1 << 18;     // sharp, and mostly along z
+
+    private static final double THRESHOLD_TURNING = Math.toRadians(5.0) / 0.02;   // radians/sec; was 5 degrees per event
+    private static final double THRESHOLD_FLAT = 8.0;                     // m/s^2 of gravity along z
+    private static final double THRESHOLD_RAISED = 6.0;                   // m/s^2 of gravity along y
+    private static final double THRESHOLD_QUIET = 0.6;                    // m/s^2
+    private static final double THRESHOLD_JOLT = 10.0;
+    private static final double THRESHOLD_KNOCK = 2.5;
+
+    private final KineticListener mListener;
+    private final Gesture[] mGestures;
+    private final int[][] mByStream = new int[STREAMS][];
+    private final int[] mState;
+    private final long[] mEntered;   // timestamp when the gesture arrived in its state, or UNSET after a reset
+    private final int[] mBits = new int[STREAMS];
+    // every rule of every gesture is an entry: gesture g's rule at offset r in its table is mBase[g] + r / Gesture.RULE
+    private final int[] mBase;
+    private final int[] mEntryGesture;
+    private final int[] mEntryState;
+    private final int[] mEntryPredicate;
+    private final long[] mDue;      // when the entry's rule could first match, while its gesture is in the rule's state
+    private final int[] mAt;        // where the entry is in its predicate's heap or ready list, or -1
+    // the distinct predicates, each with a heap of the entries that test it; and each stream's, and which of those hold
+    private final int[] mAll;
+    private final int[] mClear;
+    private final Schedule[] mSchedules;
+    private final int[][] mPredicates = new int[STREAMS][];
+    private final int[][] mHolding = new int[STREAMS][];
+    private final int[] mHolds = new int[STREAMS];
+    private final AngleTracker mAngles = new AngleTracker();
+    private long mLastAngle = UNSET;
+
+    public GestureEngine(KineticListener listener, Gesture... gestures) {
+        mListener = listener;
+        mGestures = gestures;
+        mState = new int[gestures.length];
+        mEntered = new long[gestures.length];
+        for (int stream = 0; stream < STREAMS; stream++) {
+            int count = 0;
+            for (Gesture gesture : gestures) {
+                if (gesture.mStream == stream) {
+                    count++;
+                }
+            }
+            mByStream[stream] = new int[count];
+            count = 0;
+            for (int g = 0; g < gestures.length; g++) {
+                if (gestures[g].mStream == stream) {
+                    mByStream[stream][count++] = g;
+                }
+            }
+        }
+
+        mBase = new int[gestures.length];
+        int entries = 0;
+        for (int g = 0; g < gestures.length; g++) {
+            mBase[g] = entries;
+            entries += gestures[g].mRules.length / Gesture.RULE;
+        }
+        mEntryGesture = new int[entries];
+        mEntryState = new int[entries];
+        mEntryPredicate = new int[entries];
+        mDue = new long[entries];
+        mAt = new int[entries];
+        for (int e = 0; e < entries; e++) {
+            mAt[e] = -1;
+        }
+        final int[] all = new int[entries], clear = new int[entries], stream = new int[entries], uses = new int[entries];
+        int predicates = 0;
+        for (int g = 0; g < gestures.length; g++) {
+            final int[] rules = gestures[g].mRules;
+            for (int r = 0; r < rules.length; r += Gesture.RULE) {
+                int p = 0;
+                while (p < predicates && (stream[p] != gestures[g].mStream || all[p] != Gesture.all(rules, r) ||
+                        clear[p] != Gesture.clear(rules, r))) {
+                    p++;
+                }
+                if (p == predicates) {
+                    stream[p] = gestures[g].mStream;
+                    all[p] = Gesture.all(rules, r);
+                    clear[p] = Gesture.clear(rules, r);
+                    predicates++;
+                }
+                final int e = mBase[g] + r / Gesture.RULE;
+                mEntryGesture[e] = g;
+                mEntryState[e] = Gesture.state(rules, r);
+                mEntryPredicate[e] = p;
+                uses[p]++;
+            }
+        }
+        mAll = new int[predicates];
+        mClear = new int[predicates];
+        mSchedules = new Schedule[predicates];
+        for (int p = 0; p < predicates; p++) {
+            mAll[p] = all[p];
+            mClear[p] = clear[p];
+            mSchedules[p] = new Schedule(mDue, mAt, uses[p]);
+        }
+        for (int s = 0; s < STREAMS; s++) {
+            int count = 0;
+            for (int p = 0; p < predicates; p++) {
+                if (stream[p] == s) {
+                    count++;
+                }
+            }
+            mPredicates[s] = new int[count];
+            mHolding[s] = new int[count];
+            count = 0;
+            for (int p = 0; p < predicates; p++) {
+                if (stream[p] == s) {
+                    mPredicates[s][count++] = p;
+                }
+            }
+        }
+        reset();
+    }
+
+    public void reset() {
+        for (int stream = 0; stream < STREAMS; stream++) {
+            mBits[stream] = CHANGED;
+            mHolds[stream] = 0;
+        }
+        mLastAngle = UNSET;
+        for (Schedule schedule : mSchedules) {
+            schedule.clear();
+        }
+        for (int g = 0; g < mGestures.length; g++) {
+            mState[g] = 0;
+            mEntered[g] = UNSET;    // so dwell is 0 at the next event
+        }
+    }
+
+    @Override
+    public void sample(int type, long timestamp, float[] values) {
+        switch (type) {
+        case Sensor.TYPE_ROTATION_VECTOR:
+            final float[] angles = mAngles.update(values);
+            if (angles != null) {
+                angleChange(timestamp, angles);
+            }
+            break;
+        case Trace.TYPE_ANGLE_CHANGE:
+            angleChange(timestamp, values);
+            break;
+        case Sensor.TYPE_GRAVITY:
+            step(GRAVITY, timestamp, gravityBits(values));
+            break;
+        case Sensor.TYPE_LINEAR_ACCELERATION:
+            step(ACCEL, timestamp, accelBits(values));
+            break;
+        }
+    }
+
+    private void angleChange(long timestamp, float[] values) {
+        final long interval = (mLastAngle == UNSET) ? 0 : timestamp - mLastAngle;
+        mLastAngle = timestamp;
+        step(ANGLE, timestamp, angleBits(values, interval));
+    }
+
+    /**
+     * @param values change in angle around x/y/z since the last rotation event, in radians
+     * @param interval nanoseconds since the last rotation event; 0 if unknown, which counts as not turning
+     */
+    private static int angleBits(float[] values, long interval) {
+        final double threshold = THRESHOLD_TURNING * (interval / 1e9);
+        int bits = 0;
+        if (interval <= 0) {
+            return bits;
+        }
+        if (values[0] > threshold) {
+            bits |= PLUS_X;
+        } else if (values[0] < -threshold) {
+            bits |= MINUS_X;
+        }
+        if (values[1] > threshold) {
+            bits |= PLUS_Y;
+        } else if (values[1] < -threshold) {
+            bits |= MINUS_Y;
+        }
+        return bits;
+    }
+
+    private static int gravityBits(float[] values) {
+        int bits = 0;
+        if (values[2] > THRESHOLD_FLAT) {
+            bits |= FACE_UP;
+        } else if (values[2] < -THRESHOLD_FLAT) {
+            bits |= FACE_DOWN;
+        }
+        if (values[1] > THRESHOLD_RAISED) {
+            bits |= RAISED;
+        }
+        return bits;
+    }
+
+    private static int accelBits(float[] values) {
+        final float x = values[0], y = values[1], z = values[2];
+        final float across = x * x + y * y;
+        final float magnitude = across + z * z;
+        int bits = 0;
+        if (magnitude < THRESHOLD_QUIET * THRESHOLD_QUIET) {
+            bits |= QUIET;
+        } else if (magnitude > THRESHOLD_JOLT * THRESHOLD_JOLT) {
+            bits |= JOLT;
+        }
+        if (z * z > THRESHOLD_KNOCK * THRESHOLD_KNOCK && z * z > 2 * across) {
+            bits |= KNOCK;
+        }
+        return bits;
+    }
+
+    private void step(int stream, long now, int bits) {
+        final int before = mBits[stream];
+        mBits[stream] = bits;
+        if (bits != before) {
+            hold(stream, bits);
+        }
+        if (before == CHANGED) {
+            // after a reset or a skipped event, every gesture gets a look and a fresh place in the heaps
+            for (int g : mByStream[stream]) {
+                if (mEntered[g] == UNSET) {
+                    mEntered[g] = now;
+                }
+                final int r = mGestures[g].match(mState[g], dwell(g, now), bits);
+                if (r < 0) {
+                    schedule(g, now);
+                } else if (!move(g, r, now)) {
+                    mBits[stream] = CHANGED;   // look at them all next time
+                    return;
+                }
+            }
+            return;
+        }
+        final int[] holding = mHolding[stream];
+        for (int i = 0, n = mHolds[stream]; i < n; i++) {
+            final Schedule schedule = mSchedules[holding[i]];
+            // the rules with no min dwell, due from the event after their gesture arrived
+            for (int at = 0; at < schedule.mReadySize; ) {
+                final int e = schedule.mReady[at];
+                if (mDue[e] > now) {
+                    at++;
+                    continue;
+                }
+                schedule.unready(at);
+                final int g = mEntryGesture[e];
+                if (mEntryState[e] == mState[g]) {
+                    final int r = mGestures[g].match(mState[g], dwell(g, now), bits);
+                    if (r >= 0 && !move(g, r, now)) {
+                        mBits[stream] = CHANGED;
+                        return;
+                    }
+                }
+            }
+            // and those that wait, in order; one that's due and doesn't match has dwelt too long
+            while (schedule.due(now)) {
+                final int e = schedule.take();
+                final int g = mEntryGesture[e];
+                final int r = mGestures[g].match(mState[g], dwell(g, now), bits);
+                if (r >= 0 && !move(g, r, now)) {
+                    mBits[stream] = CHANGED;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out which of the stream's predicates hold for its new bits.
+     */
+    private void hold(int stream, int bits) {
+        final int[] predicates = mPredicates[stream];
+        final int[] holding = mHolding[stream];
+        int holds = 0;
+        for (int p : predicates) {
+            final int all = mAll[p];
+            if ((bits & all) == all && (bits & mClear[p]) == 0) {
+                holding[holds++] = p;
+            }
+        }
+        mHolds[stream] = holds;
+    }
+
+    /**
+     * Takes gesture g by rule r to its next state, and reports the gesture if the rule says to.
+     *
+     * @return false if the listener wants the rest of the event skipped
+     */
+    private boolean move(int g, int r, long now) {
+        final Gesture gesture = mGestures[g];
+        final int[] rules = gesture.mRules;
+        // the rules it's leaving that wait come out of their heaps, to keep those small
+        for (int w = gesture.mFirst[mState[g]], end = gesture.mFirst[mState[g] + 1]; w < end; w += Gesture.RULE) {
+            final int e = mBase[g] + w / Gesture.RULE;
+            if (mAt[e] >= 0 && Gesture.minDwell(rules, w) != 0) {
+                mSchedules[mEntryPredicate[e]].remove(e);
+            }
+        }
+        mState[g] = Gesture.next(rules, r);
+        mEntered[g] = now;
+        schedule(g, now);
+        final int report = Gesture.report(rules, r);
+        return (report == Gesture.NONE || !mListener.kineticRecognized(report));
+    }
+
+    /**
+     * Puts the rules of gesture g's current state in with their predicates, due when it will have dwelt long enough for
+     *  each; except those it has already dwelt too long for.  A rule with no min dwell goes in its predicate's ready list,
+     *  where a leftover from a state the gesture has left stays until it's next looked at, or until the gesture comes back
+     *  and it's due again; that's cheaper than finding it to take it out.
+     */
+    private void schedule(int g, long now) {
+        final Gesture gesture = mGestures[g];
+        final int[] rules = gesture.mRules;
+        final int dwell = dwell(g, now);
+        for (int r = gesture.mFirst[mState[g]], end = gesture.mFirst[mState[g] + 1]; r < end; r += Gesture.RULE) {
+            if (dwell <= Gesture.maxDwell(rules, r)) {
+                final int e = mBase[g] + r / Gesture.RULE;
+                // one move per event, so no sooner than the next one
+                mDue[e] = Math.max(mEntered[g] + Gesture.minDwell(rules, r) * MSEC, now + 1);
+                if (Gesture.minDwell(rules, r) == 0) {
+                    mSchedules[mEntryPredicate[e]].ready(e);
+                } else {
+                    mSchedules[mEntryPredicate[e]].set(e);
+                }
+            }
+        }
+    }
+
+    private int dwell(int g, long now) {
+        return (int) Math.max(0, Math.min((now - mEntered[g]) / MSEC, Gesture.FOREVER));
+    }
+
+    /**
+     * One predicate's entries: those with a min dwell in a binary heap, soonest mDue first, and those without in a list,
+     *  since they're all due by the next event.  Each entry is in at most once, and it keeps track of where each one is, so
+     *  that an entry can be moved to its place for a new mDue, or taken out.  An entry is only ever with its own predicate,
+     *  so the schedules share the arrays of due times and places.
+     */
+    private static class Schedule {
+        private final long[] mDue;
+        private final int[] mHeap;
+        private final int[] mAt;
+        private int mSize = 0;
+        final int[] mReady;
+        int mReadySize = 0;
+
+        Schedule(long[] due, int[] at, int capacity) {
+            mDue = due;
+            mAt = at;
+            mHeap = new int[capacity];
+            mReady = new int[capacity];
+        }
+
+        void clear() {
+            while (mSize > 0) {
+                mAt[mHeap[--mSize]] = -1;
+            }
+            while (mReadySize > 0) {
+                mAt[mReady[--mReadySize]] = -1;
+            }
+        }
+
+        /**
+         * Puts e in the ready list, if it isn't there already; there, its mDue only says whether it's from this event.
+         */
+        void ready(int e) {
+            if (mAt[e] < 0) {
+                mAt[e] = mReadySize;
+                mReady[mReadySize++] = e;
+            }
+        }
+
+        void unready(int at) {
+            mAt[mReady[at]] = -1;
+            final int last = mReady[--mReadySize];
+            if (at < mReadySize) {
+                mReady[at] = last;
+                mAt[last] = at;
+            }
+        }
+
+        boolean due(long now) {
+            return mSize > 0 && mDue[mHeap[0]] <= now;
+        }
+
+        /**
+         * Puts e in, or if it's in already, moves it to its place for its new mDue.
+         */
+        void set(int e) {
+            final int at = mAt[e];
+            if (at < 0) {
+                up(mSize++, e);
+            } else if (at > 0 && mDue[e] < mDue[mHeap[(at - 1) / 2]]) {
+                up(at, e);
+            } else {
+                down(at, e);
+            }
+        }
+
+        void remove(int e) {
+            final int at = mAt[e];
+            mAt[e] = -1;
+            final int last = mHeap[--mSize];
+            if (at < mSize) {
+                if (at > 0 && mDue[last] < mDue[mHeap[(at - 1) / 2]]) {
+                    up(at, last);
+                } else {
+                    down(at, last);
+                }
+            }
+        }
+
+        int take() {
+            final int first = mHeap[0];
+            mAt[first] = -1;
+            final int last = mHeap[--mSize];
+            if (mSize > 0) {
+                down(0, last);
+            }
+            return first;
+        }
+
+        private void up(int at, int e) {
+            while (at > 0) {
+                final int parent = (at - 1) / 2;
+                if (mDue[mHeap[parent]] <= mDue[e]) {
+                    break;
+                }
+                place(at, mHeap[parent]);
+                at = parent;
+            }
+            place(at, e);
+        }
+
+        private void down(int at, int e) {
+            while (true) {
+                int child = 2 * at + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && mDue[mHeap[child + 1]] < mDue[mHeap[child]]) {
+                    child++;
+                }
+                if (mDue[e] <= mDue[mHeap[child]]) {
+                    break;
+                }
+                place(at, mHeap[child]);
+                at = child;
+            }
+            place(at, e);
+        }
+
+        private void place(int at, int e) {
+            mHeap[at] = e;
+            mAt[e] = at;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.textuality.sensplore;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Gets results from the sensor thread to the UI thread through a single slot, without locking.  The sensor thread stores its
+ *  latest result in the subclass's volatile fields and calls publish(); the UI thread gets deliver() once, however many
+ *  results were published in the meantime, and sees the latest.  So a slow frame never backs up a queue of stale readings,
+ *  and the sensor thread never waits for the UI.
+ */
+public abstract class Handoff implements Runnable {
+
+    private final Handler mMain = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mPending = new AtomicBoolean(false);
+    private final DispatchStats mStats;
+    private volatile long mPublished;
+
+    public Handoff(DispatchStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Called on the sensor thread, after storing the result.
+     */
+    protected void publish() {
+        if (mPending.compareAndSet(false, true)) {
+            mPublished = System.nanoTime();
+            mMain.post(this);
+        }
+    }
+
+    /**
+     * Called on the UI thread with the latest result.
+     */
+    protected abstract void deliver();
+
+    @Override
+    public void run() {
+        // clear first, so that anything published from here on gets its own delivery
+        mPending.set(false);
+        final long started = System.nanoTime();
+        deliver();
+        mStats.handedOff(started - mPublished, System.nanoTime() - started);
+    }
+}
@@ -1,11 +1,21 @@
 package com.textuality.sensplore;
 
 public interface KineticListener {
-    
+
+    // the gestures; here rather than in Kinetics, so that Gesture and Replay can use them with no Android around
+    public static final int FLIP_UP = 0;
+    public static final int FLIP_DOWN = 1;
+    public static final int NOW_FACE_UP = 2;
+    public static final int NOW_FACE_DOWN = 3;
+    public static final int SHAKE = 4;
+    public static final int TWIST = 5;
+    public static final int TAP = 6;
+    public static final int PICK_UP = 7;
+
     /**
      * Called by Kinetics.start to report detecting a kinetic gesture
      * 
-     * @param gesture One of the public int values from the Kinetics class
+     * @param gesture One of the public int values above, which Kinetics has too
      * @return true if the kinetic has been handled, and the Kinetics listener should stop listening
      */
     public boolean kineticRecognized(int gesture);
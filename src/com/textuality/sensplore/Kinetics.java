@@ -1,191 +1,144 @@
 package com.textuality.sensplore;
 
-import java.util.ArrayList;
-
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.util.Log;
 
+/**
+ * Recognizes gestures with a GestureEngine on Orientation's sensor thread, and reports them to the KineticListener on the UI
+ *  thread.  As soon as the engine recognizes something it pauses, dropping events, so there's never more than one report on
+ *  its way; if the listener wants more, the engine is reset and resumes.  Pausing is a flag the sensor thread checks, so the
+ *  subscriptions last from start() to stop() and a stream of gestures costs no re-registration.
+ *
+ * The gestures are defined in sensor time, so the angle and acceleration streams can run at any rate: slower saves power,
+ *  faster notices the end of a gesture sooner.  A RateController runs them slow while the device is still.
+ */
 public class Kinetics {
 
-    public static final int FLIP_UP = 0;
-    public static final int FLIP_DOWN = 1;
-    public static final int NOW_FACE_UP = 2;
-    public static final int NOW_FACE_DOWN = 3;
-
-    private static final double THRESHOLD_ANGLE = Math.toRadians(5.0);
-    private static final int THRESHOLD_MOVING_DURATION = 2;
-    private static final int THRESHOLD_REST_DURATION = 4;
-
-    private static final int FACING_UNKNOWN = 0;
-    private static final int FACING_UP = 1;
-    private static final int FACING_DOWN = 2;
-    private int mWhichWayUp = FACING_UNKNOWN;
+    public static final int FLIP_UP = KineticListener.FLIP_UP;
+    public static final int FLIP_DOWN = KineticListener.FLIP_DOWN;
+    public static final int NOW_FACE_UP = KineticListener.NOW_FACE_UP;
+    public static final int NOW_FACE_DOWN = KineticListener.NOW_FACE_DOWN;
+    public static final int SHAKE = KineticListener.SHAKE;
+    public static final int TWIST = KineticListener.TWIST;
+    public static final int TAP = KineticListener.TAP;
+    public static final int PICK_UP = KineticListener.PICK_UP;
 
     private final KineticListener mCustomer;
-    private final SensorManager mManager;
-    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
-    private Flipper mFlipper = new Flipper();
-
-    private final static int STATE_AT_REST = 0;
-    private final static int STATE_MOVING_FORWARD = 1;
-    private final static int STATE_MOVING_BACKWARD = 2;
-    private static int mState;
-    private static int mAngleDuration;
+    private final Orientation mOrientation;
+    private final KineticHandoff mHandoff;
+    private final RateController mRates;
+    private final int mRate;
+    private boolean mRunning = false;
+
+    // the gate; the sensor thread closes it on recognizing a gesture, and the UI thread opens it
+    private volatile boolean mPaused = true;
+    private volatile boolean mReset = false;
+    private final GestureEngine mDetector = new GestureEngine(new KineticListener() {
+        @Override
+        public boolean kineticRecognized(int kinetic) {
+            // on the sensor thread
+            mPaused = true;
+            mHandoff.send(kinetic, Latency.timestamp(), Latency.KINETICS.worked());
+            return true;
+        }
+    }, Gesture.all());
+    private final SampleSink mGate = new SampleSink() {
+        @Override
+        public void sample(int type, long timestamp, float[] values) {
+            if (mPaused) {
+                return;
+            }
+            if (mReset) {
+                mReset = false;
+                mDetector.reset();
+            }
+            mDetector.sample(type, timestamp, values);
+        }
+    };
 
     public Kinetics(Context context, KineticListener listener) {
+        this(context, listener, SensorManager.SENSOR_DELAY_GAME);
+    }
+
+    /**
+     * @param rate for the angle and acceleration streams, as for SensorManager.registerListener
+     */
+    public Kinetics(Context context, KineticListener listener, int rate) {
         mCustomer = listener;
-        mManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mRate = rate;
+        mOrientation = Orientation.get(context);
+        mHandoff = new KineticHandoff(mOrientation.dispatchStats());
+        mRates = new RateController("Kinetics", mOrientation, mGate);
     }
 
     public void start() {
-        Sensor rvSensor = mManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-        Sensor gSensor = mManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
-        mState = STATE_AT_REST;
-        mAngleDuration = 0;
-        mManager.registerListener(getListener(), rvSensor, SensorManager.SENSOR_DELAY_GAME);
-        mManager.registerListener(getListener(), gSensor, SensorManager.SENSOR_DELAY_NORMAL);
-        mWhichWayUp = FACING_UNKNOWN;
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        resume();
+        mRates.subscribe(Trace.TYPE_ANGLE_CHANGE, mRate);
+        mRates.subscribe(Sensor.TYPE_GRAVITY, SensorManager.SENSOR_DELAY_NORMAL);
+        mRates.subscribe(Sensor.TYPE_LINEAR_ACCELERATION, mRate);
     }
 
     public void stop() {
-        for (Listener listener : mListeners) {
-            mManager.unregisterListener(listener);
+        if (!mRunning) {
+            return;
         }
+        mRunning = false;
+        mPaused = true;
+        mRates.stop();
+        mRates.log();
     }
 
-    private void send(int kinetic) {
-        stop();
-        if (!mCustomer.kineticRecognized(kinetic)) {
-            start();
-        }
+    /**
+     * Starts recognizing afresh with the next event.
+     */
+    private void resume() {
+        mReset = true;     // before opening the gate, so the sensor thread sees it
+        mPaused = false;
     }
 
-    private Listener getListener() {
-        Listener listener = new Listener();
-        mListeners.add(listener);
-        return listener;
+    /**
+     * @return events, rate switches and time at each rate since the last stop()
+     */
+    public RateController rates() {
+        return mRates;
     }
 
-    private class Listener implements SensorEventListener {
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        }
-
-        @Override
-        public void onSensorChanged(SensorEvent event) {
-            switch (event.sensor.getType()) {
-            case Sensor.TYPE_ROTATION_VECTOR:
-                handleRotation(event);
-                break;
-            case Sensor.TYPE_GRAVITY:
-                handleGravity(event);
-                break;
-            }
+    private void send(int kinetic, long timestamp, long worked) {
+        if (!mRunning) {
+            return;    // stopped while the gesture was on its way
         }
-    }
-
-    private void handleGravity(SensorEvent event) {
-        boolean facingUp = (event.values[2] > 8.0);      // x,y,z
-        boolean facingDown = (event.values[2] < -8.0);
-        if (facingUp) {
-            if (mWhichWayUp != FACING_UP) {
-                send(NOW_FACE_UP);
-            }
-            mWhichWayUp = FACING_UP;
-        } else if (facingDown) {
-            if (mWhichWayUp != FACING_DOWN) {
-                send(NOW_FACE_DOWN);
-            }
-            mWhichWayUp = FACING_DOWN;
+        Latency.KINETICS.delivered(timestamp, worked);
+        if (mCustomer.kineticRecognized(kinetic)) {
+            stop();
         } else {
-            mWhichWayUp = FACING_UNKNOWN;
+            resume();
         }
     }
 
-    private void handleRotation(SensorEvent event) {
-        final float[] last = mFlipper.last(), next = mFlipper.next();
-        mFlipper.flip();
-        SensorManager.getRotationMatrixFromVector(next, event.values);
-        if (last == null) {
-            return;
-        }
+    private class KineticHandoff extends Handoff {
+        private volatile int mKinetic;
+        private volatile long mTimestamp;
+        private volatile long mWorked;
 
-        final float[] values = new float[3];
-        SensorManager.getAngleChange(values, next, last);
-        final double deltaX = values[1]; // [z,x,y]
-        final boolean plusX = (deltaX > THRESHOLD_ANGLE), minusX = (deltaX < -THRESHOLD_ANGLE);
-
-        switch (mState) {
-        case STATE_AT_REST:
-            if (mAngleDuration < THRESHOLD_REST_DURATION) {
-                mAngleDuration++;    // ignore first few events when arriving at rest; stabilizing after a gesture
-            } else if (minusX) {
-                mState = STATE_MOVING_FORWARD;
-                mAngleDuration = 1;
-            } else if (plusX) {
-                mState = STATE_MOVING_BACKWARD;
-                mAngleDuration = 1;
-            } else {
-                mAngleDuration++;
-            }
-            break;
-
-        case STATE_MOVING_BACKWARD:
-            if (plusX) {
-                mAngleDuration++;
-            } else {
-                if (mAngleDuration > THRESHOLD_MOVING_DURATION)
-                    send(FLIP_DOWN);
-                mState = STATE_AT_REST;
-                mAngleDuration = 1;
-            }
-            break;
-
-        case STATE_MOVING_FORWARD:
-            if (minusX) {
-                mAngleDuration++;
-            } else {
-                if (mAngleDuration > THRESHOLD_MOVING_DURATION) {
-                    send(FLIP_UP);
-                }
-                mState = STATE_AT_REST;
-                mAngleDuration = 1;
-            }
-            break;
+        public KineticHandoff(DispatchStats stats) {
+            super(stats);
         }
 
-    }
-
-    /**
-     * There are a few places in sensor-land where you get the delta of two 9x9 float[] matrices. This pre-allocates two and 
-     *  flips them back and forth between "next" and "last", so you dont have to keep allocating new ones.
-     */
-    private class Flipper {
-        private final float[] mR1 = new float[9], mR2 = new float[9];
-        private final float[][] mR = { mR1,  mR2 };
-        private int mLast = -1;
-
-        public float[] last() {
-            if (mLast == -1) {
-                mLast = 0;
-                return null;
-            } else {
-                return mR[mLast];
-            }
-        }
-
-        public float[] next() {
-            return mR[mLast ^ 1];
+        public void send(int kinetic, long timestamp, long worked) {
+            mKinetic = kinetic;
+            mTimestamp = timestamp;
+            mWorked = worked;
+            publish();
         }
 
-        public void flip() {
-            mLast ^= 1;
+        @Override
+        protected void deliver() {
+            Kinetics.this.send(mKinetic, mTimestamp, mWorked);
         }
     }
-
-}
\ No newline at end of file
+}
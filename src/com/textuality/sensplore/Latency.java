@@ -0,0 +1,198 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Where the time goes between a sensor event happening and the user seeing the result, stage by stage, in LatencyHistograms:
+ *
+ *   sensor   SensorEvent.timestamp to Orientation's callback; shared by everything
+ *   filter   callback to the reading being worked out: TiltMeter's filtered value, or the gesture recognized
+ *   handoff  from there to the listener, on the UI thread
+ *   frame    from there to the frame that shows it; Tilt only, drawn by TiltView
+ *   total    SensorEvent.timestamp to the frame, or to the listener if there's no frame
+ *
+ * Each pipeline, TILT and KINETICS, carries the timestamps of the reading it's handing over alongside it; recording is a few
+ *  arithmetic operations and allocates nothing, so it's always on.
+ *
+ * SensorEvent.timestamp is meant to be in the elapsedRealtimeNanos() timebase, but some older devices use another; if it's
+ *  more than CLOCK_SLOP away from now, the sensor and total stages aren't recorded and clockMismatches() says so.
+ */
+public class Latency {
+
+    private static final long CLOCK_SLOP = 60000000000L;   // a minute; batched events can be seconds old
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    public static final Latency TILT = new Latency("Tilt", true);
+    public static final Latency KINETICS = new Latency("Kinetics", false);
+
+    private static final LatencyHistogram sSensor = new LatencyHistogram("sensor");
+    private static volatile long sClockMismatches = 0;
+
+    // sensor thread only: the event being delivered
+    private static long sTimestamp = UNKNOWN;
+    private static long sCallback = 0;
+
+    private final String mName;
+    private final boolean mFrames;
+    private final LatencyHistogram mFilter;
+    private final LatencyHistogram mHandoff;
+    private final LatencyHistogram mFrame;
+    private final LatencyHistogram mTotal;
+
+    // UI thread only: the reading delivered and not yet drawn
+    private long mPendingTimestamp = UNKNOWN;
+    private long mPendingDelivered = 0;
+    private boolean mPending = false;
+
+    private Latency(String name, boolean frames) {
+        mName = name;
+        mFrames = frames;
+        mFilter = new LatencyHistogram(name + " filter");
+        mHandoff = new LatencyHistogram(name + " handoff");
+        mFrame = frames ? new LatencyHistogram(name + " frame") : null;
+        mTotal = new LatencyHistogram(name + " total");
+    }
+
+    /**
+     * @return nanoseconds, in the timebase SensorEvent.timestamp is meant to use
+     */
+    public static long now() {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) ? SystemClock.elapsedRealtimeNanos() :
+                System.nanoTime();
+    }
+
+    /**
+     * On the sensor thread, at the start of each callback.
+     */
+    public static void callback(long timestamp) {
+        final long now = now();
+        final long latency = now - timestamp;
+        if (latency < 0 || latency > CLOCK_SLOP) {
+            sClockMismatches++;
+            sTimestamp = UNKNOWN;
+        } else {
+            sSensor.record(latency);
+            sTimestamp = timestamp;
+        }
+        sCallback = now;
+    }
+
+    /**
+     * On the sensor thread, when the pipeline has its reading for the current event.
+     *
+     * @return when that was; hand it over along with timestamp()
+     */
+    public long worked() {
+        final long now = now();
+        mFilter.record(now - sCallback);
+        return now;
+    }
+
+    /**
+     * @return the current event's SensorEvent.timestamp, or UNKNOWN if it's in the wrong timebase
+     */
+    public static long timestamp() {
+        return sTimestamp;
+    }
+
+    /**
+     * On the UI thread, as the reading reaches the listener.
+     *
+     * @param timestamp and worked, as they were on the sensor thread
+     */
+    public void delivered(long timestamp, long worked) {
+        final long now = now();
+        mHandoff.record(now - worked);
+        if (mFrames) {
+            mPendingTimestamp = timestamp;
+            mPendingDelivered = now;
+            mPending = true;
+        } else if (timestamp != UNKNOWN) {
+            mTotal.record(now - timestamp);
+        }
+    }
+
+    /**
+     * On the UI thread, as a frame is drawn; counts only if there's a reading it's the first to show.
+     */
+    public void drawn() {
+        if (!mPending) {
+            return;
+        }
+        mPending = false;
+        final long now = now();
+        mFrame.record(now - mPendingDelivered);
+        if (mPendingTimestamp != UNKNOWN) {
+            mTotal.record(now - mPendingTimestamp);
+        }
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * @return sensor, then filter/handoff/frame/total for each pipeline
+     */
+    public static LatencyHistogram[] histograms() {
+        return new LatencyHistogram[] {
+            sSensor,
+            TILT.mFilter, TILT.mHandoff, TILT.mFrame, TILT.mTotal,
+            KINETICS.mFilter, KINETICS.mHandoff, KINETICS.mTotal
+        };
+    }
+
+    public static long clockMismatches() {
+        return sClockMismatches;
+    }
+
+    /**
+     * Not synchronized with recording, so an event in flight may survive it.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms()) {
+            histogram.reset();
+        }
+        sClockMismatches = 0;
+    }
+
+    /**
+     * @return a table of count and p50/p99/max in msec, one line per stage
+     */
+    public static String summary() {
+        final StringBuilder s = new StringBuilder();
+        s.append(String.format("%-24s %7s  %8s %8s %8s\n", "msec", "count", "p50", "p99", "max"));
+        for (LatencyHistogram histogram : histograms()) {
+            s.append(histogram.summary()).append('\n');
+        }
+        if (sClockMismatches > 0) {
+            s.append(sClockMismatches).append(" events had timestamps in another timebase\n");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Writes the summary, then each histogram's buckets.
+     */
+    public static void dump(File file) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        try {
+            out.print(summary());
+            for (LatencyHistogram histogram : histograms()) {
+                out.println();
+                histogram.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("couldn't write " + file);
+        }
+    }
+}
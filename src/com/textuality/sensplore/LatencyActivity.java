@@ -0,0 +1,77 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Debug screen for Latency: p50/p99/max for each stage, refreshed every second while it's showing, with buttons to save the
+ *  histograms next to the capture files and to start them over.  Run Tilt or Kinetics first to have something to look at.
+ */
+public class LatencyActivity extends Activity {
+
+    private static final long REFRESH_MSEC = 1000;
+
+    private TextView mList;
+    private final Handler mHandler = new Handler();
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            mList.setText(Latency.summary());
+            mHandler.postDelayed(this, REFRESH_MSEC);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.latency);
+        mList = (TextView) findViewById(R.id.latency_list);
+        findViewById(R.id.latency_dump).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dump();
+            }
+        });
+        findViewById(R.id.latency_reset).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Latency.reset();
+                mList.setText(Latency.summary());
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mRefresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    private void dump() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+        File file = new File(Sensplore.filename().getParentFile(), "latency-" + df.format(new Date()) + ".txt");
+        String message;
+        try {
+            Latency.dump(file);
+            message = "Saved " + file;
+        } catch (IOException e) {
+            message = "Couldn't save: " + e.getMessage();
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+}
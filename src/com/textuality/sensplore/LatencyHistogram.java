@@ -0,0 +1,134 @@
+package com.textuality.sensplore;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of durations, laid out the way HdrHistogram does it: values in microseconds, counted exactly up to
+ *  2 * SUB_BUCKETS, and above that in buckets that double in width with each power of two, SUB_BUCKETS of them per power, so
+ *  every count is within 1/SUB_BUCKETS (about 3%) of the value recorded.  It covers up to about 76 hours in 1088 longs, and
+ *  record() is a few shifts and an increment: no allocation, no locking, so it can be left on.
+ *
+ * One thread records; others may read while it does, and see counts that are a little stale or, between record() and the
+ *  reading, out of step with each other by an event or two; that's fine for a debug screen.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;            // per power of two
+    private static final int LINEAR = 2 * SUB_BUCKETS;                // exact below this
+    private static final int MAX_SHIFT = 32;
+    private static final int BUCKETS = LINEAR + MAX_SHIFT * SUB_BUCKETS;
+    private static final long MICROS = 1000;
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKETS];
+    private long mTotal = 0;
+    private long mSum = 0;      // microseconds
+    private long mMax = 0;      // nanoseconds, exactly
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * @param nanos negative values are counted as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final long micros = nanos / MICROS;
+        mCounts[bucket(micros)]++;
+        mSum += micros;
+        if (nanos > mMax) {
+            mMax = nanos;
+        }
+        mTotal++;
+    }
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        final int shift = 64 - Long.numberOfLeadingZeros(micros) - (SUB_BITS + 1);   // leaves the top SUB_BITS + 1 bits
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (micros >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the middle of the bucket, in microseconds
+     */
+    private static long value(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        final int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        final long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return (top << shift) + (1L << (shift - 1));
+    }
+
+    public long count() {
+        return mTotal;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return nanoseconds, to the precision of the buckets; 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        final long total = mTotal;
+        if (total == 0) {
+            return 0;
+        }
+        final long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= wanted) {
+                return Math.min(value(i) * MICROS, mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public long max() {
+        return mMax;
+    }
+
+    public long mean() {
+        final long total = mTotal;
+        return (total == 0) ? 0 : mSum * MICROS / total;
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotal = mSum = mMax = 0;
+    }
+
+    /**
+     * @return one line: name, count, and p50/p99/max in msec
+     */
+    public String summary() {
+        return String.format("%-24s %7d  %8.2f %8.2f %8.2f", mName, mTotal, percentile(50) / 1e6, percentile(99) / 1e6,
+                mMax / 1e6);
+    }
+
+    /**
+     * Writes the summary and then every bucket that has anything in it, as "microseconds,count", so it can be plotted.
+     */
+    public void write(PrintStream out) {
+        out.println(summary());
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mCounts[i] > 0) {
+                out.println(value(i) + "," + mCounts[i]);
+            }
+        }
+    }
+}
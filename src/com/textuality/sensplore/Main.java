@@ -36,5 +36,11 @@ public class Main extends Activity {
                 startActivity(new Intent(Main.this, FlipActivity.class));
             }
         });
+        findViewById(R.id.goto_latency).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(Main.this, LatencyActivity.class));
+            }
+        });
      }
 }
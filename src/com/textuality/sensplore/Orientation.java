@@ -0,0 +1,392 @@
+package com.textuality.sensplore;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * The one place the app listens to the sensors.  Each hardware sensor is registered once, at the fastest rate any subscriber
+ *  has asked for, and each event is worked on once and handed to all the subscribers; so running Tilt and Kinetics together
+ *  costs one set of callbacks, not one per customer.
+ *
+ * Besides the raw hardware streams, there's a derived one, Trace.TYPE_ANGLE_CHANGE: the change in angle around the x/y/z
+ *  axes from one rotation-vector event to the next, computed once via the rotation matrix.  During a rotation-vector or
+ *  angle-change callback, rotationMatrix() holds the matrix for the current event.
+ *
+ * A subscriber can let its events be batched in the sensor hardware's FIFO, which saves waking the app processor for each
+ *  one; then they arrive in bursts, up to maxReportLatency late.  That needs KitKat; before that, events are always live.
+ *  flush() gets whatever's waiting in the FIFO delivered.  batchStats() says how well it's working.
+ *
+ * The callbacks run on a dedicated high-priority thread, not the main one, so they don't compete with drawing and layout,
+ *  and a slow frame doesn't hold up the sensors.  Subscribers that need to touch the UI get their results there with a
+ *  Handoff; dispatchStats() says how much main-thread time that saves and how much latency it adds.
+ *
+ * There's one per process, got with get().  A sensor is unregistered when its last subscriber goes away.  Subscribing and
+ *  unsubscribing work from any thread, including from inside a callback; once unsubscribe() returns, the sink won't be
+ *  called again except perhaps for an event being delivered on the sensor thread at that moment.
+ */
+public class Orientation {
+
+    private static Orientation sShared = null;
+
+    private final SensorManager mManager;
+    private final Handler mHandler;
+    private final Listener mListener;
+
+    // changed only under the Orientation lock; the sensor thread reads mLookup, which is replaced rather than changed
+    private final ArrayList<Stream> mStreams = new ArrayList<Stream>();
+    private volatile Stream[] mLookup = new Stream[0];
+
+    // sensor thread only, except that anyone can ask for mAngles to be reset
+    private final AngleTracker mAngles = new AngleTracker();
+    private volatile boolean mResetAngles = false;
+    private final CostMeter mCost = new CostMeter("Orientation");
+    private final BatchStats mBatches = new BatchStats("Orientation");
+    private final DispatchStats mDispatch = new DispatchStats("Orientation");
+
+    // if a flush hasn't completed after this long, give up waiting
+    private static final long FLUSH_TIMEOUT = 2000;
+    private int mFlushing = 0;
+    private Runnable mFlushed = null;
+    private final Runnable mFlushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            flushed();
+        }
+    };
+
+    public static synchronized Orientation get(Context context) {
+        if (sShared == null) {
+            Context app = context.getApplicationContext();
+            sShared = new Orientation((SensorManager) app.getSystemService(Context.SENSOR_SERVICE));
+        }
+        return sShared;
+    }
+
+    private Orientation(SensorManager manager) {
+        mManager = manager;
+        HandlerThread thread = new HandlerThread("Orientation", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mListener = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) ? new FlushListener() : new Listener();
+    }
+
+    /**
+     * Subscribes for live delivery.
+     *
+     * @param type a Sensor type, or Trace.TYPE_ANGLE_CHANGE
+     * @param rate a SensorManager.SENSOR_DELAY_* value, or microseconds between events
+     * @return false if the device doesn't have the sensor
+     */
+    public boolean subscribe(int type, int rate, SampleSink sink) {
+        return subscribe(type, rate, 0, sink);
+    }
+
+    /**
+     * @param maxReportLatency in microseconds, how long events may wait in the FIFO; the sensor is batched only if every one
+     *  of its subscribers allows it, and then by the shortest latency asked for
+     * @return false if the device doesn't have the sensor
+     */
+    public synchronized boolean subscribe(int type, int rate, int maxReportLatency, SampleSink sink) {
+        final int hardware = (type == Trace.TYPE_ANGLE_CHANGE) ? Sensor.TYPE_ROTATION_VECTOR : type;
+        Stream stream = stream(hardware);
+        if (stream == null) {
+            Sensor sensor = mManager.getDefaultSensor(hardware);
+            if (sensor == null) {
+                return false;
+            }
+            stream = new Stream(sensor);
+            mStreams.add(stream);
+            mLookup = mStreams.toArray(new Stream[mStreams.size()]);
+        }
+        stream.add(new Subscription(type, rate, maxReportLatency, sink));
+        return true;
+    }
+
+    /**
+     * Changes the rate of the sink's subscription to a stream, without interrupting its delivery.  The sensor is
+     *  re-registered only if that changes the fastest rate anyone has asked for.
+     *
+     * @param type as given to subscribe()
+     */
+    public synchronized void setRate(int type, int rate, SampleSink sink) {
+        final Stream stream = stream((type == Trace.TYPE_ANGLE_CHANGE) ? Sensor.TYPE_ROTATION_VECTOR : type);
+        if (stream != null) {
+            stream.setRate(type, rate, sink);
+        }
+    }
+
+    /**
+     * Takes the sink off every stream it's subscribed to.
+     */
+    public synchronized void unsubscribe(SampleSink sink) {
+        for (int i = mStreams.size() - 1; i >= 0; i--) {
+            Stream stream = mStreams.get(i);
+            stream.remove(sink);
+            if (stream.mSubscriptions.isEmpty()) {
+                mStreams.remove(i);
+            }
+        }
+        mLookup = mStreams.toArray(new Stream[mStreams.size()]);
+        if (mStreams.isEmpty()) {
+            mCost.log();
+            mBatches.log();
+            mDispatch.log();
+        }
+    }
+
+    /**
+     * Has the sensors deliver everything waiting in their FIFOs, then runs done on the sensor thread, after the last of
+     *  those events has been delivered.  If nothing's batched, done runs after the events already queued for the sensor
+     *  thread.
+     */
+    public synchronized void flush(Runnable done) {
+        boolean batched = false;
+        for (Stream stream : mStreams) {
+            batched |= (stream.mLatency > 0);
+        }
+        if (!batched || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || !mManager.flush(mListener)) {
+            mHandler.post(done);
+            return;
+        }
+        // every sensor registered to the listener reports its flush, batched or not
+        mFlushing = mStreams.size();
+        mFlushed = done;
+        mHandler.postDelayed(mFlushTimeout, FLUSH_TIMEOUT);
+    }
+
+    private void flushed() {
+        final Runnable done;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushTimeout);
+            done = mFlushed;
+            mFlushed = null;
+            mFlushing = 0;
+        }
+        if (done != null) {
+            done.run();
+        }
+    }
+
+    /**
+     * @return wakeups/sec and batch sizes for everything delivered since the last log() or reset()
+     */
+    public BatchStats batchStats() {
+        return mBatches;
+    }
+
+    /**
+     * @return what running on the sensor thread has saved the main thread, and cost in latency
+     */
+    public DispatchStats dispatchStats() {
+        return mDispatch;
+    }
+
+    /**
+     * @return the rotation matrix for the rotation-vector event being delivered; only good for the duration of the callback
+     */
+    public float[] rotationMatrix() {
+        return mAngles.matrix();
+    }
+
+    private Stream stream(int type) {
+        for (int i = 0; i < mStreams.size(); i++) {
+            Stream stream = mStreams.get(i);
+            if (stream.mType == type) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return microseconds between events, so that rates can be compared
+     */
+    private static int period(int rate) {
+        switch (rate) {
+        case SensorManager.SENSOR_DELAY_FASTEST:
+            return 0;
+        case SensorManager.SENSOR_DELAY_GAME:
+            return 20000;
+        case SensorManager.SENSOR_DELAY_UI:
+            return 66667;
+        case SensorManager.SENSOR_DELAY_NORMAL:
+            return 200000;
+        default:
+            return rate;
+        }
+    }
+
+    private static class Subscription {
+        private final int mType;
+        private int mRate;    // changed only while holding the Orientation lock
+        private final int mLatency;
+        private final SampleSink mSink;
+        private volatile boolean mActive = true;
+
+        public Subscription(int type, int rate, int latency, SampleSink sink) {
+            mType = type;
+            mRate = rate;
+            mLatency = latency;
+            mSink = sink;
+        }
+    }
+
+    /**
+     * One hardware sensor and everyone who wants it.  The callback walks mDelivery, a copy of the subscriptions that's
+     *  replaced rather than changed, so subscribers can come and go while an event is being delivered.
+     */
+    private class Stream {
+        private final int mType;
+        private final Sensor mSensor;
+        private final ArrayList<Subscription> mSubscriptions = new ArrayList<Subscription>();
+        private volatile Subscription[] mDelivery = new Subscription[0];
+        private int mRate = -1;    // as registered
+        private int mLatency = 0;
+
+        public Stream(Sensor sensor) {
+            mSensor = sensor;
+            mType = sensor.getType();
+        }
+
+        public void add(Subscription subscription) {
+            mSubscriptions.add(subscription);
+            changed();
+        }
+
+        public void remove(SampleSink sink) {
+            boolean removed = false;
+            for (int i = mSubscriptions.size() - 1; i >= 0; i--) {
+                Subscription subscription = mSubscriptions.get(i);
+                if (subscription.mSink == sink) {
+                    subscription.mActive = false;
+                    mSubscriptions.remove(i);
+                    removed = true;
+                }
+            }
+            if (removed) {
+                changed();
+            }
+        }
+
+        public void setRate(int type, int rate, SampleSink sink) {
+            for (Subscription subscription : mSubscriptions) {
+                if (subscription.mSink == sink && subscription.mType == type) {
+                    subscription.mRate = rate;
+                }
+            }
+            changed();
+        }
+
+        /**
+         * Rebuilds the delivery list and re-registers the sensor if the fastest rate or shortest latency asked for has
+         *  changed.
+         */
+        private void changed() {
+            mDelivery = mSubscriptions.toArray(new Subscription[mSubscriptions.size()]);
+            int fastest = -1;
+            int latency = Integer.MAX_VALUE;
+            for (Subscription subscription : mSubscriptions) {
+                if (fastest == -1 || period(subscription.mRate) < period(fastest)) {
+                    fastest = subscription.mRate;
+                }
+                latency = Math.min(latency, subscription.mLatency);
+            }
+            if (fastest == -1) {
+                latency = 0;
+            }
+            if (fastest == mRate && latency == mLatency) {
+                return;
+            }
+            if (mRate == -1) {
+                if (mType == Sensor.TYPE_ROTATION_VECTOR) {
+                    mResetAngles = true;     // don't report the change across the gap since it was last registered
+                }
+            } else {
+                mManager.unregisterListener(mListener, mSensor);
+            }
+            mRate = fastest;
+            mLatency = latency;
+            if (mRate == -1) {
+                return;
+            }
+            if (mLatency > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mManager.registerListener(mListener, mSensor, mRate, mLatency, mHandler);
+            } else {
+                mManager.registerListener(mListener, mSensor, mRate, mHandler);
+            }
+        }
+
+        public void deliver(long timestamp, float[] values) {
+            float[] angles = null;
+            if (mType == Sensor.TYPE_ROTATION_VECTOR) {
+                if (mResetAngles) {
+                    mResetAngles = false;
+                    mAngles.reset();
+                }
+                angles = mAngles.update(values);
+            }
+            final Subscription[] delivery = mDelivery;
+            for (Subscription subscription : delivery) {
+                if (!subscription.mActive) {
+                    continue;
+                }
+                if (subscription.mType == mType) {
+                    subscription.mSink.sample(mType, timestamp, values);
+                } else if (angles != null) {
+                    subscription.mSink.sample(Trace.TYPE_ANGLE_CHANGE, timestamp, angles);
+                }
+            }
+        }
+    }
+
+    private class Listener implements SensorEventListener {
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            Latency.callback(event.timestamp);
+            final long started = System.nanoTime();
+            mBatches.event(started);
+            final int type = event.sensor.getType();
+            for (Stream stream : mLookup) {
+                if (stream.mType == type) {
+                    mCost.begin();
+                    stream.deliver(event.timestamp, event.values);
+                    mCost.end();
+                    break;
+                }
+            }
+            mDispatch.processed(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * SensorEventListener2 only exists from KitKat on, so it gets its own class.
+     */
+    private class FlushListener extends Listener implements SensorEventListener2 {
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            final boolean done;
+            synchronized (Orientation.this) {
+                done = (mFlushing > 0 && --mFlushing == 0);
+            }
+            if (done) {
+                flushed();
+            }
+        }
+    }
+}
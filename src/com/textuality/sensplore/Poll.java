@@ -1,41 +1,28 @@
 package com.textuality.sensplore;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 
 import android.app.Activity;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
-public class Poll extends Activity {
-
-    private static final String[] SENSOR_NAMES = {
-        "Accelerometer",
-        "Ambient temperature",
-        "Gravity",
-        "Gyroscope",
-        "Light",
-        "Linear acceleration",
-        "Magnetic field",
-        "Pressure",
-        "Proximity",
-        "Relative humidity",
-        "Rotation vector"
-    };
-    private static final int[] SENSOR_NUMBERS = {
-        Sensor.TYPE_ACCELEROMETER,
-        Sensor.TYPE_AMBIENT_TEMPERATURE,
-        Sensor.TYPE_GRAVITY,
-        Sensor.TYPE_GYROSCOPE,
-        Sensor.TYPE_LIGHT,
-        Sensor.TYPE_LINEAR_ACCELERATION,
-        Sensor.TYPE_MAGNETIC_FIELD,
-        Sensor.TYPE_PRESSURE,
-        Sensor.TYPE_PROXIMITY,
-        Sensor.TYPE_RELATIVE_HUMIDITY,
-        Sensor.TYPE_ROTATION_VECTOR
-    };
+/**
+ * Lists which of the sensors we care about the device has; "Analyze" then measures what each delivers with a PollAnalyzer,
+ *  and "Export" saves that table next to the capture files.
+ */
+public class Poll extends Activity implements PollListener {
+
+    private static final String[] SENSOR_NAMES = CaptureProfile.NAMES;
+    private static final int[] SENSOR_NUMBERS = CaptureProfile.TYPES;
     private static final HashMap<String, Integer> sSensors = new HashMap<String, Integer>();
 
     static {
@@ -44,9 +31,12 @@ public class Poll extends Activity {
         }
     }
     
+    private TextView mList;
+    private PollAnalyzer mAnalyzer;
+    private boolean mMeasured = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        // TODO Auto-generated method stub
         super.onCreate(savedInstanceState);
         setContentView(R.layout.poll);
         StringBuilder s = new StringBuilder();
@@ -56,6 +46,65 @@ public class Poll extends Activity {
             Sensor sensor = manager.getDefaultSensor(sSensors.get(sname));
             s.append((sensor == null) ? "NO" : "YES").append("\n");
         }
-        ((TextView) findViewById(R.id.poll_list)).setText(s);
+        mList = (TextView) findViewById(R.id.poll_list);
+        mList.setText(s);
+
+        mAnalyzer = new PollAnalyzer(manager, SENSOR_NAMES, SENSOR_NUMBERS, this);
+        findViewById(R.id.poll_analyze).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mMeasured = true;
+                mList.setText("Measuring, about " + mAnalyzer.seconds() + " seconds; leave the device still\n");
+                mAnalyzer.start();
+            }
+        });
+        findViewById(R.id.poll_export).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                export();
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // the main-thread runs would be meaningless in the background
+        mAnalyzer.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAnalyzer.close();
+    }
+
+    @Override
+    public void measured(RateStats stats, int done, int total) {
+        mList.setText(mAnalyzer.table() + done + " of " + total + "\n");
+    }
+
+    @Override
+    public void finished() {
+        mList.setText(mAnalyzer.table());
+    }
+
+    private void export() {
+        if (!mMeasured) {
+            Toast.makeText(this, "Analyze first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+        String device = (Build.MANUFACTURER + "-" + Build.MODEL).replaceAll("[^A-Za-z0-9-]", "_");
+        File file = new File(Sensplore.filename().getParentFile(),
+                "sensors-" + device + "-" + df.format(new Date()) + ".csv");
+        String message;
+        try {
+            mAnalyzer.export(file);
+            message = "Saved " + file;
+        } catch (IOException e) {
+            message = "Couldn't save: " + e.getMessage();
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
     }
 }
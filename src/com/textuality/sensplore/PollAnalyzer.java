@@ -0,0 +1,217 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Finds out what each sensor the device has actually delivers: subscribes to it at each SensorManager delay, once with the
+ *  callbacks on the main thread and once on a background thread, and measures each run in a RateStats.  One run at a time,
+ *  so they don't compete; each ignores its first WARMUP msec, while the sensor gets up to speed, and then measures for
+ *  WINDOW.
+ *
+ * Sensors that only report changes, like light and proximity, will show few events unless something changes.
+ *
+ * Start and stop on the UI thread; the PollListener hears about each run there.
+ */
+public class PollAnalyzer {
+
+    private static final long WARMUP = 500;     // msec
+    private static final long WINDOW = 3000;    // msec
+
+    private static final int[] DELAYS = {
+        SensorManager.SENSOR_DELAY_FASTEST,
+        SensorManager.SENSOR_DELAY_GAME,
+        SensorManager.SENSOR_DELAY_UI,
+        SensorManager.SENSOR_DELAY_NORMAL
+    };
+    private static final String[] DELAY_NAMES = { "FASTEST", "GAME", "UI", "NORMAL" };
+    private static final String[] THREAD_NAMES = { "main", "bg" };
+
+    private final SensorManager mManager;
+    private final PollListener mListener;
+    private final Handler mMain = new Handler();
+    private final Handler mBackground;
+    private final HandlerThread mThread;
+
+    // the runs, in order; sensors the device lacks are left out
+    private final List<Sensor> mSensors = new ArrayList<Sensor>();
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<RateStats> mResults = new ArrayList<RateStats>();
+    private RateStats mPending = null;
+    private int mRun = -1;
+    private boolean mRunning = false;
+
+    // written by the UI thread between runs, read by whichever thread the callbacks are on
+    private volatile RateStats mCurrent = null;
+
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            final RateStats stats = mCurrent;
+            if (stats != null) {
+                stats.event(event.timestamp, Latency.now(), Debug.threadCpuTimeNanos());
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Runnable mMeasure = new Runnable() {
+        @Override
+        public void run() {
+            measure();
+        }
+    };
+    private final Runnable mNext = new Runnable() {
+        @Override
+        public void run() {
+            next();
+        }
+    };
+
+    /**
+     * @param names and types, the sensors to try
+     */
+    public PollAnalyzer(SensorManager manager, String[] names, int[] types, PollListener listener) {
+        mManager = manager;
+        mListener = listener;
+        for (int i = 0; i < types.length; i++) {
+            Sensor sensor = manager.getDefaultSensor(types[i]);
+            if (sensor != null) {
+                mSensors.add(sensor);
+                mNames.add(names[i]);
+            }
+        }
+        mThread = new HandlerThread("PollAnalyzer", Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mBackground = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * @return how many runs there are altogether
+     */
+    public int runs() {
+        return mSensors.size() * DELAYS.length * THREAD_NAMES.length;
+    }
+
+    /**
+     * @return seconds it'll take
+     */
+    public long seconds() {
+        return runs() * (WARMUP + WINDOW) / 1000;
+    }
+
+    /**
+     * Starts over from the first run.
+     */
+    public void start() {
+        stop();
+        mResults.clear();
+        mRun = -1;
+        mRunning = true;
+        next();
+    }
+
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mMain.removeCallbacks(mMeasure);
+            mMain.removeCallbacks(mNext);
+            mCurrent = null;
+            mManager.unregisterListener(mSensorListener);
+        }
+    }
+
+    /**
+     * Stops, and lets the background thread go; it's no use after this.
+     */
+    public void close() {
+        stop();
+        mThread.quit();
+    }
+
+    private void next() {
+        mRun++;
+        if (mRun == runs()) {
+            mRunning = false;
+            mListener.finished();
+            return;
+        }
+        // background and main alternate fastest, so each pair of rows compares like with like
+        final int thread = mRun % THREAD_NAMES.length;
+        final int delay = (mRun / THREAD_NAMES.length) % DELAYS.length;
+        final int sensor = mRun / (THREAD_NAMES.length * DELAYS.length);
+        mCurrent = null;
+        mManager.registerListener(mSensorListener, mSensors.get(sensor), DELAYS[delay], (thread == 0) ? null : mBackground);
+        mPending = new RateStats(mNames.get(sensor), mSensors.get(sensor).getType(), DELAY_NAMES[delay],
+                THREAD_NAMES[thread]);
+        mMain.postDelayed(mMeasure, WARMUP);
+    }
+
+    private void measure() {
+        final RateStats stats = mPending;
+        if (mCurrent == null) {
+            mCurrent = stats;
+            mMain.postDelayed(mMeasure, WINDOW);
+            return;
+        }
+        mCurrent = null;
+        mManager.unregisterListener(mSensorListener);
+        mResults.add(stats);
+        mListener.measured(stats, mRun + 1, runs());
+        // post rather than call, so the UI gets to show the row before the next run starts
+        mMain.post(mNext);
+    }
+
+    /////////////////////////////////////////////////////
+    // Reporting
+
+    /**
+     * @return the device and a row per run so far, ready for a monospaced TextView
+     */
+    public String table() {
+        final StringBuilder s = new StringBuilder();
+        s.append(Build.MANUFACTURER).append(' ').append(Build.MODEL).append(", API ").append(Build.VERSION.SDK_INT)
+                .append('\n');
+        s.append(RateStats.header()).append('\n');
+        for (RateStats stats : mResults) {
+            s.append(stats.row()).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Writes the runs so far as CSV, with the device in a comment line at the top.
+     */
+    public void export(File file) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(file));
+        try {
+            out.println("# " + Build.MANUFACTURER + " " + Build.MODEL + ", API " + Build.VERSION.SDK_INT);
+            out.println(RateStats.csvHeader());
+            for (RateStats stats : mResults) {
+                out.println(stats.csvRow());
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("couldn't write " + file);
+        }
+    }
+}
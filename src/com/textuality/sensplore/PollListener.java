@@ -0,0 +1,17 @@
+package com.textuality.sensplore;
+
+public interface PollListener {
+
+    /**
+     * Called by PollAnalyzer on the UI thread as each run finishes.
+     *
+     * @param stats what the run measured
+     * @param done how many runs have finished, out of total
+     */
+    public void measured(RateStats stats, int done, int total);
+
+    /**
+     * Called by PollAnalyzer on the UI thread once every run has finished.
+     */
+    public void finished();
+}
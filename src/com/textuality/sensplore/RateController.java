@@ -0,0 +1,219 @@
+package com.textuality.sensplore;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+/**
+ * Sits between Orientation and a SampleSink, and runs the sink's streams at their full rate only while the device is moving.
+ *  Once nothing has moved for SETTLE nanoseconds, it drops them all to SLOW_RATE; the first event that shows movement puts
+ *  them back.  Changing rate keeps the subscriptions, so the sink sees one continuous stream, just sparser for a while;
+ *  anything that keeps its own time from the timestamps, like GestureEngine, carries on regardless.
+ *
+ * Movement is turning faster than THRESHOLD_TURNING, from angle changes or the direction of gravity, or linear acceleration
+ *  over THRESHOLD_ACCEL.  Streams that show neither, like the magnetometer, just follow along.
+ *
+ * It counts events, rate switches, and time at each rate in sensor time; log() reports them along with how many events a
+ *  fixed full rate would have taken, estimated from the rate actually seen while fast.  With ADAPTIVE false it stays at the
+ *  full rate and only counts, for a baseline.
+ *
+ * Subscribe and stop from any thread; sample() is called on the sensor thread, and the counters are safe to read anywhere.
+ */
+public class RateController implements SampleSink {
+
+    public static final boolean ADAPTIVE = true;
+
+    public static final int SLOW_RATE = SensorManager.SENSOR_DELAY_NORMAL;
+    private static final long SETTLE = 3000000000L;              // 3 seconds
+    private static final double THRESHOLD_TURNING = 0.35;         // radians/sec, about 20 degrees/sec
+    private static final double THRESHOLD_ACCEL = 0.8;            // m/s^2
+    private static final int MAX_STREAMS = 4;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final String mName;
+    private final Orientation mOrientation;
+    private final SampleSink mSink;
+
+    // changed only while holding the lock
+    private final int[] mTypes = new int[MAX_STREAMS];
+    private final int[] mRates = new int[MAX_STREAMS];
+    private int mStreams = 0;
+
+    // sensor thread only, except that stop() can ask for them to start over
+    private volatile boolean mRestart = false;
+    private boolean mFast = true;
+    private long mLastEvent = UNSET;
+    private long mLastMoved = UNSET;
+    private long mLastAngle = UNSET;
+    private long mLastGravity = UNSET;
+    private final float[] mGravity = new float[3];
+
+    // written on the sensor thread only
+    private volatile long mEvents = 0;
+    private volatile long mFastEvents = 0;
+    private volatile int mSwitches = 0;
+    private volatile long mFastNanos = 0;
+    private volatile long mSlowNanos = 0;
+
+    public RateController(String name, Orientation orientation, SampleSink sink) {
+        mName = name;
+        mOrientation = orientation;
+        mSink = sink;
+    }
+
+    /**
+     * Subscribes the sink, through this, to a stream at its full rate; it starts there.
+     *
+     * @return false if the device doesn't have the sensor
+     */
+    public synchronized boolean subscribe(int type, int rate) {
+        if (mStreams == MAX_STREAMS) {
+            throw new IllegalStateException(mName + ": no more than " + MAX_STREAMS + " streams");
+        }
+        if (!mOrientation.subscribe(type, rate, this)) {
+            return false;
+        }
+        mTypes[mStreams] = type;
+        mRates[mStreams] = rate;
+        mStreams++;
+        return true;
+    }
+
+    /**
+     * Unsubscribes from everything; subscribe() again to restart, at the full rate.
+     */
+    public synchronized void stop() {
+        mOrientation.unsubscribe(this);
+        mStreams = 0;
+        mRestart = true;
+    }
+
+    @Override
+    public void sample(int type, long timestamp, float[] values) {
+        if (mRestart) {
+            mRestart = false;
+            mFast = true;
+            mLastEvent = mLastMoved = mLastAngle = mLastGravity = UNSET;
+        }
+        if (mLastEvent != UNSET && timestamp > mLastEvent) {
+            if (mFast) {
+                mFastNanos += timestamp - mLastEvent;
+            } else {
+                mSlowNanos += timestamp - mLastEvent;
+            }
+        }
+        mLastEvent = timestamp;
+        mEvents++;
+        if (mFast) {
+            mFastEvents++;
+        }
+
+        if (moving(type, timestamp, values) || mLastMoved == UNSET) {
+            mLastMoved = timestamp;
+            if (!mFast) {
+                switchRate(true);
+            }
+        } else if (mFast && ADAPTIVE && timestamp - mLastMoved > SETTLE) {
+            switchRate(false);
+        }
+        mSink.sample(type, timestamp, values);
+    }
+
+    private boolean moving(int type, long timestamp, float[] values) {
+        switch (type) {
+        case Trace.TYPE_ANGLE_CHANGE: {
+            final long interval = (mLastAngle == UNSET) ? 0 : timestamp - mLastAngle;
+            mLastAngle = timestamp;
+            return interval > 0 && turning(values[0] * values[0] + values[1] * values[1] + values[2] * values[2], interval);
+        }
+        case Sensor.TYPE_GRAVITY: {
+            final long interval = (mLastGravity == UNSET) ? 0 : timestamp - mLastGravity;
+            mLastGravity = timestamp;
+            // for small turns, the angle between two gravity vectors is about the distance between them over their length
+            float distance = 0, length = 0;
+            for (int i = 0; i < 3; i++) {
+                final float difference = values[i] - mGravity[i];
+                distance += difference * difference;
+                length += values[i] * values[i];
+                mGravity[i] = values[i];
+            }
+            return interval > 0 && length > 0 && turning(distance / length, interval);
+        }
+        case Sensor.TYPE_LINEAR_ACCELERATION:
+            return values[0] * values[0] + values[1] * values[1] + values[2] * values[2] >
+                    THRESHOLD_ACCEL * THRESHOLD_ACCEL;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param squared the square of the angle turned, in radians
+     * @param interval nanoseconds it took
+     */
+    private static boolean turning(double squared, long interval) {
+        final double threshold = THRESHOLD_TURNING * (interval / 1e9);
+        return squared > threshold * threshold;
+    }
+
+    /**
+     * On the sensor thread; Orientation re-registers whatever sensors that changes.
+     */
+    private synchronized void switchRate(boolean fast) {
+        mFast = fast;
+        mSwitches++;
+        for (int i = 0; i < mStreams; i++) {
+            mOrientation.setRate(mTypes[i], fast ? mRates[i] : SLOW_RATE, this);
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // Counters
+
+    public long events() {
+        return mEvents;
+    }
+
+    public int switches() {
+        return mSwitches;
+    }
+
+    public long fastNanos() {
+        return mFastNanos;
+    }
+
+    public long slowNanos() {
+        return mSlowNanos;
+    }
+
+    /**
+     * @return how many events there would have been at the full rate all along, going by the rate seen while fast
+     */
+    public long fixedRateEvents() {
+        final long fastNanos = mFastNanos, slowNanos = mSlowNanos;
+        if (fastNanos == 0) {
+            return mEvents;
+        }
+        return Math.round(mFastEvents * ((double) (fastNanos + slowNanos) / fastNanos));
+    }
+
+    public void reset() {
+        mEvents = mFastEvents = 0;
+        mSwitches = 0;
+        mFastNanos = mSlowNanos = 0;
+    }
+
+    /**
+     * Logs the counters so far, and starts over.
+     */
+    public void log() {
+        if (mEvents > 0) {
+            final long fixed = fixedRateEvents();
+            Log.d(Sensplore.TAG, mName + ": " + mEvents + " events, " + mSwitches + " rate switches, " +
+                    String.format("%.1f", mFastNanos / 1e9) + " sec fast, " + String.format("%.1f", mSlowNanos / 1e9) +
+                    " sec slow; fixed rate would have been " + fixed + " events, " +
+                    String.format("%.0f", (fixed == 0) ? 0 : 100.0 * (fixed - mEvents) / fixed) + "% saved");
+        }
+        reset();
+    }
+}
@@ -0,0 +1,136 @@
+package com.textuality.sensplore;
+
+/**
+ * What one sensor delivered at one rate on one thread, for PollAnalyzer:
+ *
+ *   rate     events per second, from the event timestamps
+ *   jitter   the standard deviation of the intervals between event timestamps, and the longest interval
+ *   skew     how far each callback ran behind its event's timestamp, in the clock the timestamps are meant to use; a skew in
+ *             the seconds or hours means the sensor uses another timebase
+ *   cost     CPU time on the receiving thread per event, from one callback to the next; on the main thread it includes
+ *             whatever else the UI was doing
+ *
+ * event() is a few arithmetic operations and allocates nothing, so measuring doesn't disturb what's measured.
+ */
+public class RateStats {
+
+    private final String mSensor;
+    private final int mType;
+    private final String mDelay;
+    private final String mThread;
+
+    private long mEvents = 0;
+    private long mFirst;
+    private long mLast;
+    private double mMean = 0;       // of the intervals, nanoseconds
+    private double mSquares = 0;    // sum of squared differences from the mean, Welford's way
+    private long mMaxInterval = 0;
+    private double mSkewSum = 0;
+    private long mMaxSkew = Long.MIN_VALUE;
+    private long mFirstCpu;
+    private long mLastCpu;
+
+    public RateStats(String sensor, int type, String delay, String thread) {
+        mSensor = sensor;
+        mType = type;
+        mDelay = delay;
+        mThread = thread;
+    }
+
+    /**
+     * @param timestamp SensorEvent.timestamp
+     * @param now Latency.now() at the callback
+     * @param cpu Debug.threadCpuTimeNanos() at the callback
+     */
+    public void event(long timestamp, long now, long cpu) {
+        if (mEvents == 0) {
+            mFirst = timestamp;
+            mFirstCpu = cpu;
+        } else {
+            final long interval = timestamp - mLast;
+            final double difference = interval - mMean;
+            mMean += difference / mEvents;
+            mSquares += difference * (interval - mMean);
+            if (interval > mMaxInterval) {
+                mMaxInterval = interval;
+            }
+        }
+        mLast = timestamp;
+        mLastCpu = cpu;
+        final long skew = now - timestamp;
+        mSkewSum += skew;
+        if (skew > mMaxSkew) {
+            mMaxSkew = skew;
+        }
+        mEvents++;
+    }
+
+    public String sensor() {
+        return mSensor;
+    }
+
+    public long events() {
+        return mEvents;
+    }
+
+    /**
+     * @return events per second; 0 with fewer than two
+     */
+    public double rate() {
+        return (mEvents < 2 || mLast <= mFirst) ? 0 : (mEvents - 1) / ((mLast - mFirst) / 1e9);
+    }
+
+    public double meanInterval() {
+        return mMean / 1e6;
+    }
+
+    /**
+     * @return the standard deviation of the intervals, in msec
+     */
+    public double jitter() {
+        return (mEvents < 3) ? 0 : Math.sqrt(mSquares / (mEvents - 2)) / 1e6;
+    }
+
+    public double maxInterval() {
+        return mMaxInterval / 1e6;
+    }
+
+    public double meanSkew() {
+        return (mEvents == 0) ? 0 : mSkewSum / mEvents / 1e6;
+    }
+
+    public double maxSkew() {
+        return (mEvents == 0) ? 0 : mMaxSkew / 1e6;
+    }
+
+    /**
+     * @return microseconds of the receiving thread's CPU time per event
+     */
+    public double cost() {
+        return (mEvents < 2) ? 0 : (mLastCpu - mFirstCpu) / 1e3 / (mEvents - 1);
+    }
+
+    /////////////////////////////////////////////////////
+    // Reporting
+
+    public static String header() {
+        return String.format("%-14s %-7s %-4s %6s %7s %6s %7s %8s %8s %6s", "sensor", "delay", "thrd", "Hz", "ivl ms",
+                "jitter", "max ms", "skew ms", "max skew", "us/evt");
+    }
+
+    public String row() {
+        return String.format("%-14.14s %-7s %-4.4s %6.1f %7.2f %6.2f %7.1f %8.2f %8.2f %6.1f", mSensor, mDelay, mThread,
+                rate(), meanInterval(), jitter(), maxInterval(), meanSkew(), maxSkew(), cost());
+    }
+
+    public static String csvHeader() {
+        return "sensor,type,delay,thread,events,rate_hz,mean_interval_ms,jitter_ms,max_interval_ms,mean_skew_ms," +
+                "max_skew_ms,cpu_us_per_event";
+    }
+
+    public String csvRow() {
+        return mSensor + "," + mType + "," + mDelay + "," + mThread + "," + mEvents + "," +
+                String.format("%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.2f", rate(), meanInterval(), jitter(), maxInterval(),
+                        meanSkew(), maxSkew(), cost());
+    }
+}
@@ -0,0 +1,572 @@
+package com.textuality.sensplore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.AsyncTask;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs a Sensplore capture in the background, so that it can go on for hours and outlive the activity that started it.  The
+ *  service owns the sensor subscriptions, the CaptureStore the samples wait in, and the CaptureWriter that drains them into
+ *  a SegmentWriter's series of trace files; while it's recording it's a foreground service, with a notification that leads
+ *  back to Sensplore, so Android will kill nearly anything else first.
+ *
+ * Sensplore binds to it and drives it through the Recorder binder: start(), finish(), and the stats for the screen.  If the
+ *  activity is destroyed and created again, it binds again and finds the capture still going, with nothing lost, since none
+ *  of it was ever in the activity.  finish() drains the rings and exports the CSV here too, and Sensplore sends it off once
+ *  state() says FINISHED, then stops the service.
+ *
+ * The writer holds a partial wakelock only while it's draining the rings; the service never keeps the phone awake by itself.
+ *
+ * The samples also go through Features as they arrive, and each stream's latest feature vector is there for the screen; the
+ *  export writes them all out, from the trace, next to the CSV.
+ */
+public class RecorderService extends Service {
+
+    public static final int IDLE = 0;
+    public static final int STARTING = 1;
+    public static final int RECORDING = 2;
+    public static final int FINISHING = 3;
+    public static final int FINISHED = 4;
+
+    private static final String TAG = Sensplore.TAG;
+    private static final int NOTIFICATION = 1;
+
+    // when batching, how long samples may sit in the sensor FIFO before it wakes us; 5 seconds is 250 samples at GAME rate,
+    //  a small part of the ring, and the FIFO will report sooner if it fills up first
+    private static final int BATCH_LATENCY_US = 5000000;
+
+    private final Handler mHandler = new Handler();
+    private PowerManager.WakeLock mWakeLock = null;
+    private volatile int mState = IDLE;
+    private volatile Exception mFailure = null;
+
+    // the capture's settings
+    private CaptureProfile mProfile = CaptureProfile.CLASSIC;
+    private boolean mBatched = false;
+    private boolean mAligned = false;
+    private boolean mKeepTrace = false;
+    private File mOutputFile = null;
+
+    private long mStartedAt = 0;
+    private long mStartedUptime = 0;
+    private SensorManager mManager = null;
+    private Orientation mOrientation = null;
+    private final Collector mCollector = new Collector();
+    private CaptureStore mStore = null;
+    private ArrayList<int[]> mSubscriptions = null;
+    private SegmentWriter mSegments = null;
+    private CaptureWriter mWriter = null;
+
+    // each stream's latest feature vector, written on the sensor thread once a hop and read on the UI thread
+    private Features mFeatures = null;
+    private float[][] mLatest = null;
+    private boolean[] mHaveLatest = null;
+    private final FeatureListener mFeatureListener = new FeatureListener() {
+        @Override
+        public void features(int type, long timestamp, float[] vector) {
+            final int stream = mProfile.stream(type);
+            synchronized (mLatest) {
+                System.arraycopy(vector, 0, mLatest[stream], 0, vector.length);
+                mHaveLatest[stream] = true;
+            }
+        }
+    };
+
+    // working out linear acceleration, on the sensor thread
+    private boolean mDeriveLinear = false;
+    private final float[] mLinear = new float[3];
+    private final float[] mGravity = new float[3];
+    private boolean mHaveGravity = false;     // from the gravity sensor
+    private boolean mEstimating = false;      // from the low-pass filter
+    private final CostMeter mCost = new CostMeter("Sensplore");
+
+    // alpha is calculated as t / (t + dT).
+    // t is the low-pass filter's time-constant; it depends on what you want in your app. If you set it
+    //  to 1 second, it'll take about 1s for this code to "see" a change in of gravity. There is no "right"
+    //  answer, it's a trade-off between how "good" the gravity signal will be (ie: stable) and how fast it'll
+    //  respond.
+    // dT, the event delivery rate, i.e. frequency. This requires knowing what the SENSOR_DELAY_GAME value is;
+    //  20msec as of 2012/05
+    private static final float SENSOR_GAME_FREQUENCY = 0.02f;
+    private static final float TIME_CONSTANT = 0.2f;
+    private static final float mAlpha = TIME_CONSTANT / (TIME_CONSTANT + SENSOR_GAME_FREQUENCY);
+
+    // with the CSV aligned, a row every SENSOR_DELAY_GAME interval, so the angle changes keep their usual size
+    private static final long ALIGNED_PERIOD = 20000000;
+
+    // what's kept in the sensplore directory from earlier captures
+    private static final Retention RETENTION = new Retention(20, 1024L * 1024 * 1024, 30);
+
+    public class Recorder extends Binder {
+        public RecorderService service() {
+            return RecorderService.this;
+        }
+    }
+
+    private final Recorder mBinder = new Recorder();
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // started only so that it outlives Sensplore's binding; if the process goes, the rings went with it
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        PowerManager power = (PowerManager) getSystemService(POWER_SERVICE);
+        mWakeLock = power.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mState == RECORDING) {
+            // stopped without finishing; the writer still gets everything published so far, and the next capture's
+            //  Starter exports the CSV
+            mOrientation.unsubscribe(mCollector);
+            mWriter.finish();
+        }
+        mWakeLock.release();
+    }
+
+    /////////////////////////////////////////////////////
+    // Control stuff
+
+    /**
+     * Starts a capture, if there isn't one already.
+     *
+     * @param batched let the samples wait in the sensor FIFOs
+     * @param aligned export the CSV on a common timeline
+     * @param keepTrace keep the trace segments once the CSV is exported
+     */
+    public void start(CaptureProfile profile, boolean batched, boolean aligned, boolean keepTrace) {
+        if (mState != IDLE) {
+            return;
+        }
+        mState = STARTING;
+        mFailure = null;
+        mProfile = profile;
+        mBatched = batched;
+        mAligned = aligned;
+        mKeepTrace = keepTrace;
+        mStore = new CaptureStore(profile);
+        mFeatures = new Features(mFeatureListener, profile.types());
+        mLatest = new float[profile.streams()][mFeatures.length()];
+        mHaveLatest = new boolean[profile.streams()];
+        mManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        mSubscriptions = subscriptions();
+        startService(new Intent(this, RecorderService.class));
+        startForeground(NOTIFICATION, notification());
+        (new Starter()).execute();
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification notification() {
+        // Notification.Builder needs Honeycomb
+        Notification notification = new Notification(R.drawable.ic_launcher, getText(R.string.recording),
+                System.currentTimeMillis());
+        PendingIntent intent = PendingIntent.getActivity(this, 0, new Intent(this, Sensplore.class), 0);
+        notification.setLatestEventInfo(this, getText(R.string.recording), mProfile.name(), intent);
+        return notification;
+    }
+
+    /**
+     * Saves what it can of any capture a crash cut short, exports the CSV of any capture that ended without one, clears out
+     *  old captures, writes the trace header into the first segment, then starts recording
+     */
+    private class Starter extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                mOutputFile = Sensplore.filename();
+                final File directory = mOutputFile.getParentFile();
+                SegmentStore.recover(directory);
+                // that's not only the ones a crash cut short: a capture whose service was destroyed while it was
+                //  recording has whole segments, but never got as far as its CSV
+                for (String name : SegmentStore.captures(directory)) {
+                    exportRecovered(directory, name);
+                }
+                final int deleted = RETENTION.apply(directory, baseName());
+                if (deleted > 0) {
+                    Log.d(TAG, "Deleted " + deleted + " old captures");
+                }
+
+                Account[] accounts = AccountManager.get(RecorderService.this).getAccountsByType("com.google");
+                Trace.Header header = new Trace.Header();
+                header.mReportedBy = accounts[0].name;
+                header.mModel = android.os.Build.MODEL;
+                header.mDevice = android.os.Build.DEVICE;
+                header.mProduct = android.os.Build.PRODUCT;
+                for (int[] subscription : mSubscriptions) {
+                    final int type = CaptureProfile.hardware(subscription[0]);
+                    Sensor sensor = mManager.getDefaultSensor(type);
+                    if (sensor != null && !listed(header, type)) {
+                        header.mSensors.add(new Trace.SensorInfo(type, sensor.getName(), sensor.getVendor(),
+                                sensor.getResolution(), sensor.getMaximumRange(), sensor.getMinDelay()));
+                    }
+                }
+                mSegments = new SegmentWriter(mOutputFile.getParentFile(), baseName(), header);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            super.onPostExecute(result);
+            record();
+        }
+    }
+
+    /**
+     * Exports the CSV for an earlier capture, from its segments, unless it got that far before.
+     */
+    private void exportRecovered(File directory, String name) throws IOException {
+        final File csv = SegmentStore.csvFile(directory, name);
+        final File[] segments = new SegmentStore(directory, name).segments();
+        if (csv.exists() || segments.length == 0) {
+            return;
+        }
+        final TraceReader first = new TraceReader(segments[0]);
+        final CaptureProfile profile;
+        try {
+            profile = TraceCsv.profile(first);
+        } finally {
+            first.close();
+        }
+        PrintStream p = new PrintStream(new BufferedOutputStream(new FileOutputStream(csv), 64 * 1024));
+        try {
+            final long rows = TraceCsv.exportSegments(segments, profile, p, 0);
+            Log.w(TAG, "Exported " + name + ", which ended without its CSV: " + rows + " rows");
+        } finally {
+            p.close();
+        }
+    }
+
+    private void record() {
+        mWriter = new CaptureWriter(mSegments, mStore) {
+            @Override
+            protected void busy() {
+                mWakeLock.acquire();
+            }
+
+            @Override
+            protected void idle() {
+                mWakeLock.release();
+            }
+        };
+        mWriter.start();
+        Log.d(TAG, mProfile.name() + ": " + mSubscriptions.size() + " subscriptions, " + (mStore.bytes() / 1024) +
+                "K of buffers");
+        mStartedAt = 0;
+        mStartedUptime = SystemClock.elapsedRealtime();
+        mOrientation = Orientation.get(this);
+        final int latency = mBatched ? BATCH_LATENCY_US : 0;
+        mOrientation.batchStats().reset();
+        // before subscribing, which hands them over to the sensor thread
+        mHaveGravity = mEstimating = false;
+        for (int[] subscription : mSubscriptions) {
+            mOrientation.subscribe(subscription[0], subscription[1], latency, mCollector);
+        }
+        mState = RECORDING;
+    }
+
+    /**
+     * @return { type, rate } for each stream the device can deliver, with a warning logged for the others; if the profile
+     *  wants linear acceleration and there's no such sensor, the accelerometer and gravity to work it out from
+     */
+    private ArrayList<int[]> subscriptions() {
+        ArrayList<int[]> subscriptions = new ArrayList<int[]>();
+        mDeriveLinear = false;
+        for (int i = 0; i < mProfile.streams(); i++) {
+            final int type = mProfile.type(i);
+            if (mManager.getDefaultSensor(CaptureProfile.hardware(type)) != null) {
+                subscriptions.add(new int[] { type, mProfile.rate(i) });
+            } else if (type == Sensor.TYPE_LINEAR_ACCELERATION &&
+                    mManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) != null) {
+                mDeriveLinear = true;
+                for (int helper : new int[] { Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GRAVITY }) {
+                    if (mProfile.stream(helper) < 0 && mManager.getDefaultSensor(helper) != null) {
+                        subscriptions.add(new int[] { helper, mProfile.rate(i) });
+                    }
+                }
+            } else {
+                Log.w(TAG, "No " + CaptureProfile.name(type) + " on this device; not recording it");
+            }
+        }
+        return subscriptions;
+    }
+
+    private static boolean listed(Trace.Header header, int type) {
+        for (Trace.SensorInfo sensor : header.mSensors) {
+            if (sensor.mType == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ends the capture, if it's recording.  If it was batched, the last few seconds are still in the sensor FIFO; they're
+     *  got out before stopping.  The rest happens on the sensor thread, after the last sample has been published to the
+     *  SampleRings, so mWriter.finish() can't come before any of them; then the CSV is exported in the background.
+     */
+    public void finish() {
+        if (mState != RECORDING) {
+            return;
+        }
+        mState = FINISHING;
+        mOrientation.flush(new Runnable() {
+            @Override
+            public void run() {
+                mOrientation.batchStats().log();
+                mOrientation.unsubscribe(mCollector);
+                mWriter.finish();
+                mCost.log();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        (new Exporter()).execute();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * This is the only part that needs to be efficient.  It runs on Orientation's sensor thread, which also does the
+     *  rotation-matrix work, so the angle changes arrive ready-made.  Each sample is published to a SampleRing without
+     *  locking or allocating; when batched, a burst of a FIFO-full goes in back to back, and the CaptureWriter takes it as
+     *  one batch.  Features' update is a constant few operations a sample too, with an FFT and a brief lock once a hop.
+     */
+    private class Collector implements SampleSink {
+        @Override
+        public void sample(int type, long timestamp, float[] values) {
+            mCost.begin();
+            collect(type, timestamp, values);
+            mCost.end();
+        }
+
+        private void collect(int type, long timestamp, float[] values) {
+            final long when = deltaT(timestamp);
+            // single-value sensors may hand over a one-element array
+            final int length = values.length;
+            mStore.publish(type, when, values[0], (length > 1) ? values[1] : 0, (length > 2) ? values[2] : 0);
+            mFeatures.sample(type, when, values);
+            if (!mDeriveLinear) {
+                return;
+            }
+            switch (type) {
+            case Sensor.TYPE_ACCELEROMETER:
+                if (!mHaveGravity) {
+                    estimateGravity(values);
+                }
+                for (int i = 0; i < 3; i++) {
+                    mLinear[i] = values[i] - mGravity[i];
+                }
+                mStore.publish(Sensor.TYPE_LINEAR_ACCELERATION, when, mLinear[0], mLinear[1], mLinear[2]);
+                mFeatures.sample(Sensor.TYPE_LINEAR_ACCELERATION, when, mLinear);
+                break;
+            case Sensor.TYPE_GRAVITY:
+                // the sensor's word beats the estimate from here on
+                for (int i = 0; i < 3; i++) {
+                    mGravity[i] = values[i];
+                }
+                mHaveGravity = true;
+                break;
+            }
+        }
+
+        private void estimateGravity(float[] accel) {
+            if (!mEstimating) {
+                mEstimating = true;
+                for (int i = 0; i < 3; i++) {
+                    mGravity[i] = accel[i];
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                mGravity[i] = (mAlpha * mGravity[i]) + ((1 - mAlpha) * accel[i]);
+            }
+        }
+    }
+
+    /**
+     * Timestamps are recorded in nanoseconds since mStartedAt, the first event of the test
+     */
+    private long deltaT(long incoming) {
+        if (mStartedAt == 0)
+            mStartedAt = incoming;
+        return incoming - mStartedAt;
+    }
+
+    /**
+     * Waits for the CaptureWriter to finish off the last segment, then exports the CSV and the feature vectors from the
+     *  segments, and deletes them unless they're to be kept.
+     */
+    private class Exporter extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                mWriter.join();
+                if (mWriter.failure() != null) {
+                    throw mWriter.failure();
+                }
+                Log.d(TAG, "Wrote " + mWriter.rowsWritten() + " records in " + mSegments.files().length +
+                        " segments, max queue depth " + mWriter.maxQueueDepth() + ", dropped " + mWriter.dropped());
+                PrintStream p = new PrintStream(new BufferedOutputStream(new FileOutputStream(mOutputFile), 64 * 1024));
+                try {
+                    TraceCsv.exportSegments(mSegments.files(), mProfile, p, mAligned ? ALIGNED_PERIOD : 0);
+                } finally {
+                    p.close();
+                }
+                p = new PrintStream(new BufferedOutputStream(new FileOutputStream(featuresFile()), 64 * 1024));
+                try {
+                    Features.export(mSegments.files(), p);
+                } finally {
+                    p.close();
+                }
+                if (!mKeepTrace) {
+                    new SegmentStore(mOutputFile.getParentFile(), baseName()).delete();
+                }
+                // how long the events took to get through, alongside them
+                Latency.dump(latencyFile());
+            } catch (Exception e) {
+                Log.e(TAG, "Capture failed", e);
+                mFailure = e;
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            super.onPostExecute(result);
+            stopForeground(true);
+            mState = FINISHED;
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // Stats, for the screen
+
+    /**
+     * @return IDLE, STARTING, RECORDING, FINISHING or FINISHED
+     */
+    public int state() {
+        return mState;
+    }
+
+    /**
+     * @return what went wrong with a FINISHED capture, or null if it's fine
+     */
+    public Exception failure() {
+        return mFailure;
+    }
+
+    public CaptureProfile profile() {
+        return mProfile;
+    }
+
+    /**
+     * @return milliseconds since the capture started recording
+     */
+    public long elapsed() {
+        return (mState >= RECORDING) ? SystemClock.elapsedRealtime() - mStartedUptime : 0;
+    }
+
+    /**
+     * @return samples that have come in from the sensors
+     */
+    public long samples() {
+        return (mState >= RECORDING) ? mStore.published() : 0;
+    }
+
+    /**
+     * @return samples lost because the writer wasn't keeping up
+     */
+    public int dropped() {
+        return (mState >= RECORDING) ? mStore.dropped() : 0;
+    }
+
+    /**
+     * @return bytes of trace written so far
+     */
+    public long bytesWritten() {
+        return (mState >= RECORDING) ? mSegments.bytes() : 0;
+    }
+
+    public int segments() {
+        return (mState >= RECORDING) ? mSegments.files().length : 0;
+    }
+
+    /**
+     * @param into gets the stream's latest feature vector, laid out as in Features
+     * @return false if the stream hasn't got as far as a whole window yet
+     */
+    public boolean features(int stream, float[] into) {
+        if (mState < RECORDING) {
+            return false;
+        }
+        synchronized (mLatest) {
+            if (mHaveLatest[stream]) {
+                System.arraycopy(mLatest[stream], 0, into, 0, mLatest[stream].length);
+            }
+            return mHaveLatest[stream];
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    /// File stuff
+
+    /**
+     * @return the CSV file, once the capture has started
+     */
+    public File outputFile() {
+        return mOutputFile;
+    }
+
+    private String baseName() {
+        String name = mOutputFile.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * @return where the feature vectors go
+     */
+    private File featuresFile() {
+        return SegmentStore.featuresFile(mOutputFile.getParentFile(), baseName());
+    }
+
+    /**
+     * @return where Latency's histograms for the test go
+     */
+    private File latencyFile() {
+        return new File(mOutputFile.getParentFile(), baseName() + ".latency.txt");
+    }
+}
@@ -0,0 +1,202 @@
+package com.textuality.sensplore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.hardware.Sensor;
+
+/**
+ * Feeds a recorded capture through SampleSinks as fast as they'll take it.  Reads either a binary trace, which can carry any
+ *  sensor, or a Sensplore CSV: CLASSIC's, whose right-hand columns are angle changes and left-hand ones linear acceleration,
+ *  or the merged layout of the other profiles, a sample a line with its stream's label.  Only uses Android's compile-time
+ *  constants, so it runs on a plain JVM:
+ *
+ *   java com.textuality.sensplore.Replay capture.csv|capture.trace
+ *
+ * which runs the file through a GestureEngine and a TiltMeter and reports the event rate and each gesture with its
+ *  timestamp.  The CSV has no gravity, so facing and pick-up won't show up from one of those.
+ */
+public class Replay {
+
+    private static final int CSV_HEADER_LINES = 4;
+
+    private final SampleSink[] mSinks;
+    private final float[] mValues = new float[3];
+    private long mEvents = 0;
+    private long mElapsed = 0;
+
+    public Replay(SampleSink... sinks) {
+        mSinks = sinks;
+    }
+
+    /**
+     * @return number of events replayed
+     */
+    public long replay(TraceReader trace) throws IOException {
+        final long started = System.nanoTime();
+        long events = 0;
+        TraceReader.Cursor cursor = trace.cursor();
+        while (cursor.next()) {
+            mValues[0] = cursor.x();
+            mValues[1] = cursor.y();
+            mValues[2] = cursor.z();
+            send(cursor.type(), cursor.when());
+            events++;
+        }
+        return finished(started, events);
+    }
+
+    /**
+     * @return number of events replayed
+     */
+    public long replayCsv(File csv) throws IOException {
+        final long started = System.nanoTime();
+        long events = 0;
+        BufferedReader in = new BufferedReader(new FileReader(csv), 64 * 1024);
+        try {
+            String line;
+            int lineNumber = 0;
+            boolean merged = false;
+            while ((line = in.readLine()) != null) {
+                if (++lineNumber <= CSV_HEADER_LINES) {
+                    merged |= line.startsWith("Merged");
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (merged) {
+                    // t,label, x[, y, z]
+                    events += sendMerged(fields);
+                    continue;
+                }
+                // t, x, y, z,, t, x, y, z  - either half may be missing at the end
+                if (fields.length >= 4 && fields[0].trim().length() > 0) {
+                    events += sendCsv(Sensor.TYPE_LINEAR_ACCELERATION, fields, 0);
+                }
+                if (fields.length >= 9) {
+                    events += sendCsv(Trace.TYPE_ANGLE_CHANGE, fields, 5);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return finished(started, events);
+    }
+
+    private int sendCsv(int type, String[] fields, int first) {
+        final long when = Math.round(Double.parseDouble(fields[first]) * 1000000.0);   // msec to nsec
+        for (int i = 0; i < 3; i++) {
+            mValues[i] = Float.parseFloat(fields[first + 1 + i]);
+        }
+        send(type, when);
+        return 1;
+    }
+
+    private int sendMerged(String[] fields) {
+        final int type = (fields.length >= 3) ? CaptureProfile.forLabel(fields[1].trim()) : -1;
+        if (type < 0) {
+            return 0;
+        }
+        final long when = Math.round(Double.parseDouble(fields[0]) * 1000000.0);
+        for (int i = 0; i < 3; i++) {
+            mValues[i] = (2 + i < fields.length) ? Float.parseFloat(fields[2 + i]) : 0;
+        }
+        send(type, when);
+        return 1;
+    }
+
+    private void send(int type, long when) {
+        for (SampleSink sink : mSinks) {
+            sink.sample(type, when, mValues);
+        }
+    }
+
+    private long finished(long started, long events) {
+        mElapsed += System.nanoTime() - started;
+        mEvents += events;
+        return events;
+    }
+
+    /**
+     * @return events replayed per second of wall-clock time, over everything replayed so far
+     */
+    public double eventsPerSecond() {
+        return (mElapsed == 0) ? 0 : mEvents / (mElapsed / 1e9);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: Replay capture.csv|capture.trace");
+            System.exit(1);
+        }
+        final File file = new File(args[0]);
+        final ArrayList<String> gestures = new ArrayList<String>();
+        final long[] now = new long[1];
+        final int[] tilts = new int[1];
+
+        // the recognizer calls back synchronously, so the timestamp of the event being replayed is the gesture's
+        final SampleSink clock = new SampleSink() {
+            @Override
+            public void sample(int type, long timestamp, float[] values) {
+                now[0] = timestamp;
+            }
+        };
+        final GestureEngine gestureEngine = new GestureEngine(new KineticListener() {
+            @Override
+            public boolean kineticRecognized(int gesture) {
+                gestures.add(String.format("%10.2f msec  %s", now[0] / 1e6, name(gesture)));
+                return false;
+            }
+        }, Gesture.all());
+        final TiltMeter tilt = new TiltMeter(new TiltListener() {
+            @Override
+            public void setTilt(double value) {
+                tilts[0]++;
+            }
+        });
+
+        Replay replay = new Replay(clock, gestureEngine, tilt);
+        long events;
+        if (file.getName().endsWith(Trace.EXTENSION)) {
+            TraceReader trace = new TraceReader(file);
+            try {
+                events = replay.replay(trace);
+            } finally {
+                trace.close();
+            }
+        } else {
+            events = replay.replayCsv(file);
+        }
+
+        for (String gesture : gestures) {
+            System.out.println(gesture);
+        }
+        System.out.println(events + " events, " + gestures.size() + " gestures, " + tilts[0] + " tilt readings, " +
+                String.format("%.0f", replay.eventsPerSecond()) + " events/sec");
+    }
+
+    private static String name(int gesture) {
+        switch (gesture) {
+        case KineticListener.FLIP_UP:
+            return "FLIP_UP";
+        case KineticListener.FLIP_DOWN:
+            return "FLIP_DOWN";
+        case KineticListener.NOW_FACE_UP:
+            return "NOW_FACE_UP";
+        case KineticListener.NOW_FACE_DOWN:
+            return "NOW_FACE_DOWN";
+        case KineticListener.SHAKE:
+            return "SHAKE";
+        case KineticListener.TWIST:
+            return "TWIST";
+        case KineticListener.TAP:
+            return "TAP";
+        case KineticListener.PICK_UP:
+            return "PICK_UP";
+        default:
+            return "gesture " + gesture;
+        }
+    }
+}
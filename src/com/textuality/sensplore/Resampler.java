@@ -0,0 +1,224 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+
+/**
+ * Puts several x/y/z sample streams onto one timeline: a row every period nanoseconds, at whole multiples of the period,
+ *  with each stream's value at that instant worked out from the samples either side of it, by linear interpolation or by
+ *  taking the nearer one.  The timeline starts once every stream has a sample, and row() gets each row as soon as every
+ *  stream has a sample at or past it, so rows beyond the end of any stream are never written.
+ *
+ * Streams of changes, like Trace.TYPE_ANGLE_CHANGE, where each sample is how much something moved since the one before,
+ *  can't be interpolated as they stand; for those the running total is interpolated, and the row gets how much it changed
+ *  over the period, so the changes still add up to the same total.  The first row's change is 0.
+ *
+ * Each stream is worked on independently, so it takes one pass, and needs only its latest sample and the rows that are
+ *  waiting for the others; feed the streams in time order (merged, as TraceCsv does) and that's the handful of rows between
+ *  two samples of the sparsest stream.  CAPACITY rows is the most that will wait: if one stream gets that far ahead, the
+ *  oldest row goes out with the streams that are behind held at their latest values, and forced() counts it.  Memory is
+ *  fixed at construction, and sample() allocates nothing.
+ */
+public abstract class Resampler {
+
+    public static final int NEAREST = 0;
+    public static final int LINEAR = 1;
+
+    public static final int CAPACITY = 256;
+
+    private final long mPeriod;
+    private final int mMode;
+    private final boolean[] mChanges;
+    private final int mStreams;
+
+    private final float[][] mRows = new float[CAPACITY][];
+    private long mEmitted;           // the first row not yet handed to row()
+    private final long[] mNext;      // for each stream, the row it fills next
+    private long mFirst;
+    private int mWaiting;            // streams with no sample yet
+    private boolean mStarted = false;
+
+    // for each stream, its latest sample; for changes, the running total there, and at the last row filled
+    private final boolean[] mHave;
+    private final long[] mWhen;
+    private final double[] mValues;
+    private final double[] mFilled;
+
+    private long mRowsWritten = 0;
+    private long mForced = 0;
+    private long mDropped = 0;
+
+    /**
+     * @param period nanoseconds between rows
+     * @param mode NEAREST or LINEAR
+     * @param changes one per stream: true if its samples are changes rather than values
+     */
+    public Resampler(long period, int mode, boolean[] changes) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        mPeriod = period;
+        mMode = mode;
+        mChanges = changes.clone();
+        mStreams = changes.length;
+        for (int i = 0; i < CAPACITY; i++) {
+            mRows[i] = new float[mStreams * 3];
+        }
+        mNext = new long[mStreams];
+        mHave = new boolean[mStreams];
+        mWhen = new long[mStreams];
+        mValues = new double[mStreams * 3];
+        mFilled = new double[mStreams * 3];
+        mWaiting = mStreams;
+    }
+
+    /**
+     * Called with each row, in order.
+     *
+     * @param when the row's time, a multiple of the period
+     * @param values x/y/z for each stream in turn; only good until this returns
+     */
+    protected abstract void row(long when, float[] values) throws IOException;
+
+    /**
+     * @param stream index into the changes given to the constructor
+     * @param when nanoseconds; a sample earlier than the stream's previous one is dropped
+     */
+    public void sample(int stream, long when, float x, float y, float z) throws IOException {
+        if (mHave[stream] && when < mWhen[stream]) {
+            mDropped++;
+            return;
+        }
+        final int v = stream * 3;
+        double vx = x, vy = y, vz = z;
+        if (mChanges[stream] && mHave[stream]) {
+            vx += mValues[v];
+            vy += mValues[v + 1];
+            vz += mValues[v + 2];
+        }
+        if (!mHave[stream]) {
+            // its first sample stands in for the one before
+            mHave[stream] = true;
+            mWhen[stream] = when;
+            mValues[v] = vx;
+            mValues[v + 1] = vy;
+            mValues[v + 2] = vz;
+            if (--mWaiting == 0) {
+                start(when);
+            }
+        }
+        if (mStarted) {
+            fill(stream, when, vx, vy, vz);
+            emit();
+        }
+        mWhen[stream] = when;
+        mValues[v] = vx;
+        mValues[v + 1] = vy;
+        mValues[v + 2] = vz;
+    }
+
+    private void start(long when) {
+        // the first multiple of the period at or after the last stream to show up
+        mFirst = (when >= 0) ? (when + mPeriod - 1) / mPeriod : when / mPeriod;
+        mEmitted = mFirst;
+        for (int i = 0; i < mStreams; i++) {
+            mNext[i] = mFirst;
+        }
+        mStarted = true;
+    }
+
+    /**
+     * Fills every row up to the new sample, from the stream's previous sample to it.
+     */
+    private void fill(int stream, long when, double vx, double vy, double vz) throws IOException {
+        final int v = stream * 3;
+        final long before = mWhen[stream];
+        for (long k = mNext[stream]; k * mPeriod <= when; k++) {
+            if (k - mEmitted >= CAPACITY) {
+                force();
+            }
+            final long t = k * mPeriod;
+            final double fraction;
+            if (when == before) {
+                fraction = 1;
+            } else if (t <= before) {
+                fraction = 0;
+            } else if (mMode == LINEAR) {
+                fraction = (double) (t - before) / (when - before);
+            } else {
+                fraction = (t - before <= when - t) ? 0 : 1;
+            }
+            put(stream, k, mValues[v] + (vx - mValues[v]) * fraction, mValues[v + 1] + (vy - mValues[v + 1]) * fraction,
+                    mValues[v + 2] + (vz - mValues[v + 2]) * fraction);
+        }
+    }
+
+    private void put(int stream, long k, double x, double y, double z) {
+        final float[] row = mRows[(int) (k % CAPACITY)];
+        final int v = stream * 3;
+        if (mChanges[stream]) {
+            if (k == mFirst) {
+                mFilled[v] = x;
+                mFilled[v + 1] = y;
+                mFilled[v + 2] = z;
+            }
+            row[v] = (float) (x - mFilled[v]);
+            row[v + 1] = (float) (y - mFilled[v + 1]);
+            row[v + 2] = (float) (z - mFilled[v + 2]);
+            mFilled[v] = x;
+            mFilled[v + 1] = y;
+            mFilled[v + 2] = z;
+        } else {
+            row[v] = (float) x;
+            row[v + 1] = (float) y;
+            row[v + 2] = (float) z;
+        }
+        mNext[stream] = k + 1;
+    }
+
+    /**
+     * Sends out the oldest row with the streams that haven't reached it held at their latest values.
+     */
+    private void force() throws IOException {
+        for (int i = 0; i < mStreams; i++) {
+            if (mNext[i] == mEmitted) {
+                final int v = i * 3;
+                put(i, mEmitted, mValues[v], mValues[v + 1], mValues[v + 2]);
+            }
+        }
+        mForced++;
+        emit();
+    }
+
+    /**
+     * Hands over every row that all the streams have filled.
+     */
+    private void emit() throws IOException {
+        long ready = Long.MAX_VALUE;
+        for (int i = 0; i < mStreams; i++) {
+            ready = Math.min(ready, mNext[i]);
+        }
+        while (mEmitted < ready) {
+            row(mEmitted * mPeriod, mRows[(int) (mEmitted % CAPACITY)]);
+            mEmitted++;
+            mRowsWritten++;
+        }
+    }
+
+    public long rowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return rows that went out before every stream had got to them
+     */
+    public long forced() {
+        return mForced;
+    }
+
+    /**
+     * @return samples that were out of order
+     */
+    public long dropped() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,103 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * How much of the sensplore directory to keep, where it used to be wiped before every capture: at most so many captures
+ *  and so many bytes, and nothing older than so many days, the oldest going first.  A capture's files go together: its
+ *  trace segments, index, CSV and features share a name, which SegmentStore.capture() finds.  Only those are ever deleted,
+ *  and only for a capture that has something besides the CSV, since a CSV on its own could be anybody's; anything else
+ *  in the directory, like Poll's tables and Latency's dumps, is left alone and doesn't count.
+ */
+public class Retention {
+
+    private static final long DAY_MSEC = 24L * 60 * 60 * 1000;
+
+    private final int mCaptures;
+    private final long mBytes;
+    private final long mAge;
+
+    /**
+     * @param captures how many to keep, counting the one about to be recorded
+     * @param bytes how much they may take between them
+     * @param days how old the newest file in a capture may be
+     */
+    public Retention(int captures, long bytes, int days) {
+        mCaptures = captures;
+        mBytes = bytes;
+        mAge = days * DAY_MSEC;
+    }
+
+    private static class Capture {
+        private final ArrayList<File> mFiles = new ArrayList<File>();
+        private boolean mRecorded = false;
+        private long mBytes = 0;
+        private long mModified = 0;
+    }
+
+    /**
+     * Deletes the oldest captures until what's left is within the limits.
+     *
+     * @param keep a capture never to delete, or null
+     * @return how many captures were deleted
+     */
+    public int apply(File directory, String keep) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        HashMap<String, Capture> byName = new HashMap<String, Capture>();
+        for (File file : files) {
+            if (!SegmentStore.isCaptureFile(file.getName())) {
+                continue;
+            }
+            final String name = SegmentStore.capture(file.getName());
+            Capture capture = byName.get(name);
+            if (capture == null) {
+                capture = new Capture();
+                byName.put(name, capture);
+            }
+            capture.mFiles.add(file);
+            capture.mRecorded |= !file.getName().endsWith(SegmentStore.CSV_EXTENSION) ||
+                    file.getName().endsWith(SegmentStore.FEATURES_EXTENSION);
+            capture.mBytes += file.length();
+            capture.mModified = Math.max(capture.mModified, file.lastModified());
+        }
+        ArrayList<Capture> captures = new ArrayList<Capture>();
+        long total = 0;
+        for (String name : byName.keySet()) {
+            final Capture capture = byName.get(name);
+            if (capture.mRecorded) {
+                total += capture.mBytes;
+                if (!name.equals(keep)) {
+                    captures.add(capture);
+                }
+            }
+        }
+        Collections.sort(captures, new Comparator<Capture>() {
+            @Override
+            public int compare(Capture a, Capture b) {
+                return (a.mModified < b.mModified) ? -1 : ((a.mModified == b.mModified) ? 0 : 1);
+            }
+        });
+
+        final long cutoff = System.currentTimeMillis() - mAge;
+        int deleted = 0;
+        for (Capture capture : captures) {
+            // one place is for the capture that's about to be recorded
+            if (captures.size() - deleted < mCaptures && total <= mBytes && capture.mModified >= cutoff) {
+                break;
+            }
+            for (File file : capture.mFiles) {
+                file.delete();
+            }
+            total -= capture.mBytes;
+            deleted++;
+        }
+        return deleted;
+    }
+}
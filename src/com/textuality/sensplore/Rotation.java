@@ -0,0 +1,76 @@
+package com.textuality.sensplore;
+
+/**
+ * Plain-Java versions of SensorManager.getRotationMatrixFromVector and SensorManager.getAngleChange, for 3x3 matrices, so
+ *  the gesture code gets exactly the same numbers on the device and when replaying a trace on a JVM.  The math is the AOSP
+ *  math.
+ */
+public class Rotation {
+
+    /**
+     * @param R 9-element rotation matrix to fill in
+     * @param rotationVector the values from a TYPE_ROTATION_VECTOR event; if there's no fourth (cos(theta/2)) element it's
+     *  worked out from the other three
+     */
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+        float q0;
+        final float q1 = rotationVector[0];
+        final float q2 = rotationVector[1];
+        final float q3 = rotationVector[2];
+
+        if (rotationVector.length >= 4) {
+            q0 = rotationVector[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+        }
+
+        final float sq_q1 = 2 * q1 * q1;
+        final float sq_q2 = 2 * q2 * q2;
+        final float sq_q3 = 2 * q3 * q3;
+        final float q1_q2 = 2 * q1 * q2;
+        final float q3_q0 = 2 * q3 * q0;
+        final float q1_q3 = 2 * q1 * q3;
+        final float q2_q0 = 2 * q2 * q0;
+        final float q2_q3 = 2 * q2 * q3;
+        final float q1_q0 = 2 * q1 * q0;
+
+        R[0] = 1 - sq_q2 - sq_q3;
+        R[1] = q1_q2 - q3_q0;
+        R[2] = q1_q3 + q2_q0;
+
+        R[3] = q1_q2 + q3_q0;
+        R[4] = 1 - sq_q1 - sq_q3;
+        R[5] = q2_q3 - q1_q0;
+
+        R[6] = q1_q3 - q2_q0;
+        R[7] = q2_q3 + q1_q0;
+        R[8] = 1 - sq_q1 - sq_q2;
+    }
+
+    /**
+     * @param angleChange filled in with the changes in angle around the z, x and y axes, in that order, in radians
+     * @param R the current 9-element rotation matrix
+     * @param prevR the previous one
+     */
+    public static void getAngleChange(float[] angleChange, float[] R, float[] prevR) {
+        final float ri1 = R[0], ri2 = R[1], ri3 = R[2];
+        final float ri4 = R[3], ri5 = R[4], ri6 = R[5];
+        final float ri7 = R[6], ri8 = R[7], ri9 = R[8];
+
+        final float rd1 = prevR[0], rd2 = prevR[1], rd3 = prevR[2];
+        final float rd4 = prevR[3], rd5 = prevR[4], rd6 = prevR[5];
+        final float rd7 = prevR[6], rd8 = prevR[7], rd9 = prevR[8];
+
+        // the parts of the rotation difference matrix, transpose(prevR) * R, that are needed
+        final float pri12 = rd1 * ri2 + rd4 * ri5 + rd7 * ri8;
+        final float pri22 = rd2 * ri2 + rd5 * ri5 + rd8 * ri8;
+        final float pri31 = rd3 * ri1 + rd6 * ri4 + rd9 * ri7;
+        final float pri32 = rd3 * ri2 + rd6 * ri5 + rd9 * ri8;
+        final float pri33 = rd3 * ri3 + rd6 * ri6 + rd9 * ri9;
+
+        angleChange[0] = (float) Math.atan2(pri12, pri22);
+        angleChange[1] = (float) Math.asin(-pri32);
+        angleChange[2] = (float) Math.atan2(-pri31, pri33);
+    }
+}
@@ -0,0 +1,140 @@
+package com.textuality.sensplore;
+
+/**
+ * A fixed-size ring of x/y/z samples for handing them from exactly one producer thread (the sensor callback) to exactly one
+ *  consumer thread (the CaptureWriter) without locks.  The samples live in primitive columns, so nothing is allocated per
+ *  sample; the only synchronization is a volatile sequence number on each side, each padded out to its own cache line so the
+ *  two threads don't slow each other down by writing next to each other.
+ *
+ * The producer's publish() never blocks; if the ring is full, the sample is dropped and counted.  The consumer drains in
+ *  batches: available() says how many samples it may read, when(i)/x(i)/y(i)/z(i) read them in place, and consume(n) gives
+ *  back the slots, with one volatile write for the whole batch.
+ */
+public class SampleRing {
+
+    private final int mMask;
+    private final long[] mWhen;
+    private final float[] mX, mY, mZ;
+    private final Sequence mHead = new Sequence();   // next slot to publish; producer's, caches the tail
+    private final Sequence mTail = new Sequence();   // next slot to consume; consumer's, caches the head
+    private volatile int mDropped = 0;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mWhen = new long[size];
+        mX = new float[size];
+        mY = new float[size];
+        mZ = new float[size];
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return false if the ring was full and the sample was dropped
+     */
+    public boolean publish(long when, float x, float y, float z) {
+        final long head = mHead.mOwn;
+        if (head - mHead.mCache > mMask) {
+            mHead.mCache = mTail.mValue;
+            if (head - mHead.mCache > mMask) {
+                mDropped++;
+                return false;
+            }
+        }
+        final int i = (int) head & mMask;
+        mWhen[i] = when;
+        mX[i] = x;
+        mY[i] = y;
+        mZ[i] = z;
+        mHead.mOwn = head + 1;
+        mHead.mValue = head + 1;    // the volatile write that makes the slot visible
+        return true;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return how many samples are ready to read, starting at index 0
+     */
+    public int available() {
+        mTail.mCache = mHead.mValue;
+        return (int) (mTail.mCache - mTail.mOwn);
+    }
+
+    /**
+     * Consumer only; i must be less than what available() last returned.
+     */
+    public long when(int i) {
+        return mWhen[slot(i)];
+    }
+
+    public float x(int i) {
+        return mX[slot(i)];
+    }
+
+    public float y(int i) {
+        return mY[slot(i)];
+    }
+
+    public float z(int i) {
+        return mZ[slot(i)];
+    }
+
+    private int slot(int i) {
+        return (int) (mTail.mOwn + i) & mMask;
+    }
+
+    /**
+     * Consumer only: hands back the first n slots; what was index n is now index 0.
+     */
+    public void consume(int n) {
+        mTail.mOwn += n;
+        mTail.mValue = mTail.mOwn;
+    }
+
+    /**
+     * @return how many samples are waiting; safe from any thread, though it may be stale by the time it returns
+     */
+    public int size() {
+        return (int) (mHead.mValue - mTail.mValue);
+    }
+
+    /**
+     * @return how many samples have ever been published; safe from any thread
+     */
+    public long published() {
+        return mHead.mValue;
+    }
+
+    /**
+     * @return samples lost because the ring was full
+     */
+    public int dropped() {
+        return mDropped;
+    }
+
+    // Seven longs either side keep mValue on a cache line of its own, along with the owning thread's private copy of it and
+    //  its cached copy of the other side's, so that neither thread reads a volatile more often than it has to.  The VM may
+    //  reorder fields within a class but keeps a superclass's ahead of its subclass's.
+    private static class LeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class Value extends LeftPadding {
+        protected volatile long mValue = 0;
+        protected long mOwn = 0;
+        protected long mCache = 0;
+    }
+
+    private static class Sequence extends Value {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+}
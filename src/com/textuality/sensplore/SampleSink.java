@@ -0,0 +1,15 @@
+package com.textuality.sensplore;
+
+/**
+ * Where the gesture and tilt code takes its input, so that it can be fed from a SensorEventListener on the device or from a
+ *  recorded trace on a plain JVM.
+ */
+public interface SampleSink {
+
+    /**
+     * @param type an android.hardware.Sensor type, or Trace.TYPE_ANGLE_CHANGE
+     * @param timestamp in nanoseconds, as in SensorEvent.timestamp
+     * @param values as in SensorEvent.values; angle changes are x/y/z. Only good for the duration of the call.
+     */
+    public void sample(int type, long timestamp, float[] values);
+}
@@ -0,0 +1,478 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import android.hardware.Sensor;
+
+/**
+ * A capture that a SegmentWriter recorded, on disk: its segments, NAME-000.trace, NAME-001.trace and so on, and NAME.index,
+ *  a small time index saying what's in each.  The index has an entry per closed segment, appended and forced to the storage
+ *  device as each one closes: int segment number, int the segment's footer CRC32, long samples, long first and last
+ *  microseconds.  That's a few K for a day-long capture, so seek() finds the segment for a time with a binary search of it,
+ *  and Cursor.seek() finds the block in the segment with a binary search of its footer.
+ *
+ * recover() is for after a crash.  The segment that was being written when it happened has no footer, so it's cut back to
+ *  its last whole block and given one, and its capture's index is rebuilt from the footers; everything up to the last
+ *  SegmentWriter sync is there.
+ *
+ * From a plain JVM: java com.textuality.sensplore.SegmentStore directory name [seconds], which lists the segments, checks
+ *  their CRCs, and, given a time, seeks to it.
+ */
+public class SegmentStore {
+
+    public static final String INDEX_EXTENSION = ".index";
+    public static final String CSV_EXTENSION = ".csv";
+    public static final String FEATURES_EXTENSION = ".features.csv";
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + 8 + 8;
+
+    private final File mDirectory;
+    private final String mName;
+    private final int[] mSegments;
+    private final long[] mRecords;
+    private final long[] mFirstMicros;
+    private final long[] mLastMicros;
+    private final long[] mLatestMicros;    // in that segment or any before it, so the binary search has something sorted
+
+    /**
+     * Reads the capture's index, if it has one.
+     */
+    public SegmentStore(File directory, String name) throws IOException {
+        mDirectory = directory;
+        mName = name;
+        final File index = indexFile(directory, name);
+        final int entries = (int) (index.length() / INDEX_ENTRY_SIZE);   // a torn last entry is ignored
+        mSegments = new int[entries];
+        mRecords = new long[entries];
+        mFirstMicros = new long[entries];
+        mLastMicros = new long[entries];
+        mLatestMicros = new long[entries];
+        if (entries == 0) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(index, "r");
+        try {
+            final ByteBuffer b = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, entries * INDEX_ENTRY_SIZE)
+                    .order(Trace.ORDER);
+            long latest = Long.MIN_VALUE;
+            for (int i = 0; i < entries; i++) {
+                mSegments[i] = b.getInt();
+                b.getInt();    // the CRC, for checking by hand
+                mRecords[i] = b.getLong();
+                mFirstMicros[i] = b.getLong();
+                mLastMicros[i] = b.getLong();
+                if (mRecords[i] > 0) {
+                    latest = Math.max(latest, mLastMicros[i]);
+                }
+                mLatestMicros[i] = latest;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    public String name() {
+        return mName;
+    }
+
+    /**
+     * @return the segments in the index
+     */
+    public int entries() {
+        return mSegments.length;
+    }
+
+    public File segment(int entry) {
+        return segmentFile(mDirectory, mName, mSegments[entry]);
+    }
+
+    public long records(int entry) {
+        return mRecords[entry];
+    }
+
+    public long firstMicros(int entry) {
+        return mFirstMicros[entry];
+    }
+
+    public long lastMicros(int entry) {
+        return mLastMicros[entry];
+    }
+
+    /**
+     * @return every segment on disk, in order, whether or not it's in the index yet
+     */
+    public File[] segments() {
+        ArrayList<File> segments = new ArrayList<File>();
+        for (int i = 0; segmentFile(mDirectory, mName, i).exists(); i++) {
+            segments.add(segmentFile(mDirectory, mName, i));
+        }
+        return segments.toArray(new File[segments.size()]);
+    }
+
+    /**
+     * @param when nanoseconds since the first event of the capture
+     * @return the first index entry that has samples at or after the time, or -1 if none has
+     */
+    public int entryFor(long when) {
+        final long micros = (when + 999) / 1000;
+        int low = 0, high = mLatestMicros.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mLatestMicros[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < mLatestMicros.length) ? low : -1;
+    }
+
+    /**
+     * Opens the segment with the first samples at or after a time; a Cursor on it seek()s the rest of the way.  The caller
+     *  closes it.  That's the first samples of any type: the segment's other streams may all have stopped before the time,
+     *  and their next samples be in a later segment, so to find a particular stream's, use seek(when, type).
+     *
+     * @return the reader, or null if nothing is that late
+     */
+    public TraceReader seek(long when) throws IOException {
+        final int entry = entryFor(when);
+        return (entry < 0) ? null : new TraceReader(segment(entry));
+    }
+
+    /**
+     * Opens the segment with a stream's first sample at or after a time, going on from the one seek(when) would open to the
+     *  segments after it until one has one; a cursor(type) on it seek()s the rest of the way.  A stream that stopped before
+     *  the time is looked for in every later segment.  The caller closes it.
+     *
+     * @param type a sensor type, or Trace.TYPE_ANGLE_CHANGE
+     * @return the reader, or null if the stream has nothing that late
+     */
+    public TraceReader seek(long when, int type) throws IOException {
+        final int first = entryFor(when);
+        if (first < 0) {
+            return null;
+        }
+        for (int entry = first; entry < mSegments.length; entry++) {
+            final TraceReader trace = new TraceReader(segment(entry));
+            boolean found = false;
+            try {
+                final TraceReader.Cursor cursor = trace.cursor(type);
+                cursor.seek(when);
+                found = cursor.next();
+            } finally {
+                if (!found) {
+                    trace.close();
+                }
+            }
+            if (found) {
+                return trace;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the segments and the index.
+     */
+    public void delete() {
+        for (File segment : segments()) {
+            segment.delete();
+        }
+        indexFile(mDirectory, mName).delete();
+    }
+
+    /////////////////////////////////////////////////////
+    // Names
+
+    public static File segmentFile(File directory, String name, int segment) {
+        return new File(directory, String.format("%s-%03d%s", name, segment, Trace.EXTENSION));
+    }
+
+    public static File indexFile(File directory, String name) {
+        return new File(directory, name + INDEX_EXTENSION);
+    }
+
+    public static File csvFile(File directory, String name) {
+        return new File(directory, name + CSV_EXTENSION);
+    }
+
+    public static File featuresFile(File directory, String name) {
+        return new File(directory, name + FEATURES_EXTENSION);
+    }
+
+    /**
+     * @return the name of the capture the file belongs to: up to the first '.', less a segment number; or for a file of
+     *  anything else, its name up to the first '.'
+     */
+    public static String capture(String file) {
+        final int dot = file.indexOf('.');
+        String name = (dot < 0) ? file : file.substring(0, dot);
+        final int dash = name.length() - 4;
+        if (dash > 0 && name.charAt(dash) == '-' && Character.isDigit(name.charAt(dash + 1)) &&
+                Character.isDigit(name.charAt(dash + 2)) && Character.isDigit(name.charAt(dash + 3))) {
+            name = name.substring(0, dash);
+        }
+        return name;
+    }
+
+    /**
+     * @return the names of the captures with segments in the directory
+     */
+    public static ArrayList<String> captures(File directory) {
+        ArrayList<String> captures = new ArrayList<String>();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = capture(file.getName());
+                if (isSegment(file.getName()) && !captures.contains(name)) {
+                    captures.add(name);
+                }
+            }
+        }
+        return captures;
+    }
+
+    private static boolean isSegment(String file) {
+        return file.endsWith(Trace.EXTENSION) && !capture(file).equals(file.substring(0, file.indexOf('.')));
+    }
+
+    /**
+     * @return true if the file is one a capture writes, whose name capture() gives: a segment, the index, the CSV, or the
+     *  features; only a capture writes the others, but a CSV on its own could be anybody's
+     */
+    public static boolean isCaptureFile(String file) {
+        final String name = capture(file);
+        return isSegment(file) || file.equals(name + INDEX_EXTENSION) || file.equals(name + CSV_EXTENSION) ||
+                file.equals(name + FEATURES_EXTENSION);
+    }
+
+    /////////////////////////////////////////////////////
+    // Writing the index
+
+    /**
+     * Adds a closed segment to its capture's index, and forces it to the storage device.
+     */
+    public static void append(File directory, String name, int segment, TraceWriter closed) throws IOException {
+        append(indexFile(directory, name), segment, closed.crc(), closed.records(), closed.firstMicros(),
+                closed.lastMicros());
+    }
+
+    private static void append(File index, int segment, int crc, long records, long first, long last)
+            throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(Trace.ORDER);
+        b.putInt(segment).putInt(crc).putLong(records).putLong(first).putLong(last);
+        b.flip();
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        try {
+            // after the last whole entry, so that a torn one from a crash is written over
+            final FileChannel channel = file.getChannel();
+            long position = (channel.size() / INDEX_ENTRY_SIZE) * INDEX_ENTRY_SIZE;
+            while (b.hasRemaining()) {
+                position += channel.write(b, position);
+            }
+            channel.truncate(position);
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // Recovery
+
+    /**
+     * Finds every segment in the directory without a footer, cuts it back to its last whole block and gives it one, and
+     *  rebuilds its capture's index.
+     *
+     * @return the names of the captures that needed it
+     */
+    public static ArrayList<String> recover(File directory) throws IOException {
+        ArrayList<String> recovered = new ArrayList<String>();
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return recovered;
+        }
+        for (File file : files) {
+            if (!isSegment(file.getName())) {
+                continue;
+            }
+            if (repair(file)) {
+                final String name = capture(file.getName());
+                if (!recovered.contains(name)) {
+                    recovered.add(name);
+                }
+            }
+        }
+        for (String name : recovered) {
+            reindex(directory, name);
+        }
+        return recovered;
+    }
+
+    /**
+     * @return true if the segment had no footer and now has one
+     */
+    private static boolean repair(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            final FileChannel channel = file.getChannel();
+            final long size = channel.size();
+            final ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 64 * 1024));
+            final Trace.Header header;
+            try {
+                header = Trace.Header.decode(start);
+            } catch (IllegalArgumentException e) {
+                return false;     // not even a header; nothing to save
+            }
+            if (header.mVersion < 2 || !header.compressed()) {
+                return false;     // not one of SegmentWriter's
+            }
+            if (size >= start.position() + Trace.TRAILER_SIZE && Trace.Footer.decode(channel.map(
+                    FileChannel.MapMode.READ_ONLY, size - Trace.TRAILER_SIZE, Trace.TRAILER_SIZE), size) != null) {
+                return false;     // closed properly
+            }
+
+            // every whole block, up to the first that's torn, or zeros, or doesn't decode
+            final long[] micros = new long[Trace.BLOCK_SAMPLES];
+            final float[] x = new float[Trace.BLOCK_SAMPLES], y = new float[Trace.BLOCK_SAMPLES],
+                    z = new float[Trace.BLOCK_SAMPLES];
+            long[] offsets = new long[256], latest = new long[256];
+            int entries = 0;
+            final Trace.Footer footer = new Trace.Footer();
+            long offset = start.position(), newest = Long.MIN_VALUE, oldest = Long.MAX_VALUE;
+            while (offset + Trace.BLOCK_HEADER_SIZE <= size) {
+                final ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, offset, Trace.BLOCK_HEADER_SIZE)
+                        .order(Trace.ORDER);
+                final int count = head.getInt(4);
+                final long length = head.getInt(8) & 0xffffffffL;
+                if (count <= 0 || count > Trace.BLOCK_SAMPLES || offset + Trace.BLOCK_HEADER_SIZE + length > size) {
+                    break;
+                }
+                try {
+                    final ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Trace.BLOCK_HEADER_SIZE + length).order(Trace.ORDER);
+                    micros[0] = head.getLong(12);
+                    TraceCodec.decode(block, Trace.BLOCK_HEADER_SIZE, count, micros, x, y, z);
+                } catch (RuntimeException e) {
+                    break;
+                }
+                if (entries == offsets.length) {
+                    offsets = grow(offsets);
+                    latest = grow(latest);
+                }
+                oldest = Math.min(oldest, micros[0]);
+                newest = Math.max(newest, micros[count - 1]);
+                offsets[entries] = offset;
+                latest[entries++] = newest;
+                footer.mRecords += count;
+                offset += Trace.BLOCK_HEADER_SIZE + length;
+            }
+
+            channel.truncate(offset);
+            footer.mIndexStart = offset;
+            footer.mEntries = entries;
+            footer.mFirstMicros = (footer.mRecords > 0) ? oldest : 0;
+            footer.mLastMicros = (footer.mRecords > 0) ? newest : 0;
+            final CRC32 crc = TraceReader.crc(channel, offset);
+            final ByteBuffer encoded = footer.encode(offsets, latest, crc);
+            long position = offset;
+            while (encoded.hasRemaining()) {
+                position += channel.write(encoded, position);
+            }
+            channel.force(false);
+            return true;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long[] grow(long[] array) {
+        long[] bigger = new long[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /**
+     * Writes the capture's index afresh from its segments' footers.
+     */
+    private static void reindex(File directory, String name) throws IOException {
+        final File index = indexFile(directory, name);
+        index.delete();
+        for (int i = 0; segmentFile(directory, name, i).exists(); i++) {
+            final TraceReader trace = new TraceReader(segmentFile(directory, name, i));
+            try {
+                final Trace.Footer footer = trace.footer();
+                if (footer != null) {
+                    append(index, i, footer.mCrc, footer.mRecords, footer.mFirstMicros, footer.mLastMicros);
+                }
+            } finally {
+                trace.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: SegmentStore directory name [seconds]");
+            System.exit(1);
+        }
+        final File directory = new File(args[0]);
+        for (String name : recover(directory)) {
+            System.out.println("Recovered " + name);
+        }
+        final SegmentStore store = new SegmentStore(directory, args[1]);
+        for (int i = 0; i < store.entries(); i++) {
+            final TraceReader trace = new TraceReader(store.segment(i));
+            try {
+                System.out.println(String.format("%s: %d samples, %.3f to %.3f sec, %s", store.segment(i).getName(),
+                        store.records(i), store.firstMicros(i) / 1e6, store.lastMicros(i) / 1e6,
+                        trace.verify() ? "CRC ok" : "CRC BAD"));
+            } finally {
+                trace.close();
+            }
+        }
+        if (args.length == 3) {
+            final long when = Math.round(Double.parseDouble(args[2]) * 1e9);
+            final long started = System.nanoTime();
+            TraceReader trace = store.seek(when);
+            if (trace == null) {
+                System.out.println("Nothing at or after " + args[2] + " sec");
+                return;
+            }
+            // the first sample of each stream; the rotation vector's angle changes aren't in the header's list
+            final ArrayList<Integer> types = new ArrayList<Integer>();
+            try {
+                for (Trace.SensorInfo sensor : trace.header().mSensors) {
+                    types.add(sensor.mType);
+                    if (sensor.mType == Sensor.TYPE_ROTATION_VECTOR) {
+                        types.add(Trace.TYPE_ANGLE_CHANGE);
+                    }
+                }
+            } finally {
+                trace.close();
+            }
+            for (int type : types) {
+                trace = store.seek(when, type);
+                if (trace == null) {
+                    System.out.println(CaptureProfile.label(type) + ": nothing at or after " + args[2] + " sec");
+                    continue;
+                }
+                try {
+                    final TraceReader.Cursor cursor = trace.cursor(type);
+                    cursor.seek(when);
+                    cursor.next();
+                    System.out.println(String.format("%s: %.6f sec, %.4f %.4f %.4f, found in %.2f msec",
+                            CaptureProfile.label(type), cursor.when() / 1e9, cursor.x(), cursor.y(), cursor.z(),
+                            (System.nanoTime() - started) / 1e6));
+                } finally {
+                    trace.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A binary trace written as a series of files, so that a capture can go on for hours without any one file getting unwieldy.
+ *  Each segment is a complete trace with the same header, named like the capture with -000, -001 and so on before the
+ *  extension; a new one is started once the current one has SEGMENT_BYTES in it.  It can go over by a TraceWriter buffer and
+ *  the blocks still filling, under a megabyte.  As each one is closed, with its footer, it goes into the capture's index;
+ *  see SegmentStore.
+ *
+ * Every SYNC_NANOS of samples, what's buffered is written out and forced to the storage device, so a crash loses no more
+ *  than that, and SegmentStore.recover() can save the rest.  Syncing leaves blocks partly filled, so it costs a little
+ *  compression; every 5 seconds at SENSOR_DELAY_GAME, that's blocks of 250 samples rather than 1024.
+ *
+ * Segments are always compressed.  An uncompressed record holds its time as an int number of microseconds since the record
+ *  before, and the first record in a later segment would have to count from the start of the capture, which overflows after
+ *  35 minutes; a compressed block holds its first sample's time in full, and each block decodes on its own.
+ *
+ * Like TraceWriter, it belongs to the thread that's draining the samples, except for files() and bytes(), which are safe
+ *  from any thread.
+ */
+public class SegmentWriter implements TraceSink {
+
+    public static final long SEGMENT_BYTES = 8 * 1024 * 1024;
+    public static final long SYNC_NANOS = 5000000000L;
+
+    private final File mDirectory;
+    private final String mName;
+    private final Trace.Header mHeader;
+    private final long mLimit;
+    private final ArrayList<File> mFiles = new ArrayList<File>();
+    private volatile TraceWriter mCurrent = null;
+    private long mSyncAt = SYNC_NANOS;
+    private volatile long mClosedBytes = 0;
+
+    /**
+     * @param name what the segments are called, less the number and extension
+     */
+    public SegmentWriter(File directory, String name, Trace.Header header) throws IOException {
+        this(directory, name, header, SEGMENT_BYTES);
+    }
+
+    public SegmentWriter(File directory, String name, Trace.Header header, long limit) throws IOException {
+        mDirectory = directory;
+        mName = name;
+        mHeader = header;
+        mLimit = limit;
+        next();
+    }
+
+    @Override
+    public void write(int type, long when, float x, float y, float z) throws IOException {
+        mCurrent.write(type, when, x, y, z);
+        if (mCurrent.bytes() >= mLimit) {
+            final TraceWriter full = mCurrent;
+            finish(full);
+            next();
+            mClosedBytes += full.bytes();
+        } else if (when >= mSyncAt) {
+            mCurrent.sync();
+            mSyncAt = when + SYNC_NANOS;
+        }
+    }
+
+    private void next() throws IOException {
+        final File file;
+        synchronized (mFiles) {
+            file = SegmentStore.segmentFile(mDirectory, mName, mFiles.size());
+            mFiles.add(file);
+        }
+        mCurrent = new TraceWriter(file, mHeader, true);
+    }
+
+    private void finish(TraceWriter segment) throws IOException {
+        segment.close();
+        SegmentStore.append(mDirectory, mName, mFiles.size() - 1, segment);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish(mCurrent);
+    }
+
+    /**
+     * @return the segments so far, in order
+     */
+    public File[] files() {
+        synchronized (mFiles) {
+            return mFiles.toArray(new File[mFiles.size()]);
+        }
+    }
+
+    /**
+     * @return bytes in all the segments, not counting what's still buffered
+     */
+    public long bytes() {
+        return mClosedBytes + mCurrent.bytes();
+    }
+}
@@ -17,43 +17,59 @@
 package com.textuality.sensplore;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 
-import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.app.Activity;
-import android.content.Context;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.content.ServiceConnection;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.IBinder;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
 
 /**
- * This activity puts up a button saying "Go then records the TYPE_ACCELEROMETER and TYPE_ROTATION_VECTOR sensor events until you
- *  hit the button (which has been relabeled Done again.  Then it writes them out into a CSV file and shoots them off with ACTION_SEND; 
- *  if you select Gmail in the pick list, the CSV will become an attachment.  You can edit the title or text of the Gmail message if you
- *  want to remind yourself what you were testing.  
- *  
- * As of initial release, what is captured is two sets of x/y/z values, the first being the raw accelerometer output, the second
- *  a set of changes in the angles of rotation around the x, y, and z axes, as computed based on the rotation-vector data.  In both 
- *  cases the axes are those illustrated in the first picture at http://developer.android.com/reference/android/hardware/SensorEvent.html - 
- *  note that these are *device* not world co-ordinates.
+ * This activity picks a CaptureProfile from the spinner at the top, then puts up a button saying "Go" that starts a
+ *  RecorderService recording that profile's sensors, each at its own rate, until you hit the button again (relabeled
+ *  "Done").  The checkboxes say whether to let the samples wait in the sensor FIFOs, to export the accelerometer and angle
+ *  rows on a common timeline, and to keep the binary trace the CSV is exported from.  When it's done, the CSV is shot off
+ *  with ACTION_SEND; if you select Gmail in the pick list, it will become an attachment.  You can edit the title or text of
+ *  the Gmail message if you want to remind yourself what you were testing.
+ *
+ * The CLASSIC profile is what Sensplore has always captured: two sets of x/y/z values, the first being the raw accelerometer
+ *  output, the second a set of changes in the angles of rotation around the x, y, and z axes, as computed based on the
+ *  rotation-vector data.  In both cases the axes are those illustrated in the first picture at
+ *  http://developer.android.com/reference/android/hardware/SensorEvent.html - note that these are *device* not world
+ *  co-ordinates.  The others record any of the sensors Poll knows about; if the device has no linear acceleration sensor,
+ *  it's worked out from the accelerometer less gravity, from the gravity sensor if there is one or a low-pass filter if not.
+ *
+ * This activity only starts and finishes the capture and shows how it's going: the rate, drops, what's been written, and
+ *  each stream's latest features.  The capture lives in the RecorderService, so it carries on if this activity goes away,
+ *  and if it's destroyed and created again, it finds the capture still running and carries on showing it.
  */
 public class Sensplore extends Activity {
 
     public static final String TAG = "Sensplore";
 
+    private static final long REFRESH_MSEC = 1000;
+
+    private RecorderService mRecorder = null;
+    private final Handler mHandler = new Handler();
+    private long mLastSamples = 0;
+    private long mLastElapsed = 0;
+    private final float[] mFeatures = new float[Features.LENGTH];
+
     /////////////////////////////////////////////////////
     // Control stuff
     @Override
@@ -62,246 +78,144 @@ public class Sensplore extends Activity {
         setContentView(R.layout.sensplore);
         Button button = (Button) findViewById(R.id.button);
         button.setOnClickListener(mStarter);
+        button.setEnabled(false);    // until the recorder is bound
+        Spinner profiles = (Spinner) findViewById(R.id.profile);
+        ArrayAdapter<CaptureProfile> adapter = new ArrayAdapter<CaptureProfile>(this, android.R.layout.simple_spinner_item,
+                CaptureProfile.PROFILES);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        profiles.setAdapter(adapter);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            findViewById(R.id.batched).setEnabled(false);
+        }
+        bindService(new Intent(this, RecorderService.class), mConnection, BIND_AUTO_CREATE);
     }
 
-    private final View.OnClickListener mStopper = new View.OnClickListener() {
-        public void onClick(View v) {
-            finishTest();
-        }
-    };
-
-    private final View.OnClickListener mStarter = new View.OnClickListener() {
-        public void onClick(View v) {
-            Button button = (Button) v;
-            button.setText(R.string.stop_test);
-            button.setOnClickListener(mStopper);
-            (new TestStarter()).execute(Sensplore.this, null, null);
-        }
-    };
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mRefresh);
+        unbindService(mConnection);
+    }
 
-    /**
-     * Writes out the file header and launches the test 
-     */
-    private class TestStarter extends AsyncTask<Context, Void, Void> {
+    private final ServiceConnection mConnection = new ServiceConnection() {
         @Override
-        protected Void doInBackground(Context... params) {
-            try {
-                PrintStream p = getFile(false);
-                Account[] accounts = AccountManager.get(params[0]).getAccountsByType("com.google");
-                p.println("Reported by: " + accounts[0].name +
-                        " System: " + android.os.Build.MODEL +
-                        " (" + android.os.Build.DEVICE + "/" + android.os.Build.PRODUCT + ")" +
-                        ",,,,,,,,");
-                p.println(",,,,,,,,");
-                p.close();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mRecorder = ((RecorderService.Recorder) binder).service();
+            if (mRecorder.state() == RecorderService.IDLE) {
+                findViewById(R.id.button).setEnabled(true);
+            } else {
+                // a capture this activity started in an earlier life
+                showRecording();
             }
-            return null;
         }
 
         @Override
-        protected void onPostExecute(Void result) {
-            super.onPostExecute(result);
-            runTest();
+        public void onServiceDisconnected(ComponentName name) {
+            // only if the process has gone, which takes this activity with it
+            mRecorder = null;
         }
-    }
-
-    /////////////////////////////////////////////////////
-    // Sensor stuff
-    private long mStartedAt = 0;
-    private SensorManager mManager = null;
-    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
-    private final ArrayList<Datum> mAccelCollector = new ArrayList<Datum>();
-    private final ArrayList<Datum> mAngleCollector = new ArrayList<Datum>();
-    private float[] mGravity = null;
-    private boolean mHaveGravitySensor = false;
-    private final Flipper mFlipper = new Flipper();
-
-    // alpha is calculated as t / (t + dT).
-    // t is the low-pass filter's time-constant; it depends on what you want in your app. If you set it
-    //  to 1 second, it'll take about 1s for this code to "see" a change in of gravity. There is no "right" 
-    //  answer, it's a trade-off between how "good" the gravity signal will be (ie: stable) and how fast it'll
-    //  respond.
-    // dT, the event delivery rate, i.e. frequency. This requires knowing what the SENSOR_DELAY_GAME value is;
-    //  20msec as of 2012/05
-    private static final float SENSOR_GAME_FREQUENCY = 0.02f;
-    private static final float TIME_CONSTANT = 0.2f;
-    private static final float mAlpha = TIME_CONSTANT / (TIME_CONSTANT + SENSOR_GAME_FREQUENCY);
+    };
 
-    private void runTest() {
-        mManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        Sensor accelSensor = mManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
-        Sensor rvSensor = mManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-        Sensor gSensor = mManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
-        if (accelSensor != null && rvSensor != null) {
-            mManager.registerListener(getListener(), rvSensor, SensorManager.SENSOR_DELAY_GAME);
-            mManager.registerListener(getListener(), accelSensor, SensorManager.SENSOR_DELAY_GAME);
-        } else {
-            // TODO: apologize and exit 
-        }
-        gSensor = null; //*******************************
-        if (gSensor != null) {
-            mHaveGravitySensor = true;
-            mManager.registerListener(getListener(), gSensor, SensorManager.SENSOR_DELAY_GAME);
-            mGravity = new float[3];
+    private final View.OnClickListener mStopper = new View.OnClickListener() {
+        public void onClick(View v) {
+            v.setEnabled(false);
+            mRecorder.finish();
         }
-    }
+    };
 
-    private void finishTest() {
-        for (Listener listener : mListeners) {
-            mManager.unregisterListener(listener);
+    private final View.OnClickListener mStarter = new View.OnClickListener() {
+        public void onClick(View v) {
+            CheckBox binary = (CheckBox) findViewById(R.id.binary);
+            CheckBox batched = (CheckBox) findViewById(R.id.batched);
+            CheckBox aligned = (CheckBox) findViewById(R.id.aligned);
+            Spinner profiles = (Spinner) findViewById(R.id.profile);
+            mRecorder.start((CaptureProfile) profiles.getSelectedItem(), batched.isChecked(), aligned.isChecked(),
+                    binary.isChecked());
+            showRecording();
         }
-        (new TestResultProcessor()).execute();
-    }
+    };
 
-    private Listener getListener() {
-        Listener listener = new Listener();
-        mListeners.add(listener);
-        return listener;
+    /**
+     * Turns the button into "Done", which works once the capture is actually recording, and starts the stats going.
+     */
+    private void showRecording() {
+        Button button = (Button) findViewById(R.id.button);
+        button.setText(R.string.stop_test);
+        button.setOnClickListener(mStopper);
+        button.setEnabled(false);
+        for (int id : new int[] { R.id.profile, R.id.binary, R.id.batched, R.id.aligned }) {
+            findViewById(id).setEnabled(false);
+        }
+        mLastSamples = mLastElapsed = 0;
+        mHandler.removeCallbacks(mRefresh);
+        mRefresh.run();
     }
 
     /**
-     * This is the only part that needs to be efficient
+     * Once a second: how the capture's going, and when it's finished, send it off.
      */
-    private class Listener implements SensorEventListener {
+    private final Runnable mRefresh = new Runnable() {
         @Override
-        public void onSensorChanged(SensorEvent sensorEvent) {
-
-            switch (sensorEvent.sensor.getType()) {
-            case Sensor.TYPE_ROTATION_VECTOR:
-                final float[] last = mFlipper.last(), next = mFlipper.next();
-                SensorManager.getRotationMatrixFromVector(next, sensorEvent.values);
-                if (last != null) {
-                    final float[] values = new float[3];
-                    SensorManager.getAngleChange(values, next, last);
-                    mAngleCollector.add(new Datum(sensorEvent.timestamp, values));
-                }
-                mFlipper.flip();
-                break;
-            case Sensor.TYPE_LINEAR_ACCELERATION:
-                mAccelCollector.add(new Datum(sensorEvent));
-                break;
-            case Sensor.TYPE_ACCELEROMETER:
-                if (!mHaveGravitySensor) {
-                    estimateGravity(sensorEvent.values);
-                }
-                for (int i = 0; i < 3; i++) {
-                    sensorEvent.values[i] -= mGravity[i];
-                }
-                mAccelCollector.add(new Datum(sensorEvent));
-                break;
-            case Sensor.TYPE_GRAVITY:
-                for (int i = 0; i < 3; i++) {
-                    mGravity[i] = sensorEvent.values[i];
-                }
+        public void run() {
+            final int state = mRecorder.state();
+            if (state == RecorderService.FINISHED) {
+                finished();
+                return;
             }
+            findViewById(R.id.button).setEnabled(state == RecorderService.RECORDING);
+            ((TextView) findViewById(R.id.stats)).setText(stats());
+            mHandler.postDelayed(this, REFRESH_MSEC);
         }
+    };
 
-        private void estimateGravity(float[] accel) {
-            if (mGravity == null) {
-                mGravity = new float[3];
-                for (int i = 0; i < 3; i++) {
-                    mGravity[i] = accel[i];
-                }
-            }
-            for (int i = 0; i < 3; i++) {
-                mGravity[i] = (mAlpha * mGravity[i]) + ((1 - mAlpha) * accel[i]);
+    private String stats() {
+        final long elapsed = mRecorder.elapsed(), samples = mRecorder.samples();
+        final double rate = (elapsed > mLastElapsed) ? (samples - mLastSamples) * 1000.0 / (elapsed - mLastElapsed) : 0;
+        mLastSamples = samples;
+        mLastElapsed = elapsed;
+        final StringBuilder stats = new StringBuilder(String.format(
+                "%s, %d:%02d\n%.0f samples/sec, %d dropped\n%dK written in %d segment(s)",
+                mRecorder.profile().name(), elapsed / 60000, (elapsed / 1000) % 60, rate, mRecorder.dropped(),
+                mRecorder.bytesWritten() / 1024, mRecorder.segments()));
+        // and how each stream's moving, over its last feature window
+        final CaptureProfile profile = mRecorder.profile();
+        for (int stream = 0; stream < profile.streams(); stream++) {
+            if (mRecorder.features(stream, mFeatures)) {
+                stats.append(String.format("\n%s: rms %.2f, peak %.2f, %.0f crossings/sec",
+                        CaptureProfile.label(profile.type(stream)), mFeatures[Features.RMS], mFeatures[Features.PEAK],
+                        mFeatures[Features.CROSSINGS]));
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int i) {
-        }
+        return stats.toString();
     }
 
     /**
-     * Writes the saved-up data out in CSV format and sends it off with an Intent
+     * The RecorderService has exported the CSV; send it off with an Intent, and let the service go.
      */
-    private class TestResultProcessor extends AsyncTask<Void, Void, Void> {
-        @Override
-        protected Void doInBackground(Void... params) {
-
-            try {
-                PrintStream p = getFile(true);
-                p.println("Accelerometer,,,,, Angle Change,,,");
-                p.println("t (msec),Accel x, Accel y, Accel z,, t (msec),Angle x, Angle y, Angle z");
-                int accelSize = mAccelCollector.size();
-                int angleSize = mAngleCollector.size();
-
-                int size = (accelSize > angleSize) ? accelSize : angleSize;
-                for (int i = 0; i < size; i++) {
-                    String accel = (i < accelSize) ? mAccelCollector.get(i).toString() : "";
-                    String angle = (i < angleSize) ? mAngleCollector.get(i).toString() : "";
-                    p.println(accel + ",, " + angle);
-                }
-                p.close();
-                sendOffData();
-
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-
-            return null;
-        }
-
-        private void sendOffData() {
-            Intent i = new Intent(Intent.ACTION_SEND);
-            String address = AccountManager.get(Sensplore.this).getAccountsByType("com.google")[0].name;
-
-            i.putExtra(android.content.Intent.EXTRA_EMAIL, new String[] { address });
-            i.putExtra(Intent.EXTRA_SUBJECT, "Sensplore: Test results");
-            i.putExtra(Intent.EXTRA_TEXT, "(Attached as CSV)");
-            i.putExtra(Intent.EXTRA_STREAM, fileURI());
-            i.setType("text/plain");
-            startActivity(Intent.createChooser(i, "Send mail"));
-        }
-
-        @Override
-        protected void onPostExecute(Void result) {
-            super.onPostExecute(result);
-            finish();
+    private void finished() {
+        if (mRecorder.failure() != null) {
+            Toast.makeText(this, "Capture failed: " + mRecorder.failure().getMessage(), Toast.LENGTH_LONG).show();
+        } else {
+            sendOffData(mRecorder.outputFile());
         }
+        stopService(new Intent(this, RecorderService.class));
+        finish();
     }
 
-    private class Datum {
-        public final long mWhen;       // in nanoseconds since mStartedAt
-        public final float[] mValues;
-
-        // should be called AccelerometerDatum - values are x/y/z
-        public Datum(SensorEvent event) {
-            mWhen = deltaT(event.timestamp);
-            mValues = event.values.clone();
-        }
-
-        // should be called AngularDatum - values are azimuth/pitch/roll or z/x/y
-        public Datum(long when, float[] values) {
-            mWhen = deltaT(when);
-            final float x = values[1], y = values[2], z = values[0];
-            mValues = values;
-            mValues[0] = x; mValues[1] = y; mValues[2] = z;
-        }
-
-        private long deltaT(long incoming) {
-            if (mStartedAt == 0)
-                mStartedAt = incoming;
-            return incoming - mStartedAt;
-        }
+    private void sendOffData(File file) {
+        Intent i = new Intent(Intent.ACTION_SEND);
+        String address = AccountManager.get(Sensplore.this).getAccountsByType("com.google")[0].name;
 
-        public String toString() {
-            long microseconds = (mWhen + 500) / 1000;
-            float milliseconds = microseconds / 1000.0f;
-            StringBuilder s = new StringBuilder(String.format("%1$.2f", milliseconds));
-            for (float value : mValues) {
-                s.append(", ").append(String.format("%1$.2f", value));
-            }
-            return new String(s);
-        }
+        i.putExtra(android.content.Intent.EXTRA_EMAIL, new String[] { address });
+        i.putExtra(Intent.EXTRA_SUBJECT, "Sensplore: Test results");
+        i.putExtra(Intent.EXTRA_TEXT, "(Attached as CSV)");
+        i.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+        i.setType("text/plain");
+        startActivity(Intent.createChooser(i, "Send mail"));
     }
 
     /////////////////////////////////////////////////////
     /// File stuff
-    private File mOutputFile = null;
 
     public static File filename() {
         File ext = Environment.getExternalStorageDirectory();
@@ -313,55 +227,4 @@ public class Sensplore extends Activity {
         SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
         return new File(ext, "kinetics-" + df.format(new Date()) + ".csv");
     }
-
-    public PrintStream getFile(boolean append) {
-        PrintStream p = null;
-        try {
-            if (append) {
-                p = new PrintStream(new FileOutputStream(mOutputFile, true));
-            } else {
-                mOutputFile = filename();
-                // clean out all previous files
-                for (File file : mOutputFile.getParentFile().listFiles()) {
-                    file.delete();
-                }
-
-                p = new PrintStream(new FileOutputStream(mOutputFile));
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        return p;
-    }
-
-    public Uri fileURI() {
-        return Uri.fromFile(mOutputFile);
-    }
-
-    /**
-     * There are a few places in sensor-land where you get the delta of two 9x9 float[] matrices. This pre-allocates two and 
-     *  flips them back and forth between "next" and "last", so you dont have to keep allocating new ones.
-     */
-    private class Flipper {
-        private final float[] mR1 = new float[9], mR2 = new float[9];
-        private final float[][] mR = { mR1,  mR2 };
-        private int mLast = -1;
-
-        public float[] last() {
-            if (mLast == -1) {
-                mLast = 0;
-                return null;
-            } else {
-                return mR[mLast];
-            }
-        }
-
-        public float[] next() {
-            return mR[mLast ^ 1];
-        }
-
-        public void flip() {
-            mLast ^= 1;
-        }
-    }
 }
@@ -1,108 +1,72 @@
 package com.textuality.sensplore;
 
-import java.util.ArrayList;
-
 import android.app.Activity;
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
+/**
+ * Reports tilt to a TiltListener, on the UI thread.  The readings are worked out on Orientation's sensor thread and handed
+ *  over to the UI thread at most one at a time, so if the UI falls behind it skips to the latest.  A RateController drops
+ *  the rate while the device is still, since the level isn't moving then.
+ */
 public class Tilt {
 
-    private SensorManager mManager;
-    private final Average mAverage = new Average(5);
-    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
-    private TiltListener mCustomer;
+    private final Orientation mOrientation;
+    private RateController mRates;
 
     public Tilt(Activity activity) {
-        mManager = (SensorManager) activity.getSystemService(Context.SENSOR_SERVICE);
+        mOrientation = Orientation.get(activity);
     }
 
     public boolean start(TiltListener listener) {
-        Sensor gSensor = mManager.getDefaultSensor(Sensor.TYPE_GRAVITY);
-        mCustomer = listener;
-        if (gSensor != null) {
-            mManager.registerListener(getListener(), gSensor, SensorManager.SENSOR_DELAY_GAME);
-            return true;
-        } else {
-            return false;
-        }    
+        return start(listener, TiltMeter.defaultFilter());
     }
 
-    public void stop() {
-        for (Listener listener : mListeners) {
-            mManager.unregisterListener(listener);
-        }
+    /**
+     * @param filter smoothing for this listener's readings; see Filters
+     */
+    public boolean start(TiltListener listener, Filter filter) {
+        mRates = new RateController("Tilt", mOrientation, new TiltMeter(new TiltHandoff(listener), filter));
+        return mRates.subscribe(Sensor.TYPE_GRAVITY, SensorManager.SENSOR_DELAY_GAME);
     }
 
-    private class Listener implements SensorEventListener {
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {            
-        }
-
-        @Override
-        public void onSensorChanged(SensorEvent event) {
-            switch (event.sensor.getType()) {
-            case Sensor.TYPE_GRAVITY:
-                process(event.values);
-                break;
-            }
+    public void stop() {
+        if (mRates != null) {
+            mRates.stop();
+            mRates.log();
         }
     }
 
-    private void process(float[] values) {
-
-        // avoid NaN's provoked by wonky sensor readings
-        double gy = values[1] / SensorManager.GRAVITY_EARTH;
-        if (gy > 1) {
-            gy = 1;
-        }
-
-        // correct the range so it goes smoothly from 0 to 180 degrees. The X value 
-        //  tells you, roughly speaking, whether youre leaning left or right.  The Y value goes from
-        //  0 at the top to +90 whichever way you lean the device
-        double ay = Math.acos(gy);
-        if (values[0] < 0)
-            ay = (Math.PI/2) - ay;
-        else 
-            ay = (Math.PI/2) + ay;
-        mCustomer.setTilt(mAverage.add(ay));
+    /**
+     * @return events, rate switches and time at each rate, or null if it's never been started
+     */
+    public RateController rates() {
+        return mRates;
     }
 
-    private Listener getListener() {
-        Listener listener = new Listener();
-        mListeners.add(listener);
-        return listener;
-    }
+    private class TiltHandoff extends Handoff implements TiltListener {
+        private final TiltListener mListener;
+        private volatile double mTilt;
+        private volatile long mTimestamp;
+        private volatile long mWorked;
 
-    // smooth out the data, the acos function is jumpy passing through zero values
-    //
-    private class Average {
-        private final int mSize;
-        private final double[] mBuffer;
-        private int mIndex = 0;
-        public Average(int size) {
-            mSize = size;
-            mBuffer = new double[mSize];
-            init();
+        public TiltHandoff(TiltListener listener) {
+            super(mOrientation.dispatchStats());
+            mListener = listener;
         }
-        private void init() {
-            for (int i = 0; i < mSize; i++)
-                mBuffer[i] = 0;
+
+        @Override
+        public void setTilt(double tilt) {
+            mWorked = Latency.TILT.worked();
+            mTimestamp = Latency.timestamp();
+            mTilt = tilt;
+            publish();
         }
-        public double add(double value) {
-            mBuffer[mIndex++] = value;
-            if (mIndex == mSize) {
-                mIndex = 0;
-            }
-            double total = 0;
-            for (double v : mBuffer) {
-                total += v;
-            }
-            return total / mSize;
+
+        @Override
+        protected void deliver() {
+            Latency.TILT.delivered(mTimestamp, mWorked);
+            mListener.setTilt(mTilt);
         }
     }
 }
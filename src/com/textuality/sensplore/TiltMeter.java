@@ -0,0 +1,56 @@
+package com.textuality.sensplore;
+
+import android.hardware.Sensor;
+
+/**
+ * Works out the tilt that Tilt reports from gravity readings, with nothing Android about it except the sensor-type constant,
+ *  so it can be driven by Replay.  Each reading goes through a Filter before it's reported; by default, a 5-reading moving
+ *  average.
+ */
+public class TiltMeter implements SampleSink {
+
+    private static final double GRAVITY_EARTH = 9.80665;   // SensorManager.GRAVITY_EARTH
+
+    private final Filter mFilter;
+    private final TiltListener mListener;
+
+    public TiltMeter(TiltListener listener) {
+        this(listener, defaultFilter());
+    }
+
+    public TiltMeter(TiltListener listener, Filter filter) {
+        mListener = listener;
+        mFilter = filter;
+    }
+
+    // smooth out the data, the acos function is jumpy passing through zero values
+    public static Filter defaultFilter() {
+        return new Filters.MovingAverage(5);
+    }
+
+    @Override
+    public void sample(int type, long timestamp, float[] values) {
+        if (type == Sensor.TYPE_GRAVITY) {
+            mListener.setTilt(mFilter.filter(timestamp, process(values)));
+        }
+    }
+
+    private double process(float[] values) {
+
+        // avoid NaN's provoked by wonky sensor readings
+        double gy = values[1] / GRAVITY_EARTH;
+        if (gy > 1) {
+            gy = 1;
+        }
+
+        // correct the range so it goes smoothly from 0 to 180 degrees. The X value 
+        //  tells you, roughly speaking, whether you're leaning left or right.  The Y value goes from
+        //  0 at the top to +90 whichever way you lean the device
+        double ay = Math.acos(gy);
+        if (values[0] < 0)
+            ay = (Math.PI/2) - ay;
+        else 
+            ay = (Math.PI/2) + ay;
+        return ay;
+    }
+}
@@ -1,20 +1,69 @@
 package com.textuality.sensplore;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
+import android.os.Build;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 
+/**
+ * Shows the tilt as a level.  setTilt() just records the latest reading; drawing happens at most once per display refresh,
+ *  driven by Choreographer (on Jelly Bean and later), with the level easing toward the latest reading over SMOOTHING
+ *  nanoseconds rather than jumping, so readings that arrive faster than the display refreshes cost nothing.  Before Jelly
+ *  Bean, each reading invalidates the view as it always did.
+ *
+ * The circle looks the same at any angle, so it's drawn once into a bitmap and blitted; only the bar is drawn rotated each
+ *  frame.  onDraw allocates nothing, the overlay text included; CostMeter checks that, when it's enabled.
+ *
+ * Tapping the view turns on an overlay with the frame time, the time spent in onDraw, and how many frames have been dropped
+ *  while the level was moving.  A long press runs a benchmark, feeding it synthetic readings at 60 and then 120 per second,
+ *  and reports frames/sec and the mean draw time for each, in the overlay and the log.
+ */
 public class TiltView extends View implements TiltListener {
 
+    // time constant for easing toward the latest reading; 0 shows each reading as it arrives
+    private static final long SMOOTHING = 40 * 1000000L;
+    private static final long FIRST_STEP = 16666667;   // for the first frame after a rest, when there's no interval yet
+    private static final double SETTLED = 0.001;   // radians
+
+    private static final float RADIUS = 75;
+    private static final float BAR_HALF_LENGTH = 152.5f;
+    private static final float STROKE = 5;
+
     private final Paint mCirclePaint = new Paint();
     private final Paint mLinePaint = new Paint();
-    private final Path mCircle = new Path();
-    private final Path mLine = new Path();
+    private final Paint mTextPaint = new Paint();
+    private Bitmap mCircle;
+    private float mCircleOffset;
+    private volatile double mTarget = 0;
     private double mRotation = 0f;
+    private FrameTicker mTicker = null;
+
+    // instrumentation
+    private boolean mOverlay = false;
+    private long mFrameInterval = 0;
+    private long mMinFrameInterval = Long.MAX_VALUE;   // taken to be the refresh period
+    private long mDrawTime = 0;
+    private int mFrames = 0;
+    private int mDropped = 0;
+    private final char[] mText = new char[128];
+    private int mTextLength = 0;
+    private final CostMeter mCost = new CostMeter("TiltView onDraw");
+
+    // benchmark; the draw counts are only written on the UI thread
+    private static final int[] BENCHMARK_RATES = { 60, 120 };
+    private static final long BENCHMARK_NANOS = 5 * 1000000000L;
+    private volatile int mDraws = 0;
+    private volatile long mDrawNanos = 0;
+    private volatile String mBenchmark = null;
+    private Thread mBenchmarkThread = null;
 
     public TiltView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
@@ -34,31 +83,227 @@ public class TiltView extends View implements TiltListener {
         mCirclePaint.setColor(Color.WHITE);
         mCirclePaint.setStrokeWidth(5);
         mCirclePaint.setStyle(Paint.Style.STROKE);
-        
+
+        // the bar used to be a 300x1 rectangle stroked 5 wide, which comes to a 305x6 line
         mLinePaint.setAntiAlias(true);
         mLinePaint.setColor(Color.RED);
-        mLinePaint.setStrokeWidth(5);
+        mLinePaint.setStrokeWidth(STROKE + 1);
+        mLinePaint.setStrokeCap(Paint.Cap.BUTT);
         mLinePaint.setStyle(Paint.Style.STROKE);
 
-        // circle with horizontal bar
-        mCircle.addCircle(0, 0, 75, Path.Direction.CCW);
-        mLine.addRect(-150, 0, 150, 1, Path.Direction.CCW);
+        mTextPaint.setAntiAlias(true);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextSize(24);
+
+        // circle, pre-rendered
+        mCircleOffset = RADIUS + STROKE;
+        final int size = (int) Math.ceil(2 * mCircleOffset);
+        mCircle = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        new Canvas(mCircle).drawCircle(mCircleOffset, mCircleOffset, RADIUS, mCirclePaint);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mTicker = new FrameTicker();
+        }
+        setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mOverlay = !mOverlay;
+                mFrames = mDropped = 0;
+                invalidate();
+            }
+        });
+        setOnLongClickListener(new OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                benchmark();
+                return true;
+            }
+        });
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        int cx = canvas.getWidth() / 2;
-        int cy = canvas.getHeight() / 2;
+        mCost.begin();
+        final long started = System.nanoTime();
+        final int cx = canvas.getWidth() / 2;
+        final int cy = canvas.getHeight() / 2;
+        if (mOverlay) {
+            mTextLength = 0;
+            text("frame ").textMsec(mFrameInterval).text(" msec, draw ").textMsec(mDrawTime).text(" msec, dropped ")
+                    .text(mDropped).text(" of ").text(mFrames);
+            canvas.drawText(mText, 0, mTextLength, 10, 30, mTextPaint);
+            final String benchmark = mBenchmark;
+            if (benchmark != null) {
+                canvas.drawText(benchmark, 10, 60, mTextPaint);
+            }
+        }
+        canvas.save();
         canvas.translate(cx, cy);
-        canvas.rotate((float) Math.toDegrees(mRotation));
-        canvas.drawPath(mCircle, mCirclePaint);
-        canvas.drawPath(mLine, mLinePaint);
+        canvas.drawBitmap(mCircle, -mCircleOffset, -mCircleOffset, null);
+        canvas.rotate((float) (((mTicker == null) ? mTarget : mRotation) * (180 / Math.PI)));
+        canvas.drawLine(-BAR_HALF_LENGTH, 0.5f, BAR_HALF_LENGTH, 0.5f, mLinePaint);
+        canvas.restore();
+        mDrawTime = System.nanoTime() - started;
+        mDrawNanos += mDrawTime;
+        mDraws++;
+        Latency.TILT.drawn();
+        mCost.end();
+    }
+
+    private TiltView text(String s) {
+        final int length = Math.min(s.length(), mText.length - mTextLength);
+        s.getChars(0, length, mText, mTextLength);
+        mTextLength += length;
+        return this;
+    }
+
+    private TiltView text(long value) {
+        if (value >= 10) {
+            text(value / 10);
+        }
+        if (mTextLength < mText.length) {
+            mText[mTextLength++] = (char) ('0' + (value % 10));
+        }
+        return this;
+    }
+
+    /**
+     * Nanoseconds as milliseconds to two places
+     */
+    private TiltView textMsec(long nanos) {
+        final long hundredths = (nanos + 5000) / 10000;
+        text(hundredths / 100).text(".");
+        if (hundredths % 100 < 10) {
+            text("0");
+        }
+        return text(hundredths % 100);
+    }
+
+    /**
+     * Feeds setTilt a swinging level from a background thread at each of BENCHMARK_RATES in turn, for BENCHMARK_NANOS each,
+     *  and counts the frames drawn meanwhile.
+     */
+    private void benchmark() {
+        if (mBenchmarkThread != null && mBenchmarkThread.isAlive()) {
+            return;
+        }
+        mOverlay = true;
+        mBenchmark = "benchmark running";
+        mBenchmarkThread = new Thread("TiltView benchmark") {
+            @Override
+            public void run() {
+                final StringBuilder result = new StringBuilder();
+                try {
+                    for (int rate : BENCHMARK_RATES) {
+                        final int draws = mDraws;
+                        final long drawNanos = mDrawNanos;
+                        final long started = System.nanoTime();
+                        final long interval = 1000000000L / rate;
+                        long now;
+                        while ((now = System.nanoTime()) - started < BENCHMARK_NANOS) {
+                            setTilt(Math.sin((now - started) / 1e9 * Math.PI) - (Math.PI / 2));
+                            Thread.sleep(interval / 1000000, (int) (interval % 1000000));
+                        }
+                        final int frames = mDraws - draws;
+                        result.append(rate).append(" Hz: ").append(String.format("%.1f", frames / (BENCHMARK_NANOS / 1e9)))
+                                .append(" fps, draw ")
+                                .append(String.format("%.2f", (frames == 0) ? 0 : (mDrawNanos - drawNanos) / 1e6 / frames))
+                                .append(" msec   ");
+                        mBenchmark = result.toString();
+                        postInvalidate();
+                    }
+                } catch (InterruptedException e) {
+                    result.append("interrupted");
+                }
+                Log.d(Sensplore.TAG, "TiltView benchmark: " + result);
+            }
+        };
+        mBenchmarkThread.start();
     }
 
+    /**
+     * Safe to call from any thread.
+     */
     @Override
     public void setTilt(double rotation) {
-        mRotation = rotation + (Math.PI/2);
-        invalidate();
+        mTarget = rotation + (Math.PI/2);
+        if (mTicker != null) {
+            mTicker.start();
+        } else {
+            postInvalidate();
+        }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mTicker != null) {
+            mTicker.stop();
+        }
+        if (mBenchmarkThread != null) {
+            mBenchmarkThread.interrupt();
+        }
+        mCost.log();
+    }
+
+    /**
+     * Steps the level toward the latest reading once per frame, for as long as it's moving.  Its own class, since
+     *  Choreographer only exists from Jelly Bean on.
+     */
+    private class FrameTicker implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private long mLastFrame = 0;   // 0 if the last frame didn't ask for this one
+
+        public void start() {
+            if (mScheduled.compareAndSet(false, true)) {
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+
+        public void stop() {
+            mChoreographer.removeFrameCallback(this);
+            mScheduled.set(false);
+            mLastFrame = 0;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            long elapsed = 0;
+            if (mLastFrame != 0) {
+                elapsed = frameTimeNanos - mLastFrame;
+                count(elapsed);
+            }
+            mLastFrame = frameTimeNanos;
+
+            final double target = mTarget;
+            final long step = (elapsed == 0) ? FIRST_STEP : elapsed;
+            mRotation += (target - mRotation) * (1 - Math.exp(-(double) step / SMOOTHING));
+            final boolean settled = (SMOOTHING == 0 || Math.abs(target - mRotation) <= SETTLED);
+            if (settled) {
+                mRotation = target;
+            }
+            invalidate();
+
+            // clear before deciding, so a reading that arrives now still gets a frame
+            mScheduled.set(false);
+            if (!settled || mTarget != target) {
+                start();
+            } else {
+                mLastFrame = 0;
+            }
+        }
+
+        private void count(long interval) {
+            mFrameInterval = interval;
+            mFrames++;
+            if (interval < mMinFrameInterval) {
+                mMinFrameInterval = interval;
+            }
+            // a frame that took more than one and a half refresh periods means the ones in between were missed
+            if (interval * 2 > mMinFrameInterval * 3) {
+                mDropped += (int) ((interval + (mMinFrameInterval / 2)) / mMinFrameInterval) - 1;
+            }
+        }
+    }
 }
@@ -0,0 +1,240 @@
+package com.textuality.sensplore;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * The binary trace format: fixed-width records that are smaller than their CSV rows and can be read back without any
+ *  parsing.  All numbers are little-endian.
+ *
+ *  header:  int magic "SNSP", short version, short flags (FLAG_COMPRESSED or 0), int header length in bytes (counting
+ *           from the start of the file), strings reported-by, model, device, product,
+ *           then an int sensor count and for each sensor:
+ *           int type, string name, string vendor, float resolution, float maximum range, int minimum delay in microseconds.
+ *           Strings are a short byte count followed by UTF-8.
+ *  records: RECORD_SIZE bytes each, up to the footer: int sensor type, int microseconds since the previous record
+ *           (the first record's is its time since the first event of the capture), float x, y, z.
+ *
+ * A compressed trace has blocks instead of records, each holding up to BLOCK_SAMPLES samples for one sensor:
+ *  int sensor type, int sample count, int encoded length in bytes, long microseconds since the first event of the capture
+ *  for the first sample, then the samples encoded by TraceCodec.  Blocks for different sensors are interleaved in the order
+ *  they filled up.
+ *
+ * From version 2, a trace ends with a footer, written when it's closed: for a compressed trace, an index entry per block,
+ *  each a long file offset and a long of the latest microseconds in that block or any before it, so that a binary search
+ *  finds the first block that can hold a given time; then TRAILER_SIZE bytes of long offset of the index (where the samples
+ *  end), int index entries, long samples, long first and last microseconds, int CRC32 of everything in the file before it,
+ *  and int FOOTER_MAGIC.  A trace without one, version 1 or cut short by a crash, runs to the end of the file, less any torn
+ *  record or block; SegmentStore can put the footer back.
+ *
+ * Sensor types are the android.hardware.Sensor ones, plus TYPE_ANGLE_CHANGE for the angle changes that Sensplore computes
+ *  from the rotation vector.
+ */
+public class Trace {
+
+    public static final int MAGIC = 0x534e5350;   // "SNSP"
+    public static final short VERSION = 2;
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    public static final int RECORD_SIZE = 20;
+
+    public static final short FLAG_COMPRESSED = 1;
+    public static final int BLOCK_HEADER_SIZE = 20;
+    public static final int BLOCK_SAMPLES = 1024;
+
+    public static final int FOOTER_MAGIC = 0x45534e53;   // "SNSE"
+    public static final int TRAILER_SIZE = 8 + 4 + 8 + 8 + 8 + 4 + 4;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    public static final int TYPE_ANGLE_CHANGE = 0x10000;
+
+    public static final String EXTENSION = ".trace";
+
+    public static class SensorInfo {
+        public final int mType;
+        public final String mName;
+        public final String mVendor;
+        public final float mResolution;
+        public final float mMaximumRange;
+        public final int mMinDelay;
+
+        public SensorInfo(int type, String name, String vendor, float resolution, float maximumRange, int minDelay) {
+            mType = type;
+            mName = name;
+            mVendor = vendor;
+            mResolution = resolution;
+            mMaximumRange = maximumRange;
+            mMinDelay = minDelay;
+        }
+    }
+
+    public static class Header {
+        public short mVersion = VERSION;
+        public short mFlags = 0;
+        public String mReportedBy = "";
+        public String mModel = "";
+        public String mDevice = "";
+        public String mProduct = "";
+        public final ArrayList<SensorInfo> mSensors = new ArrayList<SensorInfo>();
+
+        public boolean compressed() {
+            return (mFlags & FLAG_COMPRESSED) != 0;
+        }
+
+        /**
+         * @return the header, with its length filled in, ready to be written at the start of the file; always the current
+         *  VERSION
+         */
+        public ByteBuffer encode() {
+            byte[][] strings = new byte[4 + (2 * mSensors.size())][];
+            int length = 4 + 2 + 2 + 4 + 4;
+            int s = 0;
+            for (String string : new String[] { mReportedBy, mModel, mDevice, mProduct }) {
+                strings[s] = utf8(string);
+                length += 2 + strings[s++].length;
+            }
+            for (SensorInfo sensor : mSensors) {
+                strings[s] = utf8(sensor.mName);
+                length += 2 + strings[s++].length;
+                strings[s] = utf8(sensor.mVendor);
+                length += 2 + strings[s++].length;
+                length += 4 + 4 + 4 + 4;
+            }
+
+            ByteBuffer b = ByteBuffer.allocate(length).order(ORDER);
+            b.putInt(MAGIC).putShort(VERSION).putShort(mFlags).putInt(length);
+            s = 0;
+            for (int i = 0; i < 4; i++) {
+                putString(b, strings[s++]);
+            }
+            b.putInt(mSensors.size());
+            for (SensorInfo sensor : mSensors) {
+                b.putInt(sensor.mType);
+                putString(b, strings[s++]);
+                putString(b, strings[s++]);
+                b.putFloat(sensor.mResolution).putFloat(sensor.mMaximumRange).putInt(sensor.mMinDelay);
+            }
+            b.flip();
+            return b;
+        }
+
+        /**
+         * Reads a header from the start of the buffer, leaving its position at the first record.
+         */
+        public static Header decode(ByteBuffer b) {
+            b.order(ORDER);
+            try {
+                if (b.getInt() != MAGIC) {
+                    throw new IllegalArgumentException("not a Sensplore trace");
+                }
+                short version = b.getShort();
+                if (version < 1 || version > VERSION) {
+                    throw new IllegalArgumentException("unsupported trace version " + version);
+                }
+                final short flags = b.getShort();
+                if ((flags & ~FLAG_COMPRESSED) != 0) {
+                    throw new IllegalArgumentException("unsupported trace flags " + flags);
+                }
+                final int length = b.getInt();
+                Header header = new Header();
+                header.mVersion = version;
+                header.mFlags = flags;
+                header.mReportedBy = getString(b);
+                header.mModel = getString(b);
+                header.mDevice = getString(b);
+                header.mProduct = getString(b);
+                final int count = b.getInt();
+                for (int i = 0; i < count; i++) {
+                    int type = b.getInt();
+                    String name = getString(b);
+                    String vendor = getString(b);
+                    header.mSensors.add(new SensorInfo(type, name, vendor, b.getFloat(), b.getFloat(), b.getInt()));
+                }
+                b.position(length);
+                return header;
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("truncated trace header");
+            }
+        }
+    }
+
+    /**
+     * The end of a version 2 trace; see above.  The index entries are left in the file until someone wants to seek.
+     */
+    public static class Footer {
+        public long mIndexStart = 0;
+        public int mEntries = 0;
+        public long mRecords = 0;
+        public long mFirstMicros = 0;
+        public long mLastMicros = 0;
+        public int mCrc = 0;
+
+        /**
+         * @param offsets index entries, mEntries of them
+         * @param crc already updated with every byte of the file up to mIndexStart; this adds the rest
+         * @return the index and trailer, with mCrc filled in, ready to be written at mIndexStart
+         */
+        public ByteBuffer encode(long[] offsets, long[] micros, CRC32 crc) {
+            ByteBuffer b = ByteBuffer.allocate((mEntries * INDEX_ENTRY_SIZE) + TRAILER_SIZE).order(ORDER);
+            for (int i = 0; i < mEntries; i++) {
+                b.putLong(offsets[i]).putLong(micros[i]);
+            }
+            b.putLong(mIndexStart).putInt(mEntries).putLong(mRecords).putLong(mFirstMicros).putLong(mLastMicros);
+            crc.update(b.array(), 0, b.position());
+            mCrc = (int) crc.getValue();
+            b.putInt(mCrc).putInt(FOOTER_MAGIC);
+            b.flip();
+            return b;
+        }
+
+        /**
+         * @param b the last TRAILER_SIZE bytes of the file, from its position
+         * @param size of the file
+         * @return the footer, or null if there isn't a sound one
+         */
+        public static Footer decode(ByteBuffer b, long size) {
+            b.order(ORDER);
+            final int start = b.position();
+            if (b.getInt(start + TRAILER_SIZE - 4) != FOOTER_MAGIC) {
+                return null;
+            }
+            Footer footer = new Footer();
+            footer.mIndexStart = b.getLong();
+            footer.mEntries = b.getInt();
+            footer.mRecords = b.getLong();
+            footer.mFirstMicros = b.getLong();
+            footer.mLastMicros = b.getLong();
+            footer.mCrc = b.getInt();
+            if (footer.mEntries < 0 || footer.mIndexStart < 0 ||
+                    footer.mIndexStart + ((long) footer.mEntries * INDEX_ENTRY_SIZE) + TRAILER_SIZE != size) {
+                return null;
+            }
+            return footer;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return ((s == null) ? "" : s).getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void putString(ByteBuffer b, byte[] bytes) {
+        b.putShort((short) bytes.length);
+        b.put(bytes);
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getShort() & 0xffff];
+        b.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
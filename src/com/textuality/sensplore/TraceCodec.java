@@ -0,0 +1,197 @@
+package com.textuality.sensplore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression for blocks of trace samples, along the lines of Facebook's Gorilla: the timestamps come at a nearly constant
+ *  rate, so their delta-of-deltas are mostly zero or tiny, and successive readings from limited-precision hardware share
+ *  most of their bits, so XORing each float with the one before leaves a short run of meaningful bits.  It's lossless.
+ *
+ *  timestamps: the first is in the block header; then each delta-of-delta, in microseconds, is
+ *              '0' for zero, '10' + 7 bits, '110' + 9 bits, '1110' + 12 bits, or '1111' + 64 bits, all two's complement
+ *  each float: the first is 32 raw bits; then the XOR with the previous value is '0' if it's zero, otherwise '1' and either
+ *              '0' + the meaningful bits, if they fit inside the previous value's window, or '1' + 5 bits of leading zeros
+ *              + 5 bits of (meaningful length - 1) + the meaningful bits
+ */
+public class TraceCodec {
+
+    /**
+     * @return the most bytes a block of count samples can take
+     */
+    public static int maxEncodedSize(int count) {
+        return (count * 26) + 8;   // 68 timestamp bits plus three 44-bit floats, worst case
+    }
+
+    /**
+     * Encodes count samples; the first timestamp isn't included since it goes in the block header.
+     *
+     * @return number of bytes written to out, starting at its position, which is advanced
+     */
+    public static int encode(long[] micros, float[] x, float[] y, float[] z, int count, ByteBuffer out) {
+        final int start = out.position();
+        BitWriter bits = new BitWriter(out);
+        long lastDelta = 0;
+        for (int i = 1; i < count; i++) {
+            final long delta = micros[i] - micros[i - 1];
+            final long dod = delta - lastDelta;
+            lastDelta = delta;
+            if (dod == 0) {
+                bits.write(0, 1);
+            } else if (dod >= -64 && dod < 64) {
+                bits.write(0x2, 2);
+                bits.write(dod, 7);
+            } else if (dod >= -256 && dod < 256) {
+                bits.write(0x6, 3);
+                bits.write(dod, 9);
+            } else if (dod >= -2048 && dod < 2048) {
+                bits.write(0xe, 4);
+                bits.write(dod, 12);
+            } else {
+                bits.write(0xf, 4);
+                bits.write(dod >>> 32, 32);
+                bits.write(dod, 32);
+            }
+        }
+        encodeFloats(x, count, bits);
+        encodeFloats(y, count, bits);
+        encodeFloats(z, count, bits);
+        bits.flush();
+        return out.position() - start;
+    }
+
+    /**
+     * Inverse of encode; micros[0] must already hold the block's first timestamp.
+     *
+     * @param offset where the encoded bytes start in in, whose position isn't touched
+     */
+    public static void decode(ByteBuffer in, int offset, int count, long[] micros, float[] x, float[] y, float[] z) {
+        BitReader bits = new BitReader(in, offset);
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            long dod;
+            if (bits.read(1) == 0) {
+                dod = 0;
+            } else if (bits.read(1) == 0) {
+                dod = bits.readSigned(7);
+            } else if (bits.read(1) == 0) {
+                dod = bits.readSigned(9);
+            } else if (bits.read(1) == 0) {
+                dod = bits.readSigned(12);
+            } else {
+                dod = (bits.read(32) << 32) | bits.read(32);
+            }
+            delta += dod;
+            micros[i] = micros[i - 1] + delta;
+        }
+        decodeFloats(x, count, bits);
+        decodeFloats(y, count, bits);
+        decodeFloats(z, count, bits);
+    }
+
+    private static void encodeFloats(float[] values, int count, BitWriter bits) {
+        if (count == 0) {
+            return;
+        }
+        int last = Float.floatToRawIntBits(values[0]);
+        bits.write(last, 32);
+        int leading = -1, trailing = 0;
+        for (int i = 1; i < count; i++) {
+            final int value = Float.floatToRawIntBits(values[i]);
+            final int xor = value ^ last;
+            last = value;
+            if (xor == 0) {
+                bits.write(0, 1);
+                continue;
+            }
+            bits.write(1, 1);
+            final int lz = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+            final int tz = Integer.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lz >= leading && tz >= trailing) {
+                bits.write(0, 1);
+                bits.write(xor >>> trailing, 32 - leading - trailing);
+            } else {
+                leading = lz;
+                trailing = tz;
+                final int length = 32 - leading - trailing;
+                bits.write(1, 1);
+                bits.write(leading, 5);
+                bits.write(length - 1, 5);
+                bits.write(xor >>> trailing, length);
+            }
+        }
+    }
+
+    private static void decodeFloats(float[] values, int count, BitReader bits) {
+        if (count == 0) {
+            return;
+        }
+        int last = (int) bits.read(32);
+        values[0] = Float.intBitsToFloat(last);
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (bits.read(1) != 0) {
+                if (bits.read(1) != 0) {
+                    leading = (int) bits.read(5);
+                    trailing = 32 - leading - ((int) bits.read(5) + 1);
+                }
+                last ^= ((int) bits.read(32 - leading - trailing)) << trailing;
+            }
+            values[i] = Float.intBitsToFloat(last);
+        }
+    }
+
+    private static class BitWriter {
+        private final ByteBuffer mOut;
+        private long mBits = 0;
+        private int mCount = 0;
+
+        public BitWriter(ByteBuffer out) {
+            mOut = out;
+        }
+
+        /**
+         * Writes the low n bits of value, 1 <= n <= 32.
+         */
+        public void write(long value, int n) {
+            mBits = (mBits << n) | (value & ((1L << n) - 1));
+            mCount += n;
+            while (mCount >= 8) {
+                mCount -= 8;
+                mOut.put((byte) (mBits >>> mCount));
+            }
+        }
+
+        public void flush() {
+            if (mCount > 0) {
+                mOut.put((byte) (mBits << (8 - mCount)));
+                mCount = 0;
+            }
+        }
+    }
+
+    private static class BitReader {
+        private final ByteBuffer mIn;
+        private int mOffset;
+        private long mBits = 0;
+        private int mCount = 0;
+
+        public BitReader(ByteBuffer in, int offset) {
+            mIn = in;
+            mOffset = offset;
+        }
+
+        public long read(int n) {
+            while (mCount < n) {
+                mBits = (mBits << 8) | (mIn.get(mOffset++) & 0xff);
+                mCount += 8;
+            }
+            mCount -= n;
+            return (mBits >>> mCount) & ((1L << n) - 1);
+        }
+
+        public long readSigned(int n) {
+            final long value = read(n);
+            return (value << (64 - n)) >> (64 - n);
+        }
+    }
+}
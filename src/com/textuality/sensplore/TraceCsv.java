@@ -0,0 +1,464 @@
+package com.textuality.sensplore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The CSV layouts Sensplore mails out, and turning a binary trace back into them.  For the CLASSIC profile, the layout it
+ *  has always had: linear acceleration on the left, angle change on the right, matched up by row; for other profiles, every
+ *  sample on a line of its own, in time order, with the stream's label.  Works off a cursor per stream on the same mapping,
+ *  so it takes no memory to speak of however long the trace is.
+ *
+ * Or, with exportAligned(), into rows on a common timeline, every stream resampled to the same instants by a Resampler, so
+ *  they can be analyzed without joining them up first.
+ *
+ * exportSegments() writes a SegmentWriter's series of traces out as one CSV.
+ *
+ * From a plain JVM: java com.textuality.sensplore.TraceCsv in.trace out.csv [msec between aligned rows]
+ */
+public class TraceCsv {
+
+    /**
+     * The two lines at the top of every Sensplore CSV
+     */
+    public static void writePreamble(Trace.Header header, PrintStream p) {
+        p.println("Reported by: " + header.mReportedBy +
+                " System: " + header.mModel +
+                " (" + header.mDevice + "/" + header.mProduct + ")" +
+                ",,,,,,,,");
+        p.println(",,,,,,,,");
+    }
+
+    /////////////////////////////////////////////////////
+    // Side by side
+
+    /**
+     * Stream names over their columns, then the column headings; for CLASSIC, exactly the lines Sensplore always wrote.
+     */
+    private static void writeSideBySideHeadings(int[] types, PrintStream p) {
+        final StringBuilder names = new StringBuilder(), headings = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                names.append(",, ");
+                headings.append(",, ");
+            }
+            names.append(CaptureProfile.name(types[i]));
+            headings.append("t (msec)");
+            appendValueHeadings(types[i], ",", headings, names);
+        }
+        p.println(names);
+        p.println(headings);
+    }
+
+    private static void appendValueHeadings(int type, String separator, StringBuilder headings, StringBuilder names) {
+        final String label = CaptureProfile.label(type);
+        if (CaptureProfile.values(type) == 1) {
+            headings.append(separator).append(label);
+            names.append(',');
+        } else {
+            headings.append(separator).append(label).append(" x, ").append(label).append(" y, ").append(label).append(" z");
+            names.append(",,,");
+        }
+    }
+
+    /**
+     * A sample's time and as many of its values as the type has.
+     */
+    private static void appendSample(CsvRow row, int type, long when, float x, float y, float z) {
+        if (CaptureProfile.values(type) == 1) {
+            row.appendTime(when).append(", ").appendTwoPlaces(x);
+        } else {
+            row.appendSample(when, x, y, z);
+        }
+    }
+
+    /**
+     * Writes the column headings and one row per sample of the busiest stream, the others alongside, matched by row.
+     *
+     * @return number of rows written
+     */
+    public static int export(TraceReader trace, int[] types, PrintStream p) throws IOException {
+        writeSideBySideHeadings(types, p);
+        final Chain[] chains = new Chain[types.length];
+        for (int i = 0; i < types.length; i++) {
+            chains[i] = new Chain(trace, types[i]);
+        }
+        return sideBySideRows(chains, types, p);
+    }
+
+    private static int sideBySideRows(Chain[] chains, int[] types, PrintStream p) throws IOException {
+        final boolean[] have = new boolean[types.length];
+        boolean any = false;
+        for (int i = 0; i < types.length; i++) {
+            have[i] = chains[i].next();
+            any |= have[i];
+        }
+        final CsvRow row = new CsvRow();
+        int rows = 0;
+        while (any) {
+            any = false;
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    row.append(",, ");
+                }
+                if (have[i]) {
+                    final TraceReader.Cursor c = chains[i].cursor();
+                    appendSample(row, types[i], c.when(), c.x(), c.y(), c.z());
+                    have[i] = chains[i].next();
+                    any |= have[i];
+                }
+            }
+            row.writeLine(p);
+            rows++;
+        }
+        return rows;
+    }
+
+    /////////////////////////////////////////////////////
+    // Merged
+
+    private static void writeMergedHeadings(PrintStream p) {
+        p.println("Merged in time order,,,,");
+        p.println("t (msec),Sensor,x,y,z");
+    }
+
+    /**
+     * One sample on a line of its own: time, label, values.
+     */
+    private static void appendMerged(CsvRow row, int type, long when, float x, float y, float z) {
+        row.appendTime(when).append(',').append(CaptureProfile.label(type));
+        row.append(", ").appendTwoPlaces(x);
+        if (CaptureProfile.values(type) == 3) {
+            row.append(", ").appendTwoPlaces(y);
+            row.append(", ").appendTwoPlaces(z);
+        }
+    }
+
+    /**
+     * Writes the column headings and every sample of the given types, in time order.
+     *
+     * @return number of rows written
+     */
+    public static long exportMerged(TraceReader trace, int[] types, PrintStream p) throws IOException {
+        writeMergedHeadings(p);
+        return mergedRows(trace, types, p);
+    }
+
+    private static long mergedRows(TraceReader trace, int[] types, PrintStream p) throws IOException {
+        final Merge merge = new Merge(trace, types);
+        final CsvRow row = new CsvRow();
+        long rows = 0;
+        int stream;
+        while ((stream = merge.next()) >= 0) {
+            final TraceReader.Cursor c = merge.cursor(stream);
+            appendMerged(row, types[stream], c.when(), c.x(), c.y(), c.z());
+            row.writeLine(p);
+            rows++;
+        }
+        return rows;
+    }
+
+    /////////////////////////////////////////////////////
+    // Aligned
+
+    /**
+     * Writes the column headings and a row every period nanoseconds, with every stream resampled to it.  One pass, merging
+     *  the cursors in time order, so the Resampler has only a row or two waiting at a time.
+     *
+     * @param mode Resampler.NEAREST or Resampler.LINEAR
+     * @return number of rows written
+     */
+    public static long exportAligned(TraceReader trace, int[] types, PrintStream p, long period, int mode)
+            throws IOException {
+        final AlignedWriter writer = new AlignedWriter(p, types, period, mode);
+        alignedRows(trace, types, writer);
+        return writer.rowsWritten();
+    }
+
+    private static void alignedRows(TraceReader trace, int[] types, AlignedWriter writer) throws IOException {
+        final Merge merge = new Merge(trace, types);
+        int stream;
+        while ((stream = merge.next()) >= 0) {
+            final TraceReader.Cursor c = merge.cursor(stream);
+            writer.sample(stream, c.when(), c.x(), c.y(), c.z());
+        }
+    }
+
+    /**
+     * Takes samples for each of the types, and writes them out as CSV rows on a common timeline; it writes the column
+     *  headings as it's constructed.  Streams of changes, like the angle changes, get the change over the period.
+     */
+    private static class AlignedWriter extends Resampler {
+
+        private final PrintStream mOut;
+        private final int[] mTypes;
+        private final CsvRow mRow = new CsvRow();
+
+        /**
+         * @param types for each stream, which is the index given to sample()
+         */
+        public AlignedWriter(PrintStream out, int[] types, long period, int mode) {
+            super(period, mode, changes(types));
+            mOut = out;
+            mTypes = types.clone();
+            final StringBuilder names = new StringBuilder(), headings = new StringBuilder("t (msec)");
+            names.append("Aligned every ").append(period / 1e6).append(" msec (")
+                    .append((mode == LINEAR) ? "linear" : "nearest").append(')');
+            for (int i = 0; i < types.length; i++) {
+                appendValueHeadings(types[i], (i == 0) ? "," : ", ", headings, names);
+            }
+            out.println(names);
+            out.println(headings);
+        }
+
+        private static boolean[] changes(int[] types) {
+            final boolean[] changes = new boolean[types.length];
+            for (int i = 0; i < types.length; i++) {
+                changes[i] = CaptureProfile.changes(types[i]);
+            }
+            return changes;
+        }
+
+        @Override
+        protected void row(long when, float[] values) throws IOException {
+            mRow.appendTime(when);
+            for (int i = 0; i < mTypes.length; i++) {
+                final int v = i * 3;
+                mRow.append(", ").appendTwoPlaces(values[v]);
+                if (CaptureProfile.values(mTypes[i]) == 3) {
+                    mRow.append(", ").appendTwoPlaces(values[v + 1]);
+                    mRow.append(", ").appendTwoPlaces(values[v + 2]);
+                }
+            }
+            mRow.writeLine(mOut);
+        }
+    }
+
+    /////////////////////////////////////////////////////
+    // Reading the streams
+
+    private static TraceReader.Cursor[] cursors(TraceReader trace, int[] types) {
+        final TraceReader.Cursor[] cursors = new TraceReader.Cursor[types.length];
+        for (int i = 0; i < types.length; i++) {
+            cursors[i] = trace.cursor(types[i]);
+        }
+        return cursors;
+    }
+
+    /**
+     * A cursor over one type's samples that carries on from one trace to the next, for side-by-side rows that don't start
+     *  afresh at each segment.
+     */
+    private static class Chain {
+        private final File[] mFiles;
+        private final int mType;
+        private int mNext = 0;
+        private TraceReader mReader = null;
+        private TraceReader.Cursor mCursor;
+
+        Chain(TraceReader trace, int type) {
+            mFiles = new File[0];
+            mType = type;
+            mCursor = trace.cursor(type);
+        }
+
+        Chain(File[] files, int type) {
+            mFiles = files;
+            mType = type;
+            mCursor = null;
+        }
+
+        boolean next() throws IOException {
+            while (mCursor == null || !mCursor.next()) {
+                close();
+                if (mNext == mFiles.length) {
+                    mCursor = null;
+                    return false;
+                }
+                mReader = new TraceReader(mFiles[mNext++]);
+                mCursor = mReader.cursor(mType);
+            }
+            return true;
+        }
+
+        TraceReader.Cursor cursor() {
+            return mCursor;
+        }
+
+        /**
+         * Closes the trace it opened, if any; one it was given is the caller's.
+         */
+        void close() throws IOException {
+            if (mReader != null) {
+                mReader.close();
+                mReader = null;
+            }
+        }
+    }
+
+    /**
+     * A cursor per stream, merged in time order; next() says which stream has the earliest sample, and leaves its cursor on
+     *  it.  With a dozen streams at most, picking the earliest is a scan, not a heap.
+     */
+    private static class Merge {
+        private final TraceReader.Cursor[] mCursors;
+        private final boolean[] mHave;
+        private int mLast = -1;
+
+        Merge(TraceReader trace, int[] types) throws IOException {
+            mCursors = cursors(trace, types);
+            mHave = new boolean[types.length];
+            for (int i = 0; i < types.length; i++) {
+                mHave[i] = mCursors[i].next();
+            }
+        }
+
+        /**
+         * @return the stream with the earliest sample, or -1 when they're all done
+         */
+        int next() throws IOException {
+            if (mLast >= 0) {
+                mHave[mLast] = mCursors[mLast].next();
+            }
+            mLast = -1;
+            for (int i = 0; i < mCursors.length; i++) {
+                if (mHave[i] && (mLast < 0 || mCursors[i].when() < mCursors[mLast].when())) {
+                    mLast = i;
+                }
+            }
+            return mLast;
+        }
+
+        TraceReader.Cursor cursor(int stream) {
+            return mCursors[stream];
+        }
+    }
+
+    /**
+     * @return the profile whose streams are just the types in the trace, or a merged one with them all, in type order
+     */
+    public static CaptureProfile profile(TraceReader trace) throws IOException {
+        final ArrayList<Integer> found = new ArrayList<Integer>();
+        final TraceReader.Cursor cursor = trace.cursor();
+        while (cursor.next()) {
+            if (!found.contains(cursor.type())) {
+                found.add(cursor.type());
+            }
+        }
+        final int[] types = new int[found.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = found.get(i);
+        }
+        Arrays.sort(types);
+        for (CaptureProfile profile : CaptureProfile.PROFILES) {
+            final int[] theirs = profile.types();
+            Arrays.sort(theirs);
+            if (Arrays.equals(types, theirs)) {
+                return profile;
+            }
+        }
+        final int[][] streams = new int[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            streams[i] = new int[] { types[i], 0 };
+        }
+        return new CaptureProfile("From the trace", false, streams);
+    }
+
+    /**
+     * Writes the trace out in its profile's layout.
+     *
+     * @return number of rows written
+     */
+    public static long export(TraceReader trace, CaptureProfile profile, PrintStream p) throws IOException {
+        return profile.sideBySide() ? export(trace, profile.types(), p) : exportMerged(trace, profile.types(), p);
+    }
+
+    /////////////////////////////////////////////////////
+    // Segments
+
+    /**
+     * Writes a capture that a SegmentWriter recorded as a series of traces out as one CSV: the preamble and headings once,
+     *  then each segment's samples in turn, in the profile's layout or, if period isn't 0, on one common timeline across all
+     *  of them.  The output is just what exporting one trace with all the samples in it would give.
+     *
+     * @param period nanoseconds between aligned rows, or 0
+     * @return number of rows written
+     */
+    public static long exportSegments(File[] segments, CaptureProfile profile, PrintStream p, long period)
+            throws IOException {
+        final int[] types = profile.types();
+        if (segments.length == 0) {
+            return 0;
+        }
+        if (profile.sideBySide() && period == 0) {
+            final TraceReader first = new TraceReader(segments[0]);
+            try {
+                writePreamble(first.header(), p);
+            } finally {
+                first.close();
+            }
+            writeSideBySideHeadings(types, p);
+            final Chain[] chains = new Chain[types.length];
+            for (int i = 0; i < types.length; i++) {
+                chains[i] = new Chain(segments, types[i]);
+            }
+            try {
+                return sideBySideRows(chains, types, p);
+            } finally {
+                for (Chain chain : chains) {
+                    chain.close();
+                }
+            }
+        }
+        AlignedWriter aligned = null;
+        long rows = 0;
+        for (int i = 0; i < segments.length; i++) {
+            final TraceReader trace = new TraceReader(segments[i]);
+            try {
+                if (i == 0) {
+                    writePreamble(trace.header(), p);
+                    if (period > 0) {
+                        aligned = new AlignedWriter(p, types, period, Resampler.LINEAR);
+                    } else {
+                        writeMergedHeadings(p);
+                    }
+                }
+                if (aligned != null) {
+                    alignedRows(trace, types, aligned);
+                } else {
+                    rows += mergedRows(trace, types, p);
+                }
+            } finally {
+                trace.close();
+            }
+        }
+        return (aligned != null) ? aligned.rowsWritten() : rows;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: TraceCsv in.trace out.csv [msec between aligned rows]");
+            System.exit(1);
+        }
+        TraceReader trace = new TraceReader(new File(args[0]));
+        PrintStream p = new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1]), 64 * 1024));
+        try {
+            writePreamble(trace.header(), p);
+            final CaptureProfile profile = profile(trace);
+            if (args.length == 3) {
+                final long period = Math.round(Double.parseDouble(args[2]) * 1e6);
+                System.out.println(exportAligned(trace, profile.types(), p, period, Resampler.LINEAR) + " rows");
+            } else {
+                System.out.println(export(trace, profile, p) + " rows");
+            }
+        } finally {
+            p.close();
+            trace.close();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a binary trace (see Trace) by memory-mapping it, so the records are never copied; a Cursor reads the fields
+ *  straight out of the mapping.  Compressed traces are decoded a block at a time into arrays the Cursor keeps.  A
+ *  MappedByteBuffer can't be bigger than 2G, so long traces are mapped a window at a time: for records, each window is a
+ *  whole number of them; for blocks, a window starts at a block and is mapped afresh from the next one that doesn't fit
+ *  in it, so each block is read whole from one window.  Any number of cursors can walk the same reader independently,
+ *  but each Cursor belongs to one thread.
+ *
+ * If the trace has a footer, the samples stop where it starts, and a Cursor over a compressed trace can seek() to a time
+ *  with a binary search of the footer's block index; otherwise seeking reads from the start.  verify() checks the footer's
+ *  CRC.
+ *
+ * Nothing in here depends on Android, so it can be used off-device to pull traces apart.
+ */
+public class TraceReader {
+
+    private static final long WINDOW_RECORDS = 1 << 24;   // 320M per mapping
+    private static final long WINDOW_BYTES = WINDOW_RECORDS * Trace.RECORD_SIZE;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Trace.Header mHeader;
+    private final long mDataStart;
+    private final long mSize;
+    private final long mDataEnd;
+    private final Trace.Footer mFooter;
+    private final boolean mCompressed;
+    private long mRecords = -1;
+    private long[] mIndexOffsets = null;
+    private long[] mIndexMicros = null;
+
+    public TraceReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            mSize = mChannel.size();
+            final MappedByteBuffer start = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(mSize, 64 * 1024));
+            mHeader = Trace.Header.decode(start);
+            mDataStart = start.position();
+            mCompressed = mHeader.compressed();
+            if (mHeader.mVersion >= 2 && mSize >= mDataStart + Trace.TRAILER_SIZE) {
+                mFooter = Trace.Footer.decode(mChannel.map(FileChannel.MapMode.READ_ONLY, mSize - Trace.TRAILER_SIZE,
+                        Trace.TRAILER_SIZE), mSize);
+            } else {
+                mFooter = null;
+            }
+            mDataEnd = (mFooter != null) ? mFooter.mIndexStart : mSize;
+            if (!mCompressed) {
+                mRecords = (mDataEnd - mDataStart) / Trace.RECORD_SIZE;   // a torn last record is ignored
+            } else if (mFooter != null) {
+                mRecords = mFooter.mRecords;
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public Trace.Header header() {
+        return mHeader;
+    }
+
+    /**
+     * @return how many samples the trace holds; for a compressed trace, this hops through the block headers to count them
+     */
+    public long records() throws IOException {
+        if (mRecords < 0) {
+            long records = 0;
+            Cursor cursor = new Cursor(0, false);
+            while (cursor.nextBlock()) {
+                records += cursor.mBlockCount;
+            }
+            mRecords = records;
+        }
+        return mRecords;
+    }
+
+    /**
+     * @return the footer, or null if the trace hasn't got one: version 1, or not closed properly
+     */
+    public Trace.Footer footer() {
+        return mFooter;
+    }
+
+    /**
+     * @return where the samples start and end, as file offsets
+     */
+    public long dataStart() {
+        return mDataStart;
+    }
+
+    public long dataEnd() {
+        return mDataEnd;
+    }
+
+    /**
+     * Reads the whole file to check it against the footer's CRC.
+     *
+     * @return false if it doesn't match, or there's no footer
+     */
+    public boolean verify() throws IOException {
+        if (mFooter == null) {
+            return false;
+        }
+        return (int) crc(mChannel, mSize - 8).getValue() == mFooter.mCrc;
+    }
+
+    /**
+     * @return the CRC32 of the first length bytes of the channel, ready to take more
+     */
+    public static CRC32 crc(FileChannel channel, long length) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] bytes = new byte[64 * 1024];
+        for (long position = 0; position < length; position += WINDOW_BYTES) {
+            final ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(WINDOW_BYTES, length - position));
+            while (window.hasRemaining()) {
+                final int n = Math.min(bytes.length, window.remaining());
+                window.get(bytes, 0, n);
+                crc.update(bytes, 0, n);
+            }
+        }
+        return crc;
+    }
+
+    /**
+     * @return the file offset of the first block that can have samples at or after micros, or -1 if there's no index
+     */
+    private synchronized long blockFor(long micros) throws IOException {
+        if (!mCompressed || mFooter == null) {
+            return -1;
+        }
+        if (mIndexOffsets == null) {
+            final ByteBuffer index = mChannel.map(FileChannel.MapMode.READ_ONLY, mFooter.mIndexStart,
+                    (long) mFooter.mEntries * Trace.INDEX_ENTRY_SIZE).order(Trace.ORDER);
+            mIndexOffsets = new long[mFooter.mEntries];
+            mIndexMicros = new long[mFooter.mEntries];
+            for (int i = 0; i < mFooter.mEntries; i++) {
+                mIndexOffsets[i] = index.getLong();
+                mIndexMicros[i] = index.getLong();
+            }
+        }
+        // the entries' times never go down, so the first one that reaches micros
+        int low = 0, high = mIndexMicros.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mIndexMicros[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < mIndexOffsets.length) ? mIndexOffsets[low] : mDataEnd;
+    }
+
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    /**
+     * @return a cursor over every record
+     */
+    public Cursor cursor() {
+        return new Cursor(0, false);
+    }
+
+    /**
+     * @return a cursor over the records for one sensor type; in a compressed trace, other sensors' blocks are skipped
+     *  without being decoded
+     */
+    public Cursor cursor(int type) {
+        return new Cursor(type, true);
+    }
+
+    public class Cursor {
+        private final int mType;
+        private final boolean mFiltered;
+        private ByteBuffer mWindow = null;
+        private long mWindowStart = 0;    // file offset
+        private int mOffset = 0;          // of the current record, in mWindow
+        private long mMicros = 0;
+        private long mSeekMicros = Long.MIN_VALUE;
+
+        // uncompressed
+        private long mIndex = -1;
+
+        // compressed; the current block is decoded into these
+        private long mBlockStart;         // file offset of the next block
+        private int mBlockType = 0;
+        private int mBlockCount = 0;
+        private int mBlockIndex = 0;
+        private long[] mBlockMicros = null;
+        private float[] mBlockX, mBlockY, mBlockZ;
+
+        private Cursor(int type, boolean filtered) {
+            mType = type;
+            mFiltered = filtered;
+            mBlockStart = mDataStart;
+        }
+
+        /**
+         * Moves to the next record.
+         *
+         * @return false at the end of the trace
+         */
+        public boolean next() throws IOException {
+            while (step()) {
+                if (mSeekMicros == Long.MIN_VALUE || micros() >= mSeekMicros) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves back or forward so that next() skips the records before the time.  For a compressed trace with a footer, it
+         *  starts at the block the index says, so there are at most a few blocks to skip through; otherwise it starts from
+         *  the beginning.  A compressed trace's records come a block at a time, in time order only within each type, so it's
+         *  a cursor(type) that seeks to exactly the first of its records at or after the time.
+         *
+         * @param when nanoseconds since the first event of the capture
+         */
+        public void seek(long when) throws IOException {
+            mSeekMicros = (when + 999) / 1000;
+            mIndex = -1;
+            mMicros = 0;
+            mBlockCount = 0;
+            mBlockIndex = 0;
+            final long block = blockFor(mSeekMicros);
+            mBlockStart = (block < 0) ? mDataStart : block;
+        }
+
+        private long micros() {
+            return mCompressed ? mBlockMicros[mBlockIndex] : mMicros;
+        }
+
+        private boolean step() throws IOException {
+            if (mCompressed) {
+                while (++mBlockIndex >= mBlockCount) {
+                    if (!nextBlock() || !decodeBlock()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            while (++mIndex < mRecords) {
+                final long position = mDataStart + (mIndex * Trace.RECORD_SIZE);
+                if (mWindow == null || position + Trace.RECORD_SIZE > mWindowStart + mWindow.capacity()) {
+                    map(position, WINDOW_RECORDS * Trace.RECORD_SIZE);
+                }
+                mOffset = (int) (position - mWindowStart);
+                mMicros += mWindow.getInt(mOffset + 4);
+                if (!mFiltered || mWindow.getInt(mOffset) == mType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reads the next block header (of the right type, if filtered), leaving mOffset at its start.
+         */
+        private boolean nextBlock() throws IOException {
+            while (true) {
+                if (!mapped(mBlockStart, Trace.BLOCK_HEADER_SIZE)) {
+                    return false;
+                }
+                mOffset = (int) (mBlockStart - mWindowStart);
+                mBlockType = mWindow.getInt(mOffset);
+                mBlockCount = mWindow.getInt(mOffset + 4);
+                final long length = Trace.BLOCK_HEADER_SIZE + (mWindow.getInt(mOffset + 8) & 0xffffffffL);
+                final long start = mBlockStart;
+                mBlockStart += length;
+                if (!mFiltered || mBlockType == mType) {
+                    mBlockIndex = -1;
+                    return mapped(start, length);   // false for a torn last block
+                }
+            }
+        }
+
+        private boolean decodeBlock() {
+            if (mBlockMicros == null || mBlockMicros.length < mBlockCount) {
+                final int size = Math.max(mBlockCount, Trace.BLOCK_SAMPLES);
+                mBlockMicros = new long[size];
+                mBlockX = new float[size];
+                mBlockY = new float[size];
+                mBlockZ = new float[size];
+            }
+            mBlockMicros[0] = mWindow.getLong(mOffset + 12);
+            TraceCodec.decode(mWindow, mOffset + Trace.BLOCK_HEADER_SIZE, mBlockCount, mBlockMicros, mBlockX, mBlockY,
+                    mBlockZ);
+            return true;
+        }
+
+        /**
+         * Makes sure length bytes from position are in the window.
+         *
+         * @return false if the file isn't that long
+         */
+        private boolean mapped(long position, long length) throws IOException {
+            if (position + length > mDataEnd) {
+                return false;
+            }
+            if (mWindow == null || position < mWindowStart || position + length > mWindowStart + mWindow.capacity()) {
+                map(position, Math.max(length, WINDOW_BYTES));
+                mOffset = (int) (position - mWindowStart);
+            }
+            return true;
+        }
+
+        private void map(long position, long length) throws IOException {
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(length, mDataEnd - position))
+                    .order(Trace.ORDER);
+            mWindowStart = position;
+        }
+
+        public int type() {
+            return mCompressed ? mBlockType : mWindow.getInt(mOffset);
+        }
+
+        /**
+         * @return nanoseconds since the first event of the capture, to the nearest microsecond
+         */
+        public long when() {
+            return micros() * 1000;
+        }
+
+        public float x() {
+            return mCompressed ? mBlockX[mBlockIndex] : mWindow.getFloat(mOffset + 8);
+        }
+
+        public float y() {
+            return mCompressed ? mBlockY[mBlockIndex] : mWindow.getFloat(mOffset + 12);
+        }
+
+        public float z() {
+            return mCompressed ? mBlockZ[mBlockIndex] : mWindow.getFloat(mOffset + 16);
+        }
+    }
+}
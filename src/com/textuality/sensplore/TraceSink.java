@@ -0,0 +1,18 @@
+package com.textuality.sensplore;
+
+import java.io.IOException;
+
+/**
+ * Where CaptureWriter sends the samples, in time order, when it's recording a binary trace: a TraceWriter's one file, or a
+ *  SegmentWriter's series of them.
+ */
+public interface TraceSink {
+
+    /**
+     * @param type an android.hardware.Sensor type, or Trace.TYPE_ANGLE_CHANGE
+     * @param when nanoseconds since the first event of the capture
+     */
+    public void write(int type, long when, float x, float y, float z) throws IOException;
+
+    public void close() throws IOException;
+}
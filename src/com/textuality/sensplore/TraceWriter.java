@@ -0,0 +1,245 @@
+package com.textuality.sensplore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a binary trace (see Trace) through a FileChannel, a buffer-full of records at a time.  Not thread-safe; it belongs
+ *  to whichever thread is draining the samples.
+ *
+ * A compressed trace keeps a block of samples per sensor type and encodes it with TraceCodec when it fills, and remembers
+ *  where each block went for the index in the footer.  The CRC32 in the footer is worked out as the bytes go by, so close()
+ *  doesn't have to read anything back.  Until then nothing is forced to the storage device except by sync().
+ */
+public class TraceWriter implements TraceSink {
+
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    // on the heap, so the CRC can be taken from its array
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_RECORDS * Trace.RECORD_SIZE).order(Trace.ORDER);
+    private final CRC32 mCrc = new CRC32();
+    private long mLastMicros = 0;
+    private long mRecords = 0;
+    private volatile long mBytes = 0;
+    private long mFirstMicros = 0;
+    private long mLatestMicros = 0;
+    private int mCrcValue = 0;
+
+    // the footer's index, one entry per compressed block
+    private long[] mIndexOffsets = new long[256];
+    private long[] mIndexMicros = new long[256];
+    private int mIndexEntries = 0;
+    private long mIndexLatest = Long.MIN_VALUE;
+    private final boolean mCompressed;
+    private final ArrayList<Block> mBlocks = new ArrayList<Block>();
+    private final ByteBuffer mEncoded;
+
+    public TraceWriter(File file, Trace.Header header) throws IOException {
+        this(file, header, false);
+    }
+
+    /**
+     * @param compressed if true, the header's FLAG_COMPRESSED is set and the samples are written in compressed blocks
+     */
+    public TraceWriter(File file, Trace.Header header, boolean compressed) throws IOException {
+        mCompressed = compressed;
+        if (compressed) {
+            header.mFlags |= Trace.FLAG_COMPRESSED;
+            mEncoded = ByteBuffer.allocate(TraceCodec.maxEncodedSize(Trace.BLOCK_SAMPLES)).order(Trace.ORDER);
+        } else {
+            header.mFlags &= ~Trace.FLAG_COMPRESSED;
+            mEncoded = null;
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        ByteBuffer encoded = header.encode();
+        mBytes = encoded.remaining();
+        mCrc.update(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        while (encoded.hasRemaining()) {
+            mChannel.write(encoded);
+        }
+    }
+
+    /**
+     * @param when nanoseconds since the first event of the capture; stored to the nearest microsecond
+     */
+    public void write(int type, long when, float x, float y, float z) throws IOException {
+        final long micros = (when + 500) / 1000;
+        if (mRecords == 0) {
+            mFirstMicros = micros;
+        }
+        mLatestMicros = Math.max(mLatestMicros, micros);
+        if (mCompressed) {
+            block(type).add(micros, x, y, z);
+            mRecords++;
+            return;
+        }
+        if (!mBuffer.hasRemaining()) {
+            drain();
+        }
+        final long delta = micros - mLastMicros;
+        if (delta > Integer.MAX_VALUE || delta < Integer.MIN_VALUE) {
+            throw new IOException("gap of " + delta + " usec between trace records is too long");
+        }
+        mLastMicros = micros;
+        mBuffer.putInt(type).putInt((int) delta).putFloat(x).putFloat(y).putFloat(z);
+        mRecords++;
+    }
+
+    public long records() {
+        return mRecords;
+    }
+
+    /**
+     * @return bytes in the file so far, not counting what's still buffered; safe from any thread
+     */
+    public long bytes() {
+        return mBytes;
+    }
+
+    public long firstMicros() {
+        return mFirstMicros;
+    }
+
+    public long lastMicros() {
+        return mLatestMicros;
+    }
+
+    /**
+     * @return the CRC32 in the footer; only once it's closed
+     */
+    public int crc() {
+        return mCrcValue;
+    }
+
+    /**
+     * Writes out whatever's buffered, including partly-filled compressed blocks; doesn't force it to the storage device.
+     */
+    public void flush() throws IOException {
+        for (Block block : mBlocks) {
+            block.write();
+        }
+        drain();
+    }
+
+    /**
+     * Writes out whatever's buffered and forces it to the storage device, so that a crash after this loses nothing before
+     *  it.  Partly-filled compressed blocks go out as they are, which costs a little compression.
+     */
+    public void sync() throws IOException {
+        flush();
+        mChannel.force(false);
+    }
+
+    /**
+     * Writes out what's buffered and the footer, and forces the lot to the storage device.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+            Trace.Footer footer = new Trace.Footer();
+            footer.mIndexStart = mBytes;
+            footer.mEntries = mIndexEntries;
+            footer.mRecords = mRecords;
+            footer.mFirstMicros = mFirstMicros;
+            footer.mLastMicros = mLatestMicros;
+            ByteBuffer encoded = footer.encode(mIndexOffsets, mIndexMicros, mCrc);
+            mCrcValue = footer.mCrc;
+            mBytes += encoded.remaining();
+            while (encoded.hasRemaining()) {
+                mChannel.write(encoded);
+            }
+            mChannel.force(false);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private Block block(int type) {
+        for (int i = 0; i < mBlocks.size(); i++) {
+            Block block = mBlocks.get(i);
+            if (block.mType == type) {
+                return block;
+            }
+        }
+        Block block = new Block(type);
+        mBlocks.add(block);
+        return block;
+    }
+
+    private class Block {
+        private final int mType;
+        private final long[] mMicros = new long[Trace.BLOCK_SAMPLES];
+        private final float[] mX = new float[Trace.BLOCK_SAMPLES];
+        private final float[] mY = new float[Trace.BLOCK_SAMPLES];
+        private final float[] mZ = new float[Trace.BLOCK_SAMPLES];
+        private int mCount = 0;
+
+        public Block(int type) {
+            mType = type;
+        }
+
+        public void add(long micros, float x, float y, float z) throws IOException {
+            mMicros[mCount] = micros;
+            mX[mCount] = x;
+            mY[mCount] = y;
+            mZ[mCount] = z;
+            if (++mCount == Trace.BLOCK_SAMPLES) {
+                write();
+            }
+        }
+
+        public void write() throws IOException {
+            if (mCount == 0) {
+                return;
+            }
+            mEncoded.clear();
+            final int length = TraceCodec.encode(mMicros, mX, mY, mZ, mCount, mEncoded);
+            if (mBuffer.remaining() < Trace.BLOCK_HEADER_SIZE + length) {
+                drain();
+            }
+            index(mBytes + mBuffer.position(), mMicros[mCount - 1]);
+            mBuffer.putInt(mType).putInt(mCount).putInt(length).putLong(mMicros[0]);
+            mEncoded.flip();
+            mBuffer.put(mEncoded);
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Notes a block going out, and the latest time in it or any before it.
+     */
+    private void index(long offset, long micros) {
+        if (mIndexEntries == mIndexOffsets.length) {
+            mIndexOffsets = grow(mIndexOffsets);
+            mIndexMicros = grow(mIndexMicros);
+        }
+        mIndexLatest = Math.max(mIndexLatest, micros);
+        mIndexOffsets[mIndexEntries] = offset;
+        mIndexMicros[mIndexEntries++] = mIndexLatest;
+    }
+
+    private static long[] grow(long[] array) {
+        long[] bigger = new long[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        mBytes += mBuffer.remaining();
+        mCrc.update(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.limit());
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+}